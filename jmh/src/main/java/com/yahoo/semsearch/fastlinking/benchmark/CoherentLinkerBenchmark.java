@@ -0,0 +1,72 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.CoherentEntityLinker;
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+
+/**
+ * Forward pass of the coherent linker over a document with a number of entity mentions, each one with an n-best list
+ * of synthetic entities
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class CoherentLinkerBenchmark {
+    private static final int DOCUMENTS = 100;
+
+    @Param( { "6", "20" } )
+    public int mentions;
+
+    private CoherentEntityLinker linker;
+    private List<String>[][] nBestLists;
+    private String[][] surfaceStrings;
+    private int next;
+
+    @SuppressWarnings( "unchecked" )
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        linker = new CoherentEntityLinker( f.vectors );
+        final Random r = new Random( 0 );
+        nBestLists = new List[ DOCUMENTS ][ mentions ];
+        surfaceStrings = new String[ DOCUMENTS ][ mentions ];
+        for( int d = 0; d < DOCUMENTS; d++ ) {
+            for( int m = 0; m < mentions; m++ ) {
+                final List<String> nBest = new ArrayList<String>();
+                for( int i = 0; i < linker.getMAXNBEST(); i++ ) nBest.add( f.entityNames[ r.nextInt( f.entityNames.length ) ] );
+                nBestLists[ d ][ m ] = nBest;
+                surfaceStrings[ d ][ m ] = nBest.get( 0 ).replace( '_', ' ' );
+            }
+        }
+    }
+
+    @Benchmark
+    public String bestForwardPath() {
+        final int d = next++ % DOCUMENTS;
+        return linker.bestForwardPath( nBestLists[ d ], surfaceStrings[ d ] );
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+import com.yahoo.semsearch.fastlinking.hash.MappedEntityHash;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+
+/**
+ * Candidate lookups on the serialized and the memory-mapped hash, for aliases and for surface forms that are not in
+ * the hash (most of the n-grams of a query)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class HashBenchmark {
+    @Param( { "serialized", "mapped" } )
+    public String format;
+
+    private QuasiSuccinctEntityHash hash;
+    private String[] aliases;
+    private String[] misses;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        hash = format.equals( "mapped" ) ? MappedEntityHash.map( f.mappedHash ) : QuasiSuccinctEntityHash.load( f.hash );
+        aliases = f.aliases;
+        misses = new String[ aliases.length ];
+        for( int i = 0; i < misses.length; i++ ) misses[ i ] = aliases[ i ] + " " + f.words[ i % f.words.length ];
+    }
+
+    @Benchmark
+    public CandidatesInfo getCandidatesInfo() {
+        return hash.getCandidatesInfo( aliases[ next++ % aliases.length ] );
+    }
+
+    @Benchmark
+    public CandidatesInfo getCandidatesInfoMiss() {
+        return hash.getCandidatesInfo( misses[ next++ % misses.length ] );
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import it.cnr.isti.hpc.LinearAlgebra;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scalar against SIMD ({@link LinearAlgebra#KERNEL}) inner products (of floats and of int8 vectors) and cosines at the usual embedding sizes. The
+ * forks add the incubator Vector API module, so this needs JDK 17+ and FEL built with the java17 profile; otherwise
+ * the default kernel is the scalar one and both variants measure the same code.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector" )
+@State( Scope.Thread )
+public class LinearAlgebraBenchmark {
+    private static final int VECTORS = 64;
+
+    @Param( { "100", "300", "500" } )
+    public int dimensions;
+
+    private float[] entities;
+    private float[] query;
+    private byte[] entityBytes;
+    private byte[] queryBytes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        System.out.println( "Default kernels: " + LinearAlgebra.KERNEL );
+        final Random r = new Random( 0 );
+        entities = new float[ VECTORS * dimensions ];
+        query = new float[ dimensions ];
+        for( int i = 0; i < entities.length; i++ ) entities[ i ] = ( float ) r.nextGaussian();
+        for( int i = 0; i < query.length; i++ ) query[ i ] = ( float ) r.nextGaussian();
+        entityBytes = new byte[ entities.length ];
+        queryBytes = new byte[ query.length ];
+        r.nextBytes( entityBytes );
+        r.nextBytes( queryBytes );
+    }
+
+    @Benchmark
+    public float innerScalar() {
+        return LinearAlgebra.SCALAR.inner( dimensions, entities, ( next++ % VECTORS ) * dimensions, query, 0 );
+    }
+
+    @Benchmark
+    public float inner() {
+        return LinearAlgebra.KERNEL.inner( dimensions, entities, ( next++ % VECTORS ) * dimensions, query, 0 );
+    }
+
+    @Benchmark
+    public float cosineScalar() {
+        return LinearAlgebra.SCALAR.cosine( dimensions, entities, ( next++ % VECTORS ) * dimensions, query, 0 );
+    }
+
+    @Benchmark
+    public float cosine() {
+        return LinearAlgebra.KERNEL.cosine( dimensions, entities, ( next++ % VECTORS ) * dimensions, query, 0 );
+    }
+
+    @Benchmark
+    public int innerInt8Scalar() {
+        return LinearAlgebra.SCALAR.inner( dimensions, entityBytes, ( next++ % VECTORS ) * dimensions, queryBytes, 0 );
+    }
+
+    @Benchmark
+    public int innerInt8() {
+        return LinearAlgebra.KERNEL.inner( dimensions, entityBytes, ( next++ % VECTORS ) * dimensions, queryBytes, 0 );
+    }
+}
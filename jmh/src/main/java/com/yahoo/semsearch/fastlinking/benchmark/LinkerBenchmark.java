@@ -0,0 +1,82 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.EntityContextFastEntityLinker;
+import com.yahoo.semsearch.fastlinking.FastEntityLinker;
+import com.yahoo.semsearch.fastlinking.FastEntityLinker.EntityResult;
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+import com.yahoo.semsearch.fastlinking.hash.MappedEntityHash;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
+
+/**
+ * End to end linking of a synthetic query log with the probabilistic linker and the contextual linker, using the
+ * segmentation (getResults) and the greedy (getResultsGreedy) methods. The linker is shared by all the benchmark
+ * threads, so the suite can also be run with -t to measure contention
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class LinkerBenchmark {
+    @Param( { "probability", "contextual" } )
+    public String linker;
+
+    @Param( { "serialized", "mapped" } )
+    public String format;
+
+    private FastEntityLinker fel;
+    private String[] queries;
+
+    /**
+     * Position in the query log, kept per thread
+     */
+    @State( Scope.Thread )
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        QuasiSuccinctEntityHash hash = format.equals( "mapped" ) ? MappedEntityHash.map( f.mappedHash ) : QuasiSuccinctEntityHash.load( f.hash );
+        if( linker.equals( "contextual" ) ) {
+            fel = new EntityContextFastEntityLinker( hash, new LREntityContext( f.vectors, f.vectors, hash ) );
+        } else {
+            fel = new FastEntityLinker( hash, new EmptyContext() );
+        }
+        queries = f.queries;
+    }
+
+    @Benchmark
+    public List<EntityResult> getResults( Cursor cursor ) {
+        return fel.getResults( queries[ cursor.next++ % queries.length ], -30 );
+    }
+
+    @Benchmark
+    public List<EntityResult> getResultsGreedy( Cursor cursor ) {
+        return fel.getResultsGreedy( queries[ cursor.next++ % queries.length ], 10 );
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+import com.yahoo.semsearch.fastlinking.entityranker.ContextualRanker;
+import com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker;
+import com.yahoo.semsearch.fastlinking.hash.LookupBuffer;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.EntityContext;
+import com.yahoo.semsearch.fastlinking.view.EntityScore;
+import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
+
+/**
+ * Scoring of the candidates of an alias with the probabilistic ranker (every candidate, and the top 10 from a view,
+ * which stops at the candidate bounds) and the contextual ranker (highest ranked candidate, with the query words as context)
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class RankerBenchmark {
+    private ProbabilityRanker probabilityRanker;
+    private ContextualRanker contextualRanker;
+    private EntityContext emptyContext;
+    private EntityContext[] contexts;
+    private String[] aliases;
+    private CandidatesInfo[] candidates;
+    private CandidatesView view;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( f.hash );
+        probabilityRanker = new ProbabilityRanker( hash );
+        contextualRanker = new ContextualRanker( hash );
+        emptyContext = new EmptyContext();
+        final EntityContext context = new LREntityContext( f.vectors, f.vectors, hash );
+        aliases = f.aliases;
+        candidates = new CandidatesInfo[ aliases.length ];
+        for( int i = 0; i < aliases.length; i++ ) candidates[ i ] = hash.getCandidatesInfo( aliases[ i ] );
+        view = new CandidatesView();
+        hash.getCandidates( aliases, aliases.length, view, new LookupBuffer() );
+        contexts = new EntityContext[ f.queries.length ];
+        for( int i = 0; i < contexts.length; i++ ) {
+            contexts[ i ] = context.copy();
+            contexts[ i ].setContextWords( new ArrayList<String>( Arrays.asList( f.queries[ i ].split( " " ) ) ) );
+        }
+    }
+
+    @Benchmark
+    public double probabilityRank() {
+        final int i = next++ % aliases.length;
+        double sum = 0;
+        for( Entity e : candidates[ i ].entities ) sum += probabilityRanker.rank( e, candidates[ i ], emptyContext, aliases[ i ], 1 );
+        return sum;
+    }
+
+    @Benchmark
+    public ArrayList<EntityScore> probabilityTopK() {
+        final int i = next++ % aliases.length;
+        return probabilityRanker.getTopKEntities( view, i, emptyContext, aliases[ i ], 1, 10 );
+    }
+
+    @Benchmark
+    public EntityScore contextualHighestRankedEntity() {
+        final int i = next++ % aliases.length;
+        return contextualRanker.getHighestRankedEntity( candidates[ i ], contexts[ i % contexts.length ], aliases[ i ], 1 );
+    }
+}
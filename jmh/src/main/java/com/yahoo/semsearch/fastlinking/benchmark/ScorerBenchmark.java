@@ -0,0 +1,94 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import it.cnr.isti.hpc.EntityScorer;
+import it.cnr.isti.hpc.Int8Word2Vec;
+import it.cnr.isti.hpc.PQWord2Vec;
+import it.cnr.isti.hpc.Word2VecCompress;
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+import com.yahoo.semsearch.fastlinking.w2v.CustomLREntityScorer;
+
+/**
+ * Context scores of the candidates of an alias, one entity at a time against {@link EntityScorer.ScorerContext#scoreAll(long[], float[])},
+ * and the latter on {@link Int8Word2Vec} and {@link PQWord2Vec} entity vectors
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ScorerBenchmark {
+    private static final int CONTEXT_WORDS = 6;
+
+    @Param( { "10", "100", "500" } )
+    public int candidates;
+
+    private EntityScorer.ScorerContext context;
+    private EntityScorer.ScorerContext int8Context;
+    private EntityScorer.ScorerContext pqContext;
+    private long[] ids;
+    private float[] scores;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        final Word2VecCompress vectors = ( Word2VecCompress ) BinIO.loadObject( f.vectors );
+        final Random r = new Random( 0 );
+        final List<String> words = new ArrayList<String>();
+        for( int i = 0; i < CONTEXT_WORDS; i++ ) words.add( f.words[ r.nextInt( f.words.length ) ] );
+        context = new CustomLREntityScorer( vectors, vectors ).context( words );
+        int8Context = new CustomLREntityScorer( vectors, Int8Word2Vec.of( vectors ) ).context( words );
+        pqContext = new CustomLREntityScorer( vectors, PQWord2Vec.train( vectors, SyntheticFixtures.DIMENSIONS / 10, 10000, 10, 0 ) ).context( words );
+        ids = new long[ candidates ];
+        for( int i = 0; i < candidates; i++ ) ids[ i ] = vectors.word_id( f.entityNames[ r.nextInt( f.entityNames.length ) ] );
+        scores = new float[ candidates ];
+    }
+
+    @Benchmark
+    public float[] scoreOneByOne() {
+        for( int i = 0; i < candidates; i++ ) scores[ i ] = context.score( ids[ i ] );
+        return scores;
+    }
+
+    @Benchmark
+    public float[] scoreAll() {
+        context.scoreAll( ids, scores );
+        return scores;
+    }
+
+    @Benchmark
+    public float[] scoreAllInt8() {
+        int8Context.scoreAll( ids, scores );
+        return scores;
+    }
+
+    @Benchmark
+    public float[] scoreAllPQ() {
+        pqContext.scoreAll( ids, scores );
+        return scores;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.benchmark;
+
+import it.cnr.isti.hpc.FastInputBitStream;
+import it.cnr.isti.hpc.Word2VecCompress;
+import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.io.OutputBitStream;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+
+/**
+ * Decoding of compressed word vectors: whole vectors through {@link Word2VecCompress}, and Golomb codes through
+ * {@link FastInputBitStream}, one at a time and a vector at a time
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class VectorBenchmark {
+    private static final int CODES = 1 << 16;
+    private static final int MODULUS = 3;
+    private static final int DIMENSIONS = 256;
+
+    private Word2VecCompress vectors;
+    private String[] words;
+    private float[] vector;
+    private byte[] stream;
+    private int[] moduli;
+    private int[] log2;
+    private int[] values;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticFixtures f = SyntheticFixtures.get();
+        vectors = ( Word2VecCompress ) BinIO.loadObject( f.vectors );
+        words = f.words;
+        vector = new float[ vectors.dimensions() ];
+
+        final Random r = new Random( 0 );
+        final FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+        final OutputBitStream obs = new OutputBitStream( bytes, 0 );
+        for( int i = 0; i < CODES; i++ ) obs.writeGolomb( Fast.int2nat( ( int ) Math.round( r.nextGaussian() * 3 ) ), MODULUS );
+        obs.close();
+        while( bytes.length() % 4 != 0 ) bytes.write( 0 ); //FastInputBitStream reads ints
+        bytes.trim();
+        stream = bytes.array;
+        moduli = new int[ DIMENSIONS ];
+        log2 = new int[ DIMENSIONS ];
+        Arrays.fill( moduli, MODULUS );
+        Arrays.fill( log2, Fast.mostSignificantBit( MODULUS ) );
+        values = new int[ DIMENSIONS ];
+    }
+
+    @Benchmark
+    public float[] getById() {
+        vectors.get( next++ % words.length, vector, 0 );
+        return vector;
+    }
+
+    @Benchmark
+    public boolean getByWord() {
+        return vectors.get( words[ next++ % words.length ], vector, 0 );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( CODES )
+    public int readGolomb() {
+        final FastInputBitStream ibs = new FastInputBitStream( stream );
+        int sum = 0;
+        for( int i = 0; i < CODES; i++ ) sum += ibs.readGolomb( MODULUS );
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( CODES )
+    public int readGolombVector() {
+        final FastInputBitStream ibs = new FastInputBitStream( stream );
+        int sum = 0;
+        for( int i = 0; i < CODES; i += DIMENSIONS ) {
+            ibs.readGolombVector( moduli, log2, values );
+            sum += values[ DIMENSIONS - 1 ];
+        }
+        return sum;
+    }
+}
@@ -6,8 +6,8 @@
 package com.yahoo.semsearch.fastlinking;
 
 import com.yahoo.semsearch.fastlinking.entityranker.ContextualRanker;
+import com.yahoo.semsearch.fastlinking.entityranker.LearnedRanker;
 import com.yahoo.semsearch.fastlinking.view.Span;
-import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -66,6 +66,11 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
                         new Switch( "centroid", 'c', "centroid", "Use centroid-based distances and not LR" ),
                         new FlaggedOption( "map", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'm', "map", "Entity 2 type mapping " ),
                         new FlaggedOption( "threshold", JSAP.STRING_PARSER, "-20", JSAP.NOT_REQUIRED, 'd', "threshold", "Score threshold value " ),
+                        new FlaggedOption( "ranker", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', "ranker", "Learned ranker model file (see LearnedRankerTrainer)" ),
+                        new FlaggedOption( "surviving", JSAP.INTEGER_PARSER, "1000", JSAP.NOT_REQUIRED, 's', "surviving", "Maximum number of candidates of an alias whose context is scored" ),
+                        new FlaggedOption( "mass", JSAP.DOUBLE_PARSER, "1", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "mass", "Fraction of the first phase probability of an alias whose candidates get their context scored" ),
+                        new FlaggedOption( "maxScores", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "maxScores", "Maximum number of context scores per query (0 for no limit)" ),
+                        new FlaggedOption( "maxMillis", JSAP.DOUBLE_PARSER, "0", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "maxMillis", "Time per query after which no more context scores are computed (0 for no limit)" ),
                         new FlaggedOption( "entities", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'e', "entities", "Entities word vectors file" ), }
         );
 
@@ -73,7 +78,7 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
         if( jsap.messagePrinted() ) return;
 
         double threshold = Double.parseDouble( jsapResult.getString("threshold") );
-        QuasiSuccinctEntityHash hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( jsapResult.getString( "hash" ) );
+        QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( jsapResult.getString( "hash" ) );
         EntityContext queryContext;
         if( !jsapResult.getBoolean( "centroid" ) ) {
             queryContext = new LREntityContext( jsapResult.getString( "vectors" ), jsapResult.getString( "entities" ), hash );
@@ -92,6 +97,15 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
         if( map != null ) entities2Type = readEntity2IdFile( map );
 
         EntityContextFastEntityLinker linker = new EntityContextFastEntityLinker( hash, queryContext );
+        if( jsapResult.getString( "ranker" ) != null ) linker.setRanker( new LearnedRanker( jsapResult.getString( "ranker" ) ) );
+        ContextualRanker cascade = null;
+        if( linker.ranker instanceof ContextualRanker ) {
+            cascade = ( ContextualRanker ) linker.ranker;
+            cascade.survivingCandidates = jsapResult.getInt( "surviving" );
+            cascade.survivingMass = jsapResult.getDouble( "mass" );
+            cascade.maxQueryScores = jsapResult.getLong( "maxScores" );
+            cascade.maxQueryNanos = ( long ) ( jsapResult.getDouble( "maxMillis" ) * 1000000 );
+        }
 
 
         final BufferedReader br = new BufferedReader( new InputStreamReader( System.in ) );
@@ -104,6 +118,7 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
                 break; // CTRL-D
             }
             if( q.length() == 0 ) continue;
+            if( cascade != null ) cascade.resetCounters(); //the counters printed below are per query
             long time = -System.nanoTime();
             try {
                 List<EntityResult> results = linker.getResults( q, threshold );
@@ -146,6 +161,7 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
                 }
                 time += System.nanoTime();
                 System.out.println( "Time to rank and print the candidates:" + time / 1000000. + " ms" );
+                if( cascade != null ) System.out.println( "Candidates: " + cascade.counters() );
             } catch( Exception e ) {
                 e.printStackTrace();
             }
@@ -201,7 +217,7 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
     }
 
     @Override
-    public void setContext( Span[] parts, int left, int right ) {
+    public void setContext( Span[] parts, int left, int right, EntityContext context ) {
         ArrayList<String> ctxWords = new ArrayList<>();
         for( Span p : parts )
             ctxWords.add( p.getSpan() );
@@ -209,7 +225,7 @@ public class EntityContextFastEntityLinker extends FastEntityLinker {
     }
 
     @Override
-    public void setContext( String[] parts, int left, int right ) {
+    public void setContext( String[] parts, int left, int right, EntityContext context ) {
         ArrayList<String> ctxWords = new ArrayList<>();
         for( String p : parts )
             ctxWords.add( p );
@@ -9,7 +9,6 @@ import com.yahoo.semsearch.fastlinking.view.EmptyContext;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
 import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
 
-import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.IOException;
 import java.util.List;
@@ -26,7 +25,7 @@ public class EntityLinkerWrapper {
     public EntityLinkerWrapper(String hashFile, String unigramFile, String entityFile) {
         try {
             EntityContext queryContext;
-            hash = (QuasiSuccinctEntityHash) BinIO.loadObject(hashFile);
+            hash = QuasiSuccinctEntityHash.load(hashFile);
             queryContext = new LREntityContext(unigramFile, entityFile, hash);
             linker = new EntityContextFastEntityLinker(hash, hash.stats, queryContext);
 
@@ -40,7 +39,7 @@ public class EntityLinkerWrapper {
 
     public EntityLinkerWrapper(String hashFile) {
         try {
-            QuasiSuccinctEntityHash hash = (QuasiSuccinctEntityHash) BinIO.loadObject(hashFile);
+            QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load(hashFile);
 
             fel = new FastEntityLinker(hash, hash.stats, new EmptyContext());
 
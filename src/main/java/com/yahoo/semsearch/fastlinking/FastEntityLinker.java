@@ -4,7 +4,6 @@
  **/
 package com.yahoo.semsearch.fastlinking;
 
-import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -18,6 +17,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.yahoo.semsearch.fastlinking.entityranker.CandidateRanker;
 import com.yahoo.semsearch.fastlinking.entityranker.EntityRelevanceJudgment;
@@ -25,20 +25,33 @@ import com.yahoo.semsearch.fastlinking.entityranker.NPMIRanker;
 import com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker;
 import com.yahoo.semsearch.fastlinking.hash.AbstractEntityHash;
 import com.yahoo.semsearch.fastlinking.hash.CountAndRecordStats;
+import com.yahoo.semsearch.fastlinking.hash.LookupBuffer;
+import com.yahoo.semsearch.fastlinking.hash.NGramHash;
 import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
 import com.yahoo.semsearch.fastlinking.utils.Normalize;
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.EmptyContext;
 import com.yahoo.semsearch.fastlinking.view.Entity;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
 import com.yahoo.semsearch.fastlinking.view.EntityScore;
 import com.yahoo.semsearch.fastlinking.view.EntitySpan;
 import com.yahoo.semsearch.fastlinking.view.Span;
+import com.yahoo.semsearch.fastlinking.view.TextWindow;
+
+import it.cnr.isti.hpc.ClockCache;
 
 /**
  * Entity linker class. this class uses an AbstractEntityHash to select candidates and proxies the scoring of
  * these candidates to a CandidateScorer
  * It contains two methods for selecting candidates, one based on dynamic programming and a greedy one. For details on these algorithms
+ * <p/>
+ * A single linker (and therefore a single copy of the hash and the ranker) can be shared across threads:
+ * {@link #getResults(String, double)} and {@link #getResultsGreedy(String, int)} score every request with its own
+ * copy of the context (see {@link EntityContext#copy()}), so no per-query state is kept in the linker itself.
+ * <p/>
+ * Optionally, the ranked candidates of every alias can be cached (see {@link #setAliasCache(int)}) when the ranker
+ * does not depend on the query context, and so can the results of whole queries (see {@link #setQueryCache(int, long, TimeUnit)}).
  *
  * @author roi blanco
  * @see <a href="http://www.dc.fi.udc.es/~roi/publications/wsdm2015.pdf/">fast entity linking on queries</a>
@@ -52,10 +65,24 @@ public class FastEntityLinker {
 
     private static final String[] STOPWORDS = new String[]{ "wiki", "com", "www" };
     private static final Set<String> FILTER = new HashSet<String>( Arrays.asList( STOPWORDS ) );
-    private double nilValueOne = -100;
+    private final double nilValueOne = -100;
     private final Entity nilEntity = new Entity( -1 );
-    private EntityScore nilCandidate = new EntityScore( nilEntity, nilValueOne );
-    private final Entity[] emptyEntities = new Entity[ 0 ];
+    private final EntityScore nilCandidate = new EntityScore( nilEntity, nilValueOne );
+    private final ThreadLocal<LookupBuffer> lookupBuffers = new ThreadLocal<LookupBuffer>() {
+        @Override
+        protected LookupBuffer initialValue() {
+            return new LookupBuffer();
+        }
+    };
+    private final ThreadLocal<CandidatesView> candidateViews = new ThreadLocal<CandidatesView>() {
+        @Override
+        protected CandidatesView initialValue() {
+            return new CandidatesView();
+        }
+    };
+    private static final EntityScore[] NOT_AN_ALIAS = new EntityScore[ 0 ];
+    private volatile ClockCache<AliasKey, EntityScore[]> aliasCache;
+    private volatile ClockCache<QueryKey, QueryResults> queryCache;
     
     /** 
      * No-args constructor for Kappa.
@@ -68,7 +95,7 @@ public class FastEntityLinker {
      * @param hashFile
      */
     public FastEntityLinker(String hashFile) throws ClassNotFoundException, IOException {
-        this((QuasiSuccinctEntityHash)BinIO.loadObject(hashFile), new EmptyContext());
+        this(QuasiSuccinctEntityHash.load(hashFile), new EmptyContext());
     }
     
     public FastEntityLinker( AbstractEntityHash hash, EntityContext context ) {
@@ -85,6 +112,211 @@ public class FastEntityLinker {
 
     public void setNPMIRanker() {
         ranker = new NPMIRanker( ( QuasiSuccinctEntityHash ) hash );
+        flushCaches();
+    }
+
+    /**
+     * Removes the Wikipedia weight of the ranker (see {@link ProbabilityRanker#removeWiki()}) and empties the caches,
+     * which hold scores of the old weights
+     */
+    public void removeWiki() {
+        probabilityRanker().removeWiki();
+        flushCaches();
+    }
+
+    /**
+     * Removes the query log weight of the ranker (see {@link ProbabilityRanker#removeQuery()}) and empties the caches,
+     * which hold scores of the old weights
+     */
+    public void removeQuery() {
+        probabilityRanker().removeQuery();
+        flushCaches();
+    }
+
+    private ProbabilityRanker probabilityRanker() {
+        if( !( ranker instanceof ProbabilityRanker ) ) throw new UnsupportedOperationException( "The ranker of the linker has no query log and Wikipedia weights" );
+        return ( ProbabilityRanker ) ranker;
+    }
+
+    /**
+     * Replaces the ranker of the linker, e.g., with a {@link com.yahoo.semsearch.fastlinking.entityranker.LearnedRanker}
+     *
+     * @param ranker ranker to score the candidates with
+     */
+    public void setRanker( CandidateRanker ranker ) {
+        this.ranker = ranker;
+        flushCaches();
+    }
+
+    /**
+     * Key of the alias cache: the ranker, the surface form and the number of ranked candidates (-1 for the highest
+     * ranked one only, as returned by {@link CandidateRanker#getHighestRankedEntity}). Surface forms are compared by
+     * content, so a key over a {@link TextWindow} finds the entry stored under the same String without copying it.
+     */
+    private static final class AliasKey {
+        final CandidateRanker ranker;
+        final CharSequence surfaceForm;
+        final int k;
+        private final int hashCode;
+
+        AliasKey( CandidateRanker ranker, CharSequence surfaceForm, int k ) {
+            this.ranker = ranker;
+            this.surfaceForm = surfaceForm;
+            this.k = k;
+            this.hashCode = 31 * TextWindow.hashCode( surfaceForm ) + k;
+        }
+
+        /**
+         * @return a key that can be stored in the cache, i.e., that does not hold on to a window over a query
+         */
+        AliasKey toStored() {
+            return surfaceForm instanceof String ? this : new AliasKey( ranker, surfaceForm.toString(), k );
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if( !( o instanceof AliasKey ) ) return false;
+            AliasKey other = ( AliasKey ) o;
+            return ranker == other.ranker && k == other.k && TextWindow.contentEquals( surfaceForm, other.surfaceForm );
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Enables (or disables) a bounded cache of the ranked candidates of every alias, shared by all the threads.
+     * The cache is only used with rankers that do not depend on the query (see {@link CandidateRanker#isContextFree()});
+     * the contextual rankers always score the candidates. Surface forms that are not aliases are cached as well.
+     * The cached {@link EntityScore} objects are shared across requests and must not be modified.
+     *
+     * @param capacity maximum number of cached surface forms, or 0 to disable the cache
+     */
+    public void setAliasCache( int capacity ) {
+        aliasCache = capacity > 0 ? new ClockCache<AliasKey, EntityScore[]>( capacity ) : null;
+    }
+
+    /**
+     * Getter for the alias cache, which holds the hit, miss and eviction counters
+     *
+     * @return the alias cache, or null if it is disabled
+     */
+    public ClockCache<?, ?> getAliasCache() {
+        return aliasCache;
+    }
+
+    /**
+     * Key of the query cache: the ranker, the normalized tokens of the query, the method (chunking or greedy) and
+     * its parameter (threshold or number of results)
+     */
+    private static final class QueryKey {
+        final CandidateRanker ranker;
+        final String tokens;
+        final boolean greedy;
+        final double parameter;
+
+        QueryKey( CandidateRanker ranker, String tokens, boolean greedy, double parameter ) {
+            this.ranker = ranker;
+            this.tokens = tokens;
+            this.greedy = greedy;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if( !( o instanceof QueryKey ) ) return false;
+            QueryKey other = ( QueryKey ) o;
+            return ranker == other.ranker && greedy == other.greedy && Double.compare( parameter, other.parameter ) == 0 && tokens.equals( other.tokens );
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * tokens.hashCode() + Double.hashCode( parameter ) + ( greedy ? 1 : 0 );
+        }
+    }
+
+    /**
+     * Cached results of a query. The spans of the results depend on the original (not normalized) query, so the
+     * cache keeps the tokens every span covers and the results are rebuilt for every query that hits the cache
+     */
+    private static final class QueryResults {
+        final EntityResult[] results;
+        final int[] first;
+        final int[] last;
+
+        QueryResults( List<EntityResult> results, Span[] parts ) {
+            this.results = results.toArray( new EntityResult[ results.size() ] );
+            if( parts == null ) {
+                first = last = null;
+                return;
+            }
+            first = new int[ this.results.length ];
+            last = new int[ this.results.length ];
+            for( int i = 0; i < this.results.length; i++ ) {
+                final Span s = this.results[ i ].s;
+                while( parts[ first[ i ] ].getStartOffset() != s.getStartOffset() ) first[ i ]++;
+                last[ i ] = first[ i ];
+                while( parts[ last[ i ] ].getEndOffset() != s.getEndOffset() ) last[ i ]++;
+            }
+        }
+
+        /**
+         * @param query query that hit the cache
+         * @param parts normalized spans of the query (null for the greedy results)
+         * @return new result objects for the query
+         */
+        List<EntityResult> results( String query, Span[] parts ) {
+            List<EntityResult> res = new ArrayList<EntityResult>( results.length );
+            for( int i = 0; i < results.length; i++ ) {
+                final EntityResult r = results[ i ];
+                final Span s;
+                if( parts == null ) {
+                    s = new EntitySpan( query );
+                } else {
+                    final EntitySpan span = ( EntitySpan ) r.s;
+                    s = new EntitySpan( new Span( span.span, parts[ first[ i ] ].getStartOffset(), parts[ last[ i ] ].getEndOffset() ), span.e, span.score );
+                }
+                res.add( new EntityResult( s, r.text, r.id, r.score, r.type ) );
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Enables (or disables) a bounded cache of the results of {@link #getResults} and {@link #getResultsGreedy},
+     * shared by all the threads and keyed on the normalized tokens of the query, so repeated queries skip the
+     * segmentation and the scoring altogether. Every request must use the linker's context (or a copy of it), which
+     * holds for the contextual linkers, whose per-request context is derived from the same tokens.
+     *
+     * @param capacity maximum number of cached queries, or 0 to disable the cache
+     * @param ttl      time to live of the cached results, or 0 if they never expire
+     * @param unit     unit of the time to live
+     */
+    public void setQueryCache( int capacity, long ttl, TimeUnit unit ) {
+        queryCache = capacity > 0 ? new ClockCache<QueryKey, QueryResults>( capacity, ttl, unit ) : null;
+    }
+
+    /**
+     * Getter for the query cache, which holds the hit, miss and eviction counters
+     *
+     * @return the query cache, or null if it is disabled
+     */
+    public ClockCache<?, ?> getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Empties the alias and the query caches. This must be called whenever the hash, the context or the ranker
+     * change, including the public parameters of the ranker (e.g.,
+     * {@link com.yahoo.semsearch.fastlinking.entityranker.ContextualRanker#mu}), as the cached results would be stale
+     */
+    public void flushCaches() {
+        final ClockCache<AliasKey, EntityScore[]> aliases = aliasCache;
+        if( aliases != null ) aliases.clear();
+        final ClockCache<QueryKey, QueryResults> queries = queryCache;
+        if( queries != null ) queries.clear();
     }
 
 
@@ -115,14 +347,39 @@ public class FastEntityLinker {
 
     /**
      * Given a query and a threshold, segments the query, detects the candidates and scores them. Returns a candidate only if it is above the threshold
+     * This method is thread-safe, every call uses its own copy of the context.
      *
      * @param query     input query
      * @param threshold score threshold
      * @return list of entity results for the query that score above the given threshold
      */
     public List<EntityResult> getResults( final String query, final double threshold ) {
+        return getResults( query, threshold, null );
+    }
+
+    /**
+     * Same as {@link #getResults(String, double)} but uses a caller-provided context to hold the per-query state.
+     * The context must not be used concurrently by other requests (one context per thread can be reused across calls)
+     *
+     * @param query     input query
+     * @param threshold score threshold
+     * @param context   per-request context, obtained through {@link EntityContext#copy()}, or null to use a copy of the
+     *                  linker's context (only made if the query is not cached)
+     * @return list of entity results for the query that score above the given threshold
+     */
+    public List<EntityResult> getResults( final String query, final double threshold, EntityContext context ) {
+        final CandidateRanker ranker = this.ranker;
+        final Span[] parts = Normalize.normalizeWithSpans( query );
+        final ClockCache<QueryKey, QueryResults> cache = queryCache;
+        QueryKey key = null;
+        if( cache != null ) {
+            key = new QueryKey( ranker, tokens( parts ), false, threshold );
+            QueryResults cached = cache.get( key );
+            if( cached != null ) return cached.results( query, parts );
+        }
+        if( context == null ) context = this.context.copy();
         List<EntityResult> res = new ArrayList<EntityResult>();
-        ArrayList<EntitySpan> entityAnnotation = getBestChunking( query, ranker, context );
+        ArrayList<EntitySpan> entityAnnotation = getBestChunking( parts, ranker, context );
         for( EntitySpan span : entityAnnotation ) {
             if( span.e.id != -1 ) {
                 Entity e = span.e;
@@ -131,9 +388,25 @@ public class FastEntityLinker {
             }
         }
         Collections.sort( res );
+        if( cache != null ) cache.put( key, new QueryResults( res, parts ) );
         return res;
     }
 
+    /**
+     * Joins the normalized tokens of a query
+     *
+     * @param parts normalized spans of the query
+     * @return the tokens separated by spaces, as returned by {@link Normalize#normalize(String)}
+     */
+    private static String tokens( Span[] parts ) {
+        StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < parts.length; i++ ) {
+            if( i > 0 ) sb.append( ' ' );
+            sb.append( parts[ i ].span );
+        }
+        return sb.toString();
+    }
+
     /**
      * Max value of two double numbers
      *
@@ -153,7 +426,9 @@ public class FastEntityLinker {
      * @param left  index where the context begins at
      * @param right index where the context ends at
      */
-    public void setContext( Span[] parts, int left, int right ) { }
+    public void setContext( Span[] parts, int left, int right ) {
+        setContext( parts, left, right, context );
+    }
 
     /**
      * Method used to set the proper per query context. Emtpy in FastEntityLinker but extended in subclasses
@@ -162,7 +437,29 @@ public class FastEntityLinker {
      * @param left  index where the context begins at
      * @param right index where the context ends at
      */
-    public void setContext( String[] parts, int left, int right ) { }
+    public void setContext( String[] parts, int left, int right ) {
+        setContext( parts, left, right, context );
+    }
+
+    /**
+     * Sets the words of a per-request context. Emtpy in FastEntityLinker but extended in subclasses
+     *
+     * @param parts   string array holding the context
+     * @param left    index where the context begins at
+     * @param right   index where the context ends at
+     * @param context per-request context to set
+     */
+    public void setContext( Span[] parts, int left, int right, EntityContext context ) { }
+
+    /**
+     * Sets the words of a per-request context. Emtpy in FastEntityLinker but extended in subclasses
+     *
+     * @param parts   string array holding the context
+     * @param left    index where the context begins at
+     * @param right   index where the context ends at
+     * @param context per-request context to set
+     */
+    public void setContext( String[] parts, int left, int right, EntityContext context ) { }
 
     /**
      * Selects a substring from a string array and returns it as a string
@@ -209,6 +506,19 @@ public class FastEntityLinker {
      * @return score for the spain between lower and higher
      */
     public EntityScore scoreSegment( Span[] parts, int min, int max ) {
+        return scoreSegment( parts, min, max, context );
+    }
+
+    /**
+     * Returns the score of a segment of a string array in between two indexes using a per-request context
+     *
+     * @param parts   string array containing the query
+     * @param min     lower index of the segment
+     * @param max     higher index of the segment
+     * @param context context used to score the candidates
+     * @return score for the span between lower and higher
+     */
+    public EntityScore scoreSegment( Span[] parts, int min, int max, EntityContext context ) {
         Span surfaceForm = chunk( parts, min, max );
         CandidatesInfo candidatesInfo = hash.getCandidatesInfo( surfaceForm.span );
         if( candidatesInfo == null ) return nilCandidate;
@@ -225,12 +535,92 @@ public class FastEntityLinker {
      * @return score for the span between
      */
     public EntityScore scoreSegment( String[] parts, int min, int max ) {
+        return scoreSegment( parts, min, max, context );
+    }
+
+    /**
+     * Returns the score of a segment of a string array in between to indexes using a per-request context
+     *
+     * @param parts   string array containing the query
+     * @param min     lower index of the segment
+     * @param max     higher index of the segment
+     * @param context context used to score the candidates
+     * @return score for the span between
+     */
+    public EntityScore scoreSegment( String[] parts, int min, int max, EntityContext context ) {
         String surfaceForm = chunk( parts, min, max );
         CandidatesInfo candidatesInfo = hash.getCandidatesInfo( surfaceForm );
         if( candidatesInfo == null ) return nilCandidate;
         return ranker.getHighestRankedEntity( candidatesInfo, context, surfaceForm, max - min );
     }
 
+    /**
+     * Looks up the candidates of a batch of surface forms in one go, using the lookup buffer and the view of the
+     * calling thread. The view is overwritten by the next lookup of the same thread
+     *
+     * @param surfaceForms surface forms to look up
+     * @param n number of surface forms
+     * @return view with the candidates of every surface form
+     */
+    private CandidatesView getCandidates( CharSequence[] surfaceForms, int n ) {
+        CandidatesView view = candidateViews.get();
+        hash.getCandidates( surfaceForms, n, view, lookupBuffers.get() );
+        return view;
+    }
+
+    /**
+     * Ranks the candidates of a batch of surface forms. Surface forms found in the alias cache are not looked up,
+     * the rest are looked up in one batch, ranked, and (if the cache is enabled for the ranker) cached.
+     *
+     * @param surfaceForms surface forms to rank, e.g. windows over the query; only those of aliases are materialized
+     * @param lengths      length passed to the ranker for every surface form
+     * @param n            number of surface forms
+     * @param query        text passed to the ranker instead of the surface forms, or null
+     * @param k            number of candidates to rank per surface form, or -1 for the highest ranked one only
+     * @param ranker       ranker to score the candidates
+     * @param context      per-request context
+     * @return the ranked candidates of every surface form (empty if the surface form is not an alias)
+     */
+    private EntityScore[][] rank( CharSequence[] surfaceForms, int[] lengths, int n, String query, int k, CandidateRanker ranker, EntityContext context ) {
+        final EntityScore[][] ranked = new EntityScore[ n ][];
+        final ClockCache<AliasKey, EntityScore[]> cache = ranker.isContextFree() ? aliasCache : null;
+        AliasKey[] keys = null;
+        CharSequence[] missing = surfaceForms;
+        int[] positions = null;
+        int misses = n;
+        if( cache != null ) {
+            keys = new AliasKey[ n ];
+            missing = new CharSequence[ n ];
+            positions = new int[ n ];
+            misses = 0;
+            for( int i = 0; i < n; i++ ) {
+                keys[ i ] = new AliasKey( ranker, surfaceForms[ i ], k );
+                ranked[ i ] = cache.get( keys[ i ] );
+                if( ranked[ i ] == null ) {
+                    missing[ misses ] = surfaceForms[ i ];
+                    positions[ misses++ ] = i;
+                }
+            }
+            if( misses == 0 ) return ranked;
+        }
+        final CandidatesView candidates = getCandidates( missing, misses );
+        for( int m = 0; m < misses; m++ ) {
+            final int i = positions == null ? m : positions[ m ];
+            if( !candidates.isAlias( m ) ) {
+                ranked[ i ] = NOT_AN_ALIAS;
+            } else if( k < 0 ) {
+                final String surfaceForm = query != null ? query : surfaceForms[ i ].toString(); //only aliases are materialized
+                ranked[ i ] = new EntityScore[]{ ranker.getHighestRankedEntity( candidates, m, context, surfaceForm, lengths[ i ] ) };
+            } else {
+                final String surfaceForm = query != null ? query : surfaceForms[ i ].toString();
+                ArrayList<EntityScore> top = ranker.getTopKEntities( candidates, m, context, surfaceForm, lengths[ i ], k );
+                ranked[ i ] = top.toArray( new EntityScore[ top.size() ] );
+            }
+            if( cache != null ) cache.put( keys[ i ].toStored(), ranked[ i ] );
+        }
+        return ranked;
+    }
+
     /**
      * Selects the chunking that maximizes the likelihood of the candidates
      * Given a sequence A1 A2 A3 ... AK the max score of any chunking is m(A1 A2
@@ -238,15 +628,56 @@ public class FastEntityLinker {
      * m([A1..AK-1])+m([AK]), m([A1...AK]) ) where [A1A2] is string resulting of
      * concatenating A1 and A2 and m([A1]) = s(A1) and m([A1A2]) = m([A1A2],
      * m(A1) + m(A2)
+     * <p/>
+     * Segments longer than the longest alias in the hash can't have candidates, so only the n-grams of up to
+     * {@link AbstractEntityHash#maxAliasLength()} tokens are built (incrementally, by extending the n-grams that start
+     * at the same token) and looked up, and the longer segments are scored as NIL in constant time. This makes the
+     * chunking O(n·k) for a query of n tokens and aliases of at most k tokens. Every token is hashed once, and the
+     * {@link NGramHash} of an n-gram is derived from the one it extends. An n-gram is only extended if it is a prefix
+     * of some alias, and only built and looked up if it may be an alias (see
+     * {@link AbstractEntityHash#isAliasPrefix(long)} and {@link AbstractEntityHash#mayBeAlias(long)}). The n-grams are
+     * looked up as {@link TextWindow windows} over the normalized query, so only the aliases (which get ranked) and
+     * the segments of the chunking become Strings.
      *
-     * @param q      query
-     * @param ranker ranker to score candidates
+     * @param parts   normalized spans of the query
+     * @param ranker  ranker to score candidates
+     * @param context per-request context
      */
 
-    private ArrayList<EntitySpan> getBestChunking( String q, CandidateRanker ranker, EntityContext context ) {
-        Span parts[] = Normalize.normalizeWithSpans( q );
+    private ArrayList<EntitySpan> getBestChunking( Span[] parts, CandidateRanker ranker, EntityContext context ) {
         final int l = parts.length;
-        setContext( parts, 0, 0 );
+        final int maxLength = Math.min( l, hash.maxAliasLength() );
+        context.startQuery();
+        setContext( parts, 0, 0, context );
+        //the segments ending at i are stored from first[ i ] on, by increasing start, and all of them are looked up in one batch
+        final int[] first = new int[ l + 1 ];
+        for( int i = 0; i < l; i++ ) first[ i + 1 ] = first[ i ] + Math.min( i + 1, maxLength );
+        final int n = first[ l ];
+        final int[] batch = new int[ n ]; //position of every segment in the lookup batch, or -1 if it can't be an alias
+        Arrays.fill( batch, -1 );
+        final CharSequence[] surfaceForms = new CharSequence[ n ];
+        final int[] lengths = new int[ n ];
+        int m = 0;
+        //the tokens separated by spaces; the segment from j to i is text[ starts[ j ], starts[ i + 1 ] - 1 )
+        final String text = tokens( parts );
+        final int[] starts = new int[ l + 1 ];
+        final long[] tokenHashes = new long[ l ];
+        for( int i = 0; i < l; i++ ) {
+            starts[ i + 1 ] = starts[ i ] + parts[ i ].span.length() + 1;
+            tokenHashes[ i ] = NGramHash.token( parts[ i ].span );
+        }
+        for( int j = 0; j < l; j++ ) { //extend the segments starting at j one token at a time
+            long ngram = NGramHash.EMPTY;
+            for( int i = j; i < l && i - j < maxLength; i++ ) {
+                if( i > j && !hash.isAliasPrefix( ngram ) ) break;
+                ngram = NGramHash.extend( ngram, tokenHashes[ i ] );
+                if( !hash.mayBeAlias( ngram ) ) continue;
+                batch[ first[ i ] + j - Math.max( 0, i - maxLength + 1 ) ] = m;
+                surfaceForms[ m ] = new TextWindow( text, starts[ j ], starts[ i + 1 ] - 1 - starts[ j ] );
+                lengths[ m++ ] = i - j;
+            }
+        }
+        final EntityScore[][] ranked = rank( surfaceForms, lengths, m, null, -1, ranker, context );
         Entity[] ids = new Entity[ l + 1 ];
         double[] maxscores = new double[ l + 1 ];
         int[] previous = new int[ l + 1 ];
@@ -257,9 +688,21 @@ public class FastEntityLinker {
             previous[ i ] = i;//new
         }
 
+        int lastPositive = -1; //last start j, among those of the segments too long to be aliases, whose NIL score beats nilValueOne
         for( int i = 0; i < l; i++ ) {
-            for( int j = 0; j < i + 1; j++ ) {
-                EntityScore candidate = scoreSegment( parts, j, i );
+            //the segments that start before i - maxLength + 1 are NIL, and are scanned first: one from j only beats the
+            //initial score if nilCandidate.score + maxscores[ j ] > nilValueOne, which leaves the score as it was, so the last such j wins
+            if( i >= maxLength && nilCandidate.score + maxscores[ i - maxLength ] > nilValueOne ) lastPositive = i - maxLength;
+            if( lastPositive != -1 ) {
+                maxscores[ i ] = nilCandidate.score + maxscores[ lastPositive ];
+                currentScores[ i ] = nilCandidate.score;
+                previous[ i ] = lastPositive;
+                ids[ i ] = nilCandidate.entity;
+            }
+            final int from = Math.max( 0, i - maxLength + 1 );
+            for( int j = from; j < i + 1; j++ ) {
+                final int k = batch[ first[ i ] + j - from ];
+                EntityScore candidate = k == -1 || ranked[ k ].length == 0 ? nilCandidate : ranked[ k ][ 0 ];
                 double score = candidate.score + maxscores[ j ];
                 if( score > currentScores[ i ] ) {
                     maxscores[ i ] = score;
@@ -276,7 +719,7 @@ public class FastEntityLinker {
         while( i > 0 ) {
             i--;
             j = previous[ i ];
-            Span segment = chunk( parts, j, i );//span to add
+            Span segment = new Span( text.substring( starts[ j ], starts[ i + 1 ] - 1 ), parts[ j ].getStartOffset(), parts[ i ].getEndOffset() );//span to add
             if( ids[ i ] == null ) ids[ i ] = nilEntity;
             EntitySpan s = new EntitySpan( segment, ids[ i ], currentScores[ i ] );
             spanList.add( s );
@@ -300,9 +743,6 @@ public class FastEntityLinker {
      * @return entity spans found by the ranker
      */
     public ArrayList<EntitySpan> getBestChunkingMaxIterativeV2( String q, ProbabilityRanker ranker, EntityContext context ) {
-        CandidatesInfo nilCandidate = new CandidatesInfo( emptyEntities, 0, 0, 0, 0, 0 );
-        nilCandidate.maxScore = new EntityScore( nilEntity, nilValueOne );
-        nilEntity.id = -1;
         String parts[] = Normalize.normalize( q ).split( "\\s+" );
 
         ArrayList<String> finalWords = new ArrayList<String>();
@@ -312,36 +752,45 @@ public class FastEntityLinker {
 
         parts = finalWords.toArray( new String[ finalWords.size() ] );
         final int l = parts.length;
-        setContext( parts, 0, 0 );
+        final int maxLength = hash.maxAliasLength();
+        final long[] tokenHashes = new long[ l ];
+        for( int i = 0; i < l; i++ ) tokenHashes[ i ] = NGramHash.token( parts[ i ] );
+        context.startQuery();
+        setContext( parts, 0, 0, context );
         double[][] scores = new double[ l ][ l ];
-        CandidatesInfo infos[][] = new CandidatesInfo[ l ][ l ];
+        EntityScore bests[][] = new EntityScore[ l ][ l ]; //best candidate of every segment, kept per request
+        CharSequence segments[][] = new CharSequence[ l ][ l ]; //segment of length i + 1 starting at j (single characters are skipped)
+        CharSequence surfaceForms[] = new CharSequence[ l * ( l + 1 ) / 2 ];
+        int lengths[] = new int[ surfaceForms.length ];
+        int n = 0;
+        final String text = l > 0 ? chunk( parts, 0, l - 1 ) : ""; //segments are windows over the joined tokens
+        final int[] starts = new int[ l + 1 ];
+        for( int i = 0; i < l; i++ ) starts[ i + 1 ] = starts[ i ] + parts[ i ].length() + 1;
         for( int j = 0; j < l; j++ ) {
-            StringBuilder query = new StringBuilder( parts[ j ] );
-            if( query.toString().length() > 1 ) {
-                CandidatesInfo candidatesInfo = hash.getCandidatesInfo( query.toString() );
-                if( candidatesInfo != null ) {
-                    scores[ 0 ][ j ] = ranker.getHighestRankedEntity( candidatesInfo, context, query.toString(), 1 ).score;
-                    infos[ 0 ][ j ] = candidatesInfo;
-                } else {
-                    scores[ 0 ][ j ] = nilValueOne;
-                    infos[ 0 ][ j ] = nilCandidate;
-                }
-            } else {
-                scores[ 0 ][ j ] = nilValueOne;
-                infos[ 0 ][ j ] = nilCandidate;
+            long ngram = NGramHash.extend( NGramHash.EMPTY, tokenHashes[ j ] );
+            if( parts[ j ].length() > 1 && hash.mayBeAlias( ngram ) ) {
+                lengths[ n ] = 1;
+                surfaceForms[ n++ ] = segments[ 0 ][ j ] = new TextWindow( text, starts[ j ], parts[ j ].length() );
+            }
+            for( int i = 1; j + i < l && i < maxLength; i++ ) { //longer segments can't be aliases, and are left as NIL
+                if( !hash.isAliasPrefix( ngram ) ) break;
+                ngram = NGramHash.extend( ngram, tokenHashes[ i + j ] );
+                if( !hash.mayBeAlias( ngram ) ) continue;
+                lengths[ n ] = i + 1;
+                surfaceForms[ n++ ] = segments[ i ][ j ] = new TextWindow( text, starts[ j ], starts[ i + j + 1 ] - 1 - starts[ j ] );
             }
-            for( int i = 1; j + i < l; i++ ) {
-                query.append( " " );
-                query.append( parts[ i + j ] );
-                CandidatesInfo candidatesInfo = hash.getCandidatesInfo( query.toString() );
-
-                //
-                if( candidatesInfo != null ) {
-                    scores[ i ][ j ] = ranker.getHighestRankedEntity( candidatesInfo, context, query.toString(), i + 1 ).score;
-                    infos[ i ][ j ] = candidatesInfo;
+        }
+        final EntityScore[][] ranked = rank( surfaceForms, lengths, n, null, -1, ranker, context );
+        n = 0;
+        for( int j = 0; j < l; j++ ) {
+            for( int i = 0; j + i < l; i++ ) {
+                final int k = segments[ i ][ j ] != null ? n++ : -1;
+                if( k != -1 && ranked[ k ].length > 0 ) {
+                    bests[ i ][ j ] = ranked[ k ][ 0 ];
+                    scores[ i ][ j ] = bests[ i ][ j ].score;
                 } else {
                     scores[ i ][ j ] = nilValueOne;//* ( i + 1 );
-                    infos[ i ][ j ] = nilCandidate;
+                    bests[ i ][ j ] = nilCandidate;
                 }
             }
         }
@@ -387,8 +836,8 @@ public class FastEntityLinker {
             }
             EntitySpan s = new EntitySpan( sb.toString() );
             spanList.add( s );
-            s.score = infos[ jump - 1 ][ j ].maxScore.score;
-            s.e = infos[ jump - 1 ][ j ].maxScore.entity;
+            s.score = bests[ jump - 1 ][ j ].score;
+            s.e = bests[ jump - 1 ][ j ].entity;
             j += jump;
             if( j > l - 1 ) done = true;
 
@@ -398,7 +847,7 @@ public class FastEntityLinker {
     }
 
     /**
-     * Getter for the context
+     * Getter for the context. This is the template context that gets copied for every request
      *
      * @return the current context
      */
@@ -419,34 +868,68 @@ public class FastEntityLinker {
         ArrayList<EntityScore> allCandidates = new ArrayList<EntityScore>();
         String parts[] = Normalize.normalize( q ).split( "\\s+" );
         final int l = parts.length;
+        final int maxLength = hash.maxAliasLength();
+        final long[] tokenHashes = new long[ l ];
+        for( int i = 0; i < l; i++ ) tokenHashes[ i ] = NGramHash.token( parts[ i ] );
         ArrayList<String> ctxWords = new ArrayList<String>();
         Collections.addAll( ctxWords, parts );
+        context.startQuery();
         context.setContextWords( ctxWords );
+        final CharSequence[] surfaceForms = new CharSequence[ l * ( l + 1 ) / 2 ];
+        final int[] lengths = new int[ surfaceForms.length ];
+        int n = 0;
+        final String text = l > 0 ? chunk( parts, 0, l - 1 ) : ""; //n-grams are windows over the joined tokens
+        final int[] starts = new int[ l + 1 ];
+        for( int i = 0; i < l; i++ ) starts[ i + 1 ] = starts[ i ] + parts[ i ].length() + 1;
         for( int i = 0; i < l; i++ ) {
-            StringBuilder text = new StringBuilder();
-            for( int j = i; j < l; j++ ) {
-                text.append( parts[ j ] );
-                CandidatesInfo infos = hash.getCandidatesInfo( text.toString() );
-                if( infos != null ) {
-                    ArrayList<EntityScore> score = ranker.getTopKEntities( infos, context, q, ( j - i ), candidatesPerSpot );
-                    allCandidates.addAll( score );
-                }
-                text.append( " " );
+            long ngram = NGramHash.EMPTY;
+            for( int j = i; j < l && j - i < maxLength; j++ ) {
+                if( j > i && !hash.isAliasPrefix( ngram ) ) break;
+                ngram = NGramHash.extend( ngram, tokenHashes[ j ] );
+                if( !hash.mayBeAlias( ngram ) ) continue;
+                lengths[ n ] = j - i;
+                surfaceForms[ n++ ] = new TextWindow( text, starts[ i ], starts[ j + 1 ] - 1 - starts[ i ] );
             }
         }
+        final EntityScore[][] ranked = rank( surfaceForms, lengths, n, q, candidatesPerSpot, ranker, context );
+        for( int k = 0; k < n; k++ ) {
+            Collections.addAll( allCandidates, ranked[ k ] );
+        }
         Collections.sort( allCandidates );
         return allCandidates;
     }
 
     /**
      * Generates all the possible candidates for a given query and scores them
-     * This method is O(|q|^2)
+     * This method is O(|q|^2) and thread-safe, every call uses its own copy of the context.
      *
      * @param query input string
      * @param k     number of top candidates to return. This number is global for the whole query. If you want k candidates per span use generateAllCandidates
      * @return scores for all candidates found in the query
      */
     public List<EntityResult> getResultsGreedy( final String query, int k ) {
+        return getResultsGreedy( query, k, null );
+    }
+
+    /**
+     * Same as {@link #getResultsGreedy(String, int)} but uses a caller-provided context to hold the per-query state.
+     * The context must not be used concurrently by other requests
+     *
+     * @param query   input string
+     * @param k       number of top candidates to return
+     * @param context per-request context, obtained through {@link EntityContext#copy()}, or null to use a copy of the
+     *                linker's context (only made if the query is not cached)
+     * @return scores for all candidates found in the query
+     */
+    public List<EntityResult> getResultsGreedy( final String query, int k, EntityContext context ) {
+        final ClockCache<QueryKey, QueryResults> cache = queryCache;
+        QueryKey key = null;
+        if( cache != null ) {
+            key = new QueryKey( ranker, Normalize.normalize( query ), true, k );
+            QueryResults cached = cache.get( key );
+            if( cached != null ) return cached.results( query, null );
+        }
+        if( context == null ) context = this.context.copy();
         List<EntityResult> res = new ArrayList<EntityResult>();
         ArrayList<EntityScore> scores = generateAllCandidates( query, k, context );
         int i = 0;
@@ -460,6 +943,7 @@ public class FastEntityLinker {
             }
             i++;
         }
+        if( cache != null ) cache.put( key, new QueryResults( res, null ) );
         return res;
     }
 
@@ -471,7 +955,7 @@ public class FastEntityLinker {
      */
     public static void main( String args[] ) throws Exception {
         double threshold = -30;
-        QuasiSuccinctEntityHash hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( args[ 0 ] );
+        QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( args[ 0 ] );
         final BufferedReader br = new BufferedReader( new InputStreamReader( System.in ) );
         String q;
         FastEntityLinker fel = new FastEntityLinker( hash, new EmptyContext() );
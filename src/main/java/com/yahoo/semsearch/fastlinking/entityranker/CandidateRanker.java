@@ -5,10 +5,10 @@
 package com.yahoo.semsearch.fastlinking.entityranker;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 
+import com.yahoo.semsearch.fastlinking.utils.TopK;
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.Entity;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
 import com.yahoo.semsearch.fastlinking.view.EntityScore;
@@ -36,32 +36,27 @@ public abstract class CandidateRanker {
      * @return k highest scored entities
      */
     public ArrayList<EntityScore> getTopKEntities( CandidatesInfo infos, EntityContext context, String surfaceForm, int length, int k ) {
-        ArrayList<EntityScore> scoresTop = new ArrayList<EntityScore>();
-        final int l = infos.entities.length;    
-        final double[] scores = new double[ l ];
-        Integer[] idx = new Integer[ l ];
-        if ( k > l ) k = l;
-
+        final int l = infos.entities.length;
+        k = Math.max( 0, Math.min( k, l ) );
+        final int[] top = new int[ k ];
+        final double[] scores = new double[ k ];
+        int size = 0;
         for ( int i = 0; i < l; i++ ) {
-            idx[ i ] = i;
-            scores[ i ] = rank( infos.entities[ i ], infos, context, surfaceForm, length );
+            size = TopK.add( top, scores, size, i, rank( infos.entities[ i ], infos, context, surfaceForm, length ) );
         }
+        TopK.sort( top, scores, size );
 
-        Arrays.sort( idx, new Comparator<Integer>() {
-            public int compare( Integer i1, Integer i2 ) {
-                return -Double.compare( scores[ i1 ], scores[ i2 ] );
-            }
-        } );
-
+        ArrayList<EntityScore> scoresTop = new ArrayList<EntityScore>( k );
         for ( int i = 0; i < k; i++ ) {
-            scoresTop.add( new EntityScore( infos.entities[ idx[ i ] ], scores[ idx[ i ] ] ) );
+            scoresTop.add( new EntityScore( infos.entities[ top[ i ] ], scores[ i ] ) );
         }
         return scoresTop;
     }
 
     /**
      * Returns the highest ranked entity, along with its score, for a given
-     * query
+     * query. The result is not memoized in the (possibly shared) infos object, so the
+     * same infos can be ranked concurrently under different contexts
      *
      * @param infos information about the current candidates for the surface form
      * @param context context to use to rank the entity
@@ -70,7 +65,6 @@ public abstract class CandidateRanker {
      * @return top scoring entity for the surface form
      */
     public EntityScore getHighestRankedEntity( CandidatesInfo infos, EntityContext context, String surfaceForm, int length ) {
-        if ( infos.maxScore != null ) return infos.maxScore;
         int index = 0;
         double maxS = -Double.MAX_VALUE;
         context.setEntitiesForScoring( infos.entities );
@@ -81,8 +75,50 @@ public abstract class CandidateRanker {
                 index = i;
             }
         }
-        infos.maxScore = new EntityScore( infos.entities[ index ], maxS );
-        return infos.maxScore;
+        return new EntityScore( infos.entities[ index ], maxS );
+    }
+
+    /**
+     * Same as {@link #getTopKEntities(CandidatesInfo, EntityContext, String, int, int)} for the candidates of the
+     * surface form at position alias of a view. The default implementation materializes the candidates; rankers
+     * that can score the view arrays directly should override it
+     *
+     * @param view candidates of a batch of surface forms
+     * @param alias position of the surface form in the view
+     * @param context context to use to rank the entity
+     * @param surfaceForm string from which we are selecting the candidate entities
+     * @param length length of the surface form
+     * @param k number of top candidates to return
+     * @return k highest scored entities
+     */
+    public ArrayList<EntityScore> getTopKEntities( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length, int k ) {
+        return getTopKEntities( view.candidatesInfo( alias ), context, surfaceForm, length, k );
+    }
+
+    /**
+     * Same as {@link #getHighestRankedEntity(CandidatesInfo, EntityContext, String, int)} for the candidates of the
+     * surface form at position alias of a view. The default implementation materializes the candidates; rankers
+     * that can score the view arrays directly should override it
+     *
+     * @param view candidates of a batch of surface forms
+     * @param alias position of the surface form in the view
+     * @param context context to use to rank the entity
+     * @param surfaceForm string from which we are selecting the candidate entities
+     * @param length length of the surface form
+     * @return top scoring entity for the surface form
+     */
+    public EntityScore getHighestRankedEntity( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length ) {
+        return getHighestRankedEntity( view.candidatesInfo( alias ), context, surfaceForm, length );
+    }
+
+    /**
+     * Rankers whose scores only depend on the candidates of an alias (and not on the context, the length or the text
+     * of the surface form) can have their results cached per alias, see {@link com.yahoo.semsearch.fastlinking.FastEntityLinker#setAliasCache(int)}
+     *
+     * @return true if the ranking of an alias is always the same
+     */
+    public boolean isContextFree() {
+        return false;
     }
 
     /**
@@ -5,11 +5,12 @@
 
 package com.yahoo.semsearch.fastlinking.entityranker;
 
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.utils.TopK;
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.Entity;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
 import com.yahoo.semsearch.fastlinking.view.EntityScore;
@@ -18,6 +19,20 @@ import com.yahoo.semsearch.fastlinking.view.EntityScore;
  * Makes use of the remaining words of the query to create a score for the
  * candidate This only computes zero-order dependencies (if there is a
  * dependency from a previous selection, it has to the factored out of this class).
+ * <p>
+ * The top candidate is found with a two-phase cascade. The first phase scores all the candidates of the alias with
+ * the (cheap) probability of the entity given the alias; the second phase adds the context score, which needs the
+ * vector of the entity and is much more expensive, to the best of them by first phase score. A candidate is left out
+ * of the second phase if:
+ * <ul>
+ * <li>it is not among the {@link #survivingCandidates} best, or the best that make up {@link #survivingMass} of the
+ * first phase probability of the alias (approximate);</li>
+ * <li>even the {@link EntityContext#maxEntityContextScore() maximum} context score would not make it beat the best
+ * candidate so far, or the best candidate with the minimum context score (exact);</li>
+ * <li>the query is over its budget of context scores ({@link #maxQueryScores}) or time ({@link #maxQueryNanos}), in
+ * which case the best of the candidates left gets the minimum context score.</li>
+ * </ul>
+ * The ranker counts the candidates that reach each phase or are left out, summed over all the threads.
  *
  * @author roi
  */
@@ -28,9 +43,24 @@ public class ContextualRanker extends ProbabilityRanker {
     public double mu = 10;
     /** Number of candidates to be scored in the second phase **/
     public int survivingCandidates = 1000;
+    /** Fraction of the first phase probability of the candidates that the second phase keeps (1 keeps all of them) **/
+    public double survivingMass = 1;
+    /** Maximum number of context scores computed per query, over all its aliases (0 for no limit) **/
+    public long maxQueryScores = 0;
+    /** Time after the start of a query when the second phase stops computing context scores, in nanoseconds (0 for no limit) **/
+    public long maxQueryNanos = 0;
     protected final float minContext = -30;
     /** context weight **/
     protected final float corr = ( float ) 1;
+    /** Number of candidates whose context scores are computed together in the second phase **/
+    public static final int BATCH = 64;
+    /** Size of the first batch of the second phase, which doubles with every batch up to {@link #BATCH}, so that few contexts are scored if the best candidates win early **/
+    public static final int FIRST_BATCH = 16;
+    private final LongAdder firstPhase = new LongAdder();
+    private final LongAdder secondPhase = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
 
     public ContextualRanker( QuasiSuccinctEntityHash hash ) {
         super( hash );
@@ -38,52 +68,251 @@ public class ContextualRanker extends ProbabilityRanker {
         normalizerAnchor = hash.stats.SLET + hash.stats.entities;
     }
 
-    protected float queryNormalizer = 1;
+    /**
+     * The second phase depends on the query context and the length of the surface form
+     */
+    @Override
+    public boolean isContextFree() {
+        return false;
+    }
 
     /**
-     * Method with dynamic pruning. It operates in two phases, the first one
-     * scores all the candidates as usual and the second phase stops whenever
-     * the top-k candidate set can't change anymore int k number of surviving
-     * candidates for the second phase (set to a negative number if you want all
-     * of them scored)
+     * Method with dynamic pruning. It operates in two phases, the first one scores all the candidates as usual and the
+     * second phase adds the context score to the best of them, as long as they can still win (see the class comment)
      */
     @Override
     public EntityScore getHighestRankedEntity( CandidatesInfo infos, EntityContext context, String surfaceForm, int length ) {
-        if( infos.maxScore != null ) return infos.maxScore;
         double maxS = -Float.MAX_VALUE;
         final int l = infos.entities.length;
         final float[] scores = firstPhaseRanking( infos.entities, infos.QAF, infos.QAT, infos.QAC, infos.LAF, infos.LAT, l );
-        //first phase
-        Integer[] idx = new Integer[ l ];
-        for( int i = 0; i < l; i++ )
-            idx[ i ] = i;
-
-        Arrays.sort( idx, new Comparator<Integer>() {
-            public int compare( Integer i1, Integer i2 ) {
-                return -Double.compare( scores[ i1 ], scores[ i2 ] );
-            }
-        } );
+        //first phase: keep the best n candidates
+        final float maxContext = context.maxEntityContextScore();
+        final int[] idx = new int[ Math.max( 0, Math.min( l, survivingCandidates ) ) ];
+        final float[] topScores = new float[ idx.length ];
+        final int survivors = survivors( scores, l, idx, topScores, maxContext, length );
+        int n = survivors;
 
         Entity maxE = null;
+        final Entity[] batch = new Entity[ Math.min( n, BATCH ) ];
+        final float[] contextScores = new float[ batch.length ];
+
+        //second phase
+        int start = 0, end = 0, size = FIRST_BATCH; //the context scores of the candidates from start to end are in contextScores
+        for( int i = 0; i < n; i++ ) {
+            final float eScore = topScores[ i ];
+            if( i == end ) { //score the context of the next batch of candidates at once
+                final int m = withinBudget( context, Math.min( size, n - i ) );
+                if( m == 0 ) {
+                    overBudget.add( n - i );
+                    final double s = secondPhaseRanking( minContext, length, eScore );
+                    if( s > maxS ) {
+                        maxS = s;
+                        maxE = infos.entities[ idx[ i ] ];
+                    }
+                    break;
+                }
+                for( int j = 0; j < m; j++ ) batch[ j ] = infos.entities[ idx[ i + j ] ];
+                context.getEntityContextScores( batch, m, contextScores );
+                context.addQueryScores( m );
+                secondPhase.add( m );
+                start = i;
+                end = i + m;
+                size = Math.min( 2 * size, BATCH );
+            }
+            double s = secondPhaseRanking( contextScores[ i - start ], length, eScore );
+            if( s > maxS ) {
+                maxS = s;
+                maxE = infos.entities[ idx[ i ] ];
+                n = cut( topScores, i + 1, n, maxContext, length, maxS ); //nobody after n can win
+            }
+        }
+        pruned.add( survivors - Math.max( n, end ) );
+        return new EntityScore( maxE, maxS );
+    }
 
-        //query normalizer
-        queryNormalizer = context.queryNormalizer();
+    /**
+     * Two-phase ranking of the candidates of a view, see {@link #getHighestRankedEntity(CandidatesInfo, EntityContext, String, int)}.
+     * The second phase scores a flyweight entity, so only the winner is materialized
+     */
+    @Override
+    public EntityScore getHighestRankedEntity( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length ) {
+        double maxS = -Float.MAX_VALUE;
+        final int start = view.start( alias );
+        final int l = view.end( alias ) - start;
+        final float[] scores = firstPhaseRanking( view, alias );
+        //first phase: keep the best n candidates
+        final float maxContext = context.maxEntityContextScore();
+        final int[] idx = new int[ Math.max( 0, Math.min( l, survivingCandidates ) ) ];
+        final float[] topScores = new float[ idx.length ];
+        final int survivors = survivors( scores, l, idx, topScores, maxContext, length );
+        int n = survivors;
+
+        int maxE = -1;
+        final Entity[] batch = new Entity[ Math.min( n, BATCH ) ];
+        for( int j = 0; j < batch.length; j++ ) batch[ j ] = new Entity();
+        final float[] contextScores = new float[ batch.length ];
 
         //second phase
-        for( int i = 0; i < l && i < survivingCandidates; i++ ) {
-            final float eScore = scores[ idx[ i ] ];
-            final Entity e = infos.entities[ idx[ i ] ];
-            if( eScore < maxS ) { //max ctx = 1 nobody else can win
-                break;
+        int batchStart = 0, batchEnd = 0, size = FIRST_BATCH; //the context scores of the candidates from batchStart to batchEnd are in contextScores
+        for( int i = 0; i < n; i++ ) {
+            final float eScore = topScores[ i ];
+            if( i == batchEnd ) { //score the context of the next batch of candidates at once, on flyweights
+                final int m = withinBudget( context, Math.min( size, n - i ) );
+                if( m == 0 ) {
+                    overBudget.add( n - i );
+                    final double s = secondPhaseRanking( minContext, length, eScore );
+                    if( s > maxS ) {
+                        maxS = s;
+                        maxE = start + idx[ i ];
+                    }
+                    break;
+                }
+                for( int j = 0; j < m; j++ ) view.entity( start + idx[ i + j ], batch[ j ] );
+                context.getEntityContextScores( batch, m, contextScores );
+                context.addQueryScores( m );
+                secondPhase.add( m );
+                batchStart = i;
+                batchEnd = i + m;
+                size = Math.min( 2 * size, BATCH );
             }
-            double s = secondPhaseRanking( e, length, eScore, context );
+            double s = secondPhaseRanking( contextScores[ i - batchStart ], length, eScore );
             if( s > maxS ) {
                 maxS = s;
-                maxE = e;
+                maxE = start + idx[ i ];
+                n = cut( topScores, i + 1, n, maxContext, length, maxS ); //nobody after n can win
             }
         }
-        infos.maxScore = new EntityScore( maxE, maxS );
-        return infos.maxScore;
+        pruned.add( survivors - Math.max( n, batchEnd ) );
+        return new EntityScore( maxE != -1 ? view.entity( maxE ) : null, maxS );
+    }
+
+    /**
+     * Chooses the candidates of the second phase: the best idx.length by first phase score, cut to those that make up
+     * {@link #survivingMass} of the first phase probability and to those that may beat the best one, whose score is
+     * at least its score with the minimum context score
+     *
+     * @param scores first phase scores
+     * @param l number of candidates
+     * @param idx gets the indexes of the candidates, by decreasing first phase score
+     * @param topScores gets their first phase scores
+     * @param maxContext maximum context score
+     * @param length length of the surface form
+     * @return number of candidates for the second phase, stored at the beginning of idx and topScores
+     */
+    private int survivors( float[] scores, int l, int[] idx, float[] topScores, float maxContext, int length ) {
+        firstPhase.add( l );
+        TopK.select( scores, l, idx, topScores );
+        int n = idx.length;
+        truncated.add( l - n );
+        if( n == 0 ) return 0;
+        if( survivingMass < 1 ) {
+            double total = 0, mass = 0;
+            for( int i = 0; i < l; i++ ) total += scores[ i ];
+            int m = 0;
+            while( m < n && ( m == 0 || mass < survivingMass * total ) ) mass += topScores[ m++ ];
+            truncated.add( n - m );
+            n = m;
+        }
+        final int m = cut( topScores, 1, n, maxContext, length, secondPhaseRanking( minContext, length, topScores[ 0 ] ) );
+        pruned.add( n - m );
+        return m;
+    }
+
+    /**
+     * Finds the first candidate that can't score above a given score, by binary search, as second phase scores can
+     * only decrease with the first phase score
+     *
+     * @param topScores first phase scores of the candidates, in decreasing order
+     * @param from first candidate to check
+     * @param to end of the candidates to check
+     * @param maxContext maximum context score
+     * @param length length of the surface form
+     * @param s score to beat
+     * @return position of the first candidate from position from on that can't score above s, or to if all of them can
+     */
+    private int cut( float[] topScores, int from, int to, float maxContext, int length, double s ) {
+        while( from < to ) {
+            final int mid = ( from + to ) >>> 1;
+            if( secondPhaseRanking( maxContext, length, topScores[ mid ] ) <= s ) to = mid;
+            else from = mid + 1;
+        }
+        return from;
+    }
+
+    /**
+     * @param context per-request context, which holds the work done on the current query
+     * @param n number of candidates whose context is to be scored
+     * @return number of them that can be scored within the budget of the current query
+     */
+    private int withinBudget( EntityContext context, int n ) {
+        if( !context.queryStarted() ) return n;
+        if( maxQueryNanos > 0 && context.queryNanos() >= maxQueryNanos ) return 0;
+        if( maxQueryScores > 0 ) return ( int ) Math.max( 0, Math.min( n, maxQueryScores - context.queryScores() ) );
+        return n;
+    }
+
+    /**
+     * @return number of candidates scored by the first phase
+     */
+    public long firstPhaseCandidates() {
+        return firstPhase.sum();
+    }
+
+    /**
+     * @return number of candidates whose context was scored by the second phase
+     */
+    public long secondPhaseCandidates() {
+        return secondPhase.sum();
+    }
+
+    /**
+     * @return number of candidates left out of the second phase because they could not win
+     */
+    public long prunedCandidates() {
+        return pruned.sum();
+    }
+
+    /**
+     * @return number of candidates left out of the second phase by {@link #survivingCandidates} or {@link #survivingMass}
+     */
+    public long truncatedCandidates() {
+        return truncated.sum();
+    }
+
+    /**
+     * @return number of candidates left out of the second phase because their query was over its budget
+     */
+    public long overBudgetCandidates() {
+        return overBudget.sum();
+    }
+
+    /**
+     * Resets the counters of candidates
+     */
+    public void resetCounters() {
+        firstPhase.reset();
+        secondPhase.reset();
+        pruned.reset();
+        truncated.reset();
+        overBudget.reset();
+    }
+
+    /**
+     * @return the counters of candidates
+     */
+    public String counters() {
+        return "firstPhase=" + firstPhaseCandidates() + " secondPhase=" + secondPhaseCandidates() + " pruned=" + prunedCandidates() + " truncated="
+                + truncatedCandidates() + " overBudget=" + overBudgetCandidates();
+    }
+
+    /**
+     * The context score of a candidate is not bounded, so neither is its rank
+     *
+     * @return infinity, i.e., all the candidates are scored
+     */
+    @Override
+    protected double rankUpperBound( CandidatesView view, int k, int j, EntityContext context, String surfaceForm, int length ) {
+        return Double.POSITIVE_INFINITY;
     }
 
     /**
@@ -104,19 +333,52 @@ public class ContextualRanker extends ProbabilityRanker {
         float p_l_a = ( float ) ( ( QAC + 1 ) / ( QAT + 2 ) );
         for( int i = 0; i < l; i++ ) {
             Entity e = entities[ i ];
-            float p_e = ( float ) ( ( e.QEF + 1 ) / ( normalizerQueries ) );
-            float p_e_w = ( float ) ( ( e.LET + 1 ) / ( normalizerAnchor ) );
-            float p_e_l_a_w = ( float ) ( ( e.LAET + mu * p_e_w ) / ( LAF + mu ) );
-            float p_e_l_a = ( float ) ( ( e.QAEF + mu * p_e ) / ( QAF + mu ) );
-            if( p_e_l_a_w > 1 ) p_e_l_a_w = 1; //TODO remove when the datapack is fixed
-            if( p_e_l_a > 1 ) p_e_l_a = 1;
-            scores[ i ] = priorQ * ( p_l_a * p_e_l_a + ( 1 - p_l_a ) * p_e ) + priorA * ( p_l_a_w * p_e_l_a_w + ( 1 - p_l_a_w ) * p_e_w );
+            scores[ i ] = firstPhaseScore( e.QEF, e.LET, e.QAEF, e.LAET, QAF, LAF, priorQ, priorA, p_l_a, p_l_a_w );
+        }
+        return scores;
+    }
+
+    /**
+     * Same as {@link #firstPhaseRanking(Entity[], double, double, double, double, double, int)} for the candidates of
+     * the surface form at position alias of a view
+     *
+     * @param view candidates of a batch of surface forms
+     * @param alias position of the surface form in the view
+     * @return first phase scores, indexed by candidate - view.start( alias )
+     */
+    public float[] firstPhaseRanking( CandidatesView view, int alias ) {
+        final int start = view.start( alias );
+        float[] scores = new float[ view.end( alias ) - start ];
+        final double QAF = view.QAF[ alias ], QAT = view.QAT[ alias ], QAC = view.QAC[ alias ], LAF = view.LAF[ alias ], LAT = view.LAT[ alias ];
+        final float priorQ = ( float ) ( ( QAT + 1 ) / ( QAT + LAT + 2 ) );
+        final float priorA = 1 - priorQ;
+        final float p_l_a_w = ( float ) ( ( LAF + 1 ) / ( LAT + 2 ) );
+
+        float p_l_a = ( float ) ( ( QAC + 1 ) / ( QAT + 2 ) );
+        for( int i = 0; i < scores.length; i++ ) {
+            scores[ i ] = firstPhaseScore( view.QEF[ start + i ], view.LET[ start + i ], view.QAEF[ start + i ], view.LAET[ start + i ], QAF, LAF, priorQ, priorA, p_l_a, p_l_a_w );
         }
         return scores;
     }
 
     /**
-     * Computes a second phase score for one entity. Subclasses must re-implement this method to redefine the scoring mechanism
+     * First phase score of one entity, given its features and the alias priors
+     *
+     * @return first phase score (a probability)
+     */
+    private float firstPhaseScore( double QEF, double LET, double QAEF, double LAET, double QAF, double LAF, float priorQ, float priorA, float p_l_a, float p_l_a_w ) {
+        float p_e = ( float ) ( ( QEF + 1 ) / ( normalizerQueries ) );
+        float p_e_w = ( float ) ( ( LET + 1 ) / ( normalizerAnchor ) );
+        float p_e_l_a_w = ( float ) ( ( LAET + mu * p_e_w ) / ( LAF + mu ) );
+        float p_e_l_a = ( float ) ( ( QAEF + mu * p_e ) / ( QAF + mu ) );
+        if( p_e_l_a_w > 1 ) p_e_l_a_w = 1; //TODO remove when the datapack is fixed
+        if( p_e_l_a > 1 ) p_e_l_a = 1;
+        return priorQ * ( p_l_a * p_e_l_a + ( 1 - p_l_a ) * p_e ) + priorA * ( p_l_a_w * p_e_l_a_w + ( 1 - p_l_a_w ) * p_e_w );
+    }
+
+    /**
+     * Computes a second phase score for one entity. Subclasses must re-implement {@link #secondPhaseRanking(float, int, float)}, which the
+     * two-phase methods call directly, to redefine the scoring mechanism
      *
      * @param e entity to be scored
      * @param len lenght of the surface form
@@ -125,7 +387,21 @@ public class ContextualRanker extends ProbabilityRanker {
      * @return score of e given the context and the surface form
      */
     public double secondPhaseRanking( Entity e, int len, float score, EntityContext context ) {
-        float contextScore = ( float ) context.getEntityContextScore( e ); //log-p, score is p
+        return secondPhaseRanking( ( float ) context.getEntityContextScore( e ), len, score );
+    }
+
+    /**
+     * Computes a second phase score for one entity given its context score, which the two-phase methods compute for
+     * a {@link #BATCH batch} of candidates at a time with {@link EntityContext#getEntityContextScores(Entity[], int, float[])}.
+     * The cascade bounds scores with it, so it must not decrease with the context score or the first phase score
+     *
+     * @param contextScore context score of the entity (a log-probability)
+     * @param len lenght of the surface form
+     * @param score first phase score
+     * @return score of the entity given the context and the surface form
+     */
+    public double secondPhaseRanking( float contextScore, int len, float score ) {
+        //contextScore is log-p, score is p
         contextScore = contextScore < minContext ? minContext : contextScore;
         float lenPrior = 1F / ( 1F + (float) Math.exp( -1 * ( len - 1 ) ) );
         double fScore = contextScore * corr + Math.log( score ) + lenPrior;
@@ -143,16 +419,24 @@ public class ContextualRanker extends ProbabilityRanker {
         final float p_l_a_w = ( float ) ( ( info.LAF + 1 ) / ( info.LAT + 2 ) );
 
         float p_l_a = ( float ) ( ( info.QAC + 1 ) / ( info.QAT + 2 ) );
-        float p_e = ( float ) ( ( e.QEF + 1 ) / ( normalizerQueries ) );
-        float p_e_w = ( float ) ( ( e.LET + 1 ) / ( normalizerAnchor ) );
-        float p_e_l_a_w = ( float ) ( ( e.LAET + mu * p_e_w ) / ( info.LAF + mu ) );
-        float p_e_l_a = ( float ) ( ( e.QAEF + mu * p_e ) / ( info.QAF + mu ) );
-        if( p_e_l_a_w > 1 ) p_e_l_a_w = 1;
-        if( p_e_l_a > 1 ) p_e_l_a = 1;
-        float s1 = priorQ * ( p_l_a * p_e_l_a + ( 1 - p_l_a ) * p_e ) + priorA * ( p_l_a_w * p_e_l_a_w + ( 1 - p_l_a_w ) * p_e_w );
-        queryNormalizer = context.queryNormalizer();
+        float s1 = firstPhaseScore( e.QEF, e.LET, e.QAEF, e.LAET, info.QAF, info.LAF, priorQ, priorA, p_l_a, p_l_a_w );
         double s = secondPhaseRanking( e, length, s1, context );
 
         return s;
     }
+
+    /**
+     * Old ranking version, without pruning, for a candidate of a view
+     */
+    @Override
+    public double rank( CandidatesView view, int k, int i, Entity flyweight, EntityContext context, String surfaceForm, int length ) {
+        final double QAF = view.QAF[ k ], QAT = view.QAT[ k ], QAC = view.QAC[ k ], LAF = view.LAF[ k ], LAT = view.LAT[ k ];
+        final float priorQ = ( float ) ( ( QAT + 1 ) / ( QAT + LAT + 2 ) );
+        final float priorA = 1 - priorQ;
+        final float p_l_a_w = ( float ) ( ( LAF + 1 ) / ( LAT + 2 ) );
+
+        float p_l_a = ( float ) ( ( QAC + 1 ) / ( QAT + 2 ) );
+        float s1 = firstPhaseScore( view.QEF[ i ], view.LET[ i ], view.QAEF[ i ], view.LAET[ i ], QAF, LAF, priorQ, priorA, p_l_a, p_l_a_w );
+        return secondPhaseRanking( view.entity( i, flyweight ), length, s1, context );
+    }
 }
@@ -0,0 +1,161 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.yahoo.semsearch.fastlinking.utils.TopK;
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.EntityContext;
+import com.yahoo.semsearch.fastlinking.view.EntityScore;
+
+/**
+ * Ranks candidates with a learned {@link RankingModel} (linear or a tree ensemble) over their
+ * {@link RankingFeatures}, instead of a hand-tuned formula. The features of an alias are computed once for all its
+ * candidates, and the context scores are only computed (in batches) if the model uses them. Models can be trained
+ * with {@link LearnedRankerTrainer} and plugged into a linker with
+ * {@link com.yahoo.semsearch.fastlinking.FastEntityLinker#setRanker(CandidateRanker)}.
+ */
+public class LearnedRanker extends CandidateRanker {
+    /** Number of candidates whose context scores are computed together */
+    public static final int BATCH = 64;
+    public final RankingModel model;
+    private final boolean usesContext;
+
+    public LearnedRanker( RankingModel model ) {
+        this.model = model;
+        this.usesContext = model.uses( RankingFeatures.CONTEXT );
+    }
+
+    /**
+     * @param modelFile model file, see {@link RankingModel#load(String)}
+     * @throws IOException
+     */
+    public LearnedRanker( String modelFile ) throws IOException {
+        this( RankingModel.load( modelFile ) );
+    }
+
+    @Override
+    public double rank( Entity e, CandidatesInfo info, EntityContext context, String surfaceForm, int length ) {
+        final float[] x = new float[ RankingFeatures.COUNT ];
+        RankingFeatures.alias( info.QAF, info.QAT, info.QAC, info.LAF, info.LAT, info.entities.length, length, x, 0 );
+        RankingFeatures.entity( e.QEF, e.LET, e.QAEF, e.LAET, info.QAF, info.LAF, usesContext ? context.getEntityContextScore( e ) : 0, x, 0 );
+        return model.score( x );
+    }
+
+    @Override
+    public ArrayList<EntityScore> getTopKEntities( CandidatesInfo infos, EntityContext context, String surfaceForm, int length, int k ) {
+        k = Math.max( 0, Math.min( k, infos.entities.length ) );
+        final int[] top = new int[ k ];
+        final double[] scores = new double[ k ];
+        topK( infos, context, length, top, scores );
+        ArrayList<EntityScore> scoresTop = new ArrayList<EntityScore>( k );
+        for( int i = 0; i < k; i++ ) scoresTop.add( new EntityScore( infos.entities[ top[ i ] ], scores[ i ] ) );
+        return scoresTop;
+    }
+
+    @Override
+    public EntityScore getHighestRankedEntity( CandidatesInfo infos, EntityContext context, String surfaceForm, int length ) {
+        if( infos.entities.length == 0 ) return new EntityScore( null, -Double.MAX_VALUE );
+        final int[] top = new int[ 1 ];
+        final double[] scores = new double[ 1 ];
+        topK( infos, context, length, top, scores );
+        if( !( scores[ 0 ] > -Double.MAX_VALUE ) ) return new EntityScore( infos.entities[ 0 ], -Double.MAX_VALUE ); //same floor as CandidateRanker
+        return new EntityScore( infos.entities[ top[ 0 ] ], scores[ 0 ] );
+    }
+
+    @Override
+    public ArrayList<EntityScore> getTopKEntities( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length, int k ) {
+        k = Math.max( 0, Math.min( k, view.end( alias ) - view.start( alias ) ) );
+        final int[] top = new int[ k ];
+        final double[] scores = new double[ k ];
+        topK( view, alias, context, length, top, scores );
+        ArrayList<EntityScore> scoresTop = new ArrayList<EntityScore>( k );
+        for( int i = 0; i < k; i++ ) scoresTop.add( new EntityScore( view.entity( top[ i ] ), scores[ i ] ) );
+        return scoresTop;
+    }
+
+    @Override
+    public EntityScore getHighestRankedEntity( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length ) {
+        if( view.end( alias ) == view.start( alias ) ) return new EntityScore( null, -Double.MAX_VALUE );
+        final int[] top = new int[ 1 ];
+        final double[] scores = new double[ 1 ];
+        topK( view, alias, context, length, top, scores );
+        if( !( scores[ 0 ] > -Double.MAX_VALUE ) ) return new EntityScore( view.entity( view.start( alias ) ), -Double.MAX_VALUE );
+        return new EntityScore( view.entity( top[ 0 ] ), scores[ 0 ] );
+    }
+
+    /**
+     * Finds the top.length highest scored candidates of an alias, which must have at least as many candidates
+     *
+     * @param infos candidates of the alias
+     * @param context context to use to rank the entity
+     * @param length length of the surface form
+     * @param top gets the indexes of the top candidates, by decreasing score
+     * @param scores gets their scores
+     */
+    private void topK( CandidatesInfo infos, EntityContext context, int length, int[] top, double[] scores ) {
+        final Entity[] entities = infos.entities;
+        final int l = entities.length;
+        final float[] x = new float[ RankingFeatures.COUNT ];
+        RankingFeatures.alias( infos.QAF, infos.QAT, infos.QAC, infos.LAF, infos.LAT, l, length, x, 0 );
+        float[] contextScores = null;
+        if( usesContext ) {
+            contextScores = new float[ l ];
+            context.setEntitiesForScoring( entities );
+            context.getEntityContextScores( entities, l, contextScores );
+        }
+        int size = 0;
+        for( int i = 0; i < l; i++ ) {
+            final Entity e = entities[ i ];
+            RankingFeatures.entity( e.QEF, e.LET, e.QAEF, e.LAET, infos.QAF, infos.LAF, usesContext ? contextScores[ i ] : 0, x, 0 );
+            size = TopK.add( top, scores, size, i, model.score( x ) );
+        }
+        TopK.sort( top, scores, size );
+    }
+
+    /**
+     * Same as {@link #topK(CandidatesInfo, EntityContext, int, int[], double[])} for the candidates of the surface
+     * form at position alias of a view; the context is scored on flyweight entities
+     */
+    private void topK( CandidatesView view, int alias, EntityContext context, int length, int[] top, double[] scores ) {
+        final int start = view.start( alias ), end = view.end( alias );
+        final float[] x = new float[ RankingFeatures.COUNT ];
+        RankingFeatures.alias( view.QAF[ alias ], view.QAT[ alias ], view.QAC[ alias ], view.LAF[ alias ], view.LAT[ alias ], end - start, length, x, 0 );
+        Entity[] batch = null;
+        float[] contextScores = null;
+        if( usesContext ) {
+            batch = new Entity[ Math.min( BATCH, end - start ) ];
+            for( int j = 0; j < batch.length; j++ ) batch[ j ] = new Entity();
+            contextScores = new float[ batch.length ];
+            context.setEntitiesForScoring( view, alias );
+        }
+        int size = 0;
+        for( int i = start; i < end; i++ ) {
+            if( usesContext && ( i - start ) % BATCH == 0 ) { //score the context of the next batch of candidates at once
+                final int m = Math.min( BATCH, end - i );
+                for( int j = 0; j < m; j++ ) view.entity( i + j, batch[ j ] );
+                context.getEntityContextScores( batch, m, contextScores );
+            }
+            RankingFeatures.entity( view.QEF[ i ], view.LET[ i ], view.QAEF[ i ], view.LAET[ i ], view.QAF[ alias ], view.LAF[ alias ],
+                    usesContext ? contextScores[ ( i - start ) % BATCH ] : 0, x, 0 );
+            size = TopK.add( top, scores, size, i, model.score( x ) );
+        }
+        TopK.sort( top, scores, size );
+    }
+
+    /**
+     * Models that use neither the context score nor the length of the surface form only depend on the alias and
+     * entity features
+     */
+    @Override
+    public boolean isContextFree() {
+        return !usesContext && !model.uses( RankingFeatures.LENGTH );
+    }
+}
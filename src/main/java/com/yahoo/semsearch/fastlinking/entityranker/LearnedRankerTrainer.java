@@ -0,0 +1,382 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.yahoo.semsearch.fastlinking.FastEntityLinker;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.utils.Normalize;
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.EntityContext;
+import com.yahoo.semsearch.fastlinking.w2v.CentroidEntityContext;
+import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
+
+/**
+ * Trains a {@link RankingModel} for the {@link LearnedRanker} from relevance judgments in the format read by
+ * {@link FastEntityLinker#readTrainingData(String)}. Every n-gram of a judged query that is an alias and has a
+ * candidate judged relevant becomes a group of examples: its candidates, labeled relevant or not, with their
+ * {@link RankingFeatures} (the context being the words of the query, as in the contextual linker). Aliases without any
+ * relevant candidate carry no ranking information and are skipped.
+ *
+ * The model is either a logistic regression, fit by gradient descent on standardized features, or an ensemble of
+ * gradient-boosted regression trees with the logistic loss, whose splits are chosen among (at most 64) quantiles of
+ * every feature. The precision at one of the model on the training groups is logged, next to the one of the
+ * {@link ProbabilityRanker}.
+ *
+ * java com.yahoo.semsearch.fastlinking.entityranker.LearnedRankerTrainer -h hash -l labels -o model [-v vectors -e entities]
+ */
+public class LearnedRankerTrainer {
+    private final static Logger LOGGER = LoggerFactory.getLogger( LearnedRankerTrainer.class );
+    /** maximum number of split candidates per feature */
+    private final static int BINS = 64;
+    /** L2 regularization of the leaf values */
+    private final static double LAMBDA = 1;
+
+    /**
+     * Training examples, grouped by alias
+     */
+    static class Examples {
+        /** features of every example, {@link RankingFeatures#COUNT} per example */
+        final FloatArrayList features = new FloatArrayList();
+        final BooleanArrayList relevant = new BooleanArrayList();
+        /** score of every example according to the {@link ProbabilityRanker} */
+        final DoubleArrayList baseline = new DoubleArrayList();
+        /** first example of every group, plus the number of examples */
+        final IntArrayList groups = new IntArrayList();
+
+        int size() {
+            return relevant.size();
+        }
+
+        float get( int example, int feature ) {
+            return features.getFloat( example * RankingFeatures.COUNT + feature );
+        }
+    }
+
+    /**
+     * Collects the training examples of a set of judged queries
+     *
+     * @param hash hash with the candidates
+     * @param labels judgments per query
+     * @param context context to score the candidates with
+     * @return examples grouped by alias
+     * @throws IOException
+     */
+    public static Examples examples( QuasiSuccinctEntityHash hash, HashMap<String, ArrayList<EntityRelevanceJudgment>> labels, EntityContext context ) throws IOException {
+        final Examples examples = new Examples();
+        final ProbabilityRanker baseline = new ProbabilityRanker( hash );
+        final float[] x = new float[ RankingFeatures.COUNT ];
+        final ArrayList<String> queries = new ArrayList<String>( labels.keySet() );
+        Collections.sort( queries );
+        for( String q : queries ) {
+            final ArrayList<EntityRelevanceJudgment> judgments = labels.get( q );
+            final String[] parts = Normalize.normalize( q ).split( "\\s+" );
+            final ArrayList<String> words = new ArrayList<String>();
+            Collections.addAll( words, parts );
+            context.setContextWords( words );
+            for( int i = 0; i < parts.length; i++ ) {
+                final StringBuilder surfaceForm = new StringBuilder();
+                for( int j = i; j < parts.length && j - i < hash.maxAliasLength(); j++ ) {
+                    if( j > i ) surfaceForm.append( ' ' );
+                    surfaceForm.append( parts[ j ] );
+                    final CandidatesInfo info = hash.getCandidatesInfo( surfaceForm.toString() );
+                    if( info == null || info.entities.length == 0 ) continue;
+                    final Entity[] entities = info.entities;
+                    final boolean[] relevant = new boolean[ entities.length ];
+                    boolean any = false;
+                    for( int e = 0; e < entities.length; e++ ) {
+                        relevant[ e ] = FastEntityLinker.relevanceOfEntity( hash.getEntityName( entities[ e ].id ), judgments ).relevant;
+                        any |= relevant[ e ];
+                    }
+                    if( !any ) continue;
+                    final float[] contextScores = new float[ entities.length ];
+                    context.setEntitiesForScoring( entities );
+                    context.getEntityContextScores( entities, entities.length, contextScores );
+                    RankingFeatures.alias( info.QAF, info.QAT, info.QAC, info.LAF, info.LAT, entities.length, j - i, x, 0 );
+                    examples.groups.add( examples.size() );
+                    for( int e = 0; e < entities.length; e++ ) {
+                        RankingFeatures.entity( entities[ e ].QEF, entities[ e ].LET, entities[ e ].QAEF, entities[ e ].LAET, info.QAF, info.LAF, contextScores[ e ], x, 0 );
+                        examples.features.addElements( examples.features.size(), x );
+                        examples.relevant.add( relevant[ e ] );
+                        examples.baseline.add( baseline.rank( entities[ e ], info, context, surfaceForm.toString(), j - i ) );
+                    }
+                }
+            }
+        }
+        examples.groups.add( examples.size() );
+        return examples;
+    }
+
+    /**
+     * Fits a logistic regression on the examples
+     *
+     * @param examples training examples
+     * @param iterations number of gradient descent iterations
+     * @param rate learning rate
+     * @param l2 L2 regularization of the (standardized) weights
+     * @return the linear model, whose weights apply to the raw features
+     */
+    public static LinearRankingModel trainLinear( Examples examples, int iterations, double rate, double l2 ) {
+        if( examples.size() == 0 ) throw new IllegalArgumentException( "No training examples" );
+        final int n = examples.size(), d = RankingFeatures.COUNT;
+        final double[] mean = new double[ d ], std = new double[ d ];
+        for( int i = 0; i < n; i++ ) for( int f = 0; f < d; f++ ) mean[ f ] += examples.get( i, f );
+        for( int f = 0; f < d; f++ ) mean[ f ] /= n;
+        for( int i = 0; i < n; i++ ) for( int f = 0; f < d; f++ ) std[ f ] += ( examples.get( i, f ) - mean[ f ] ) * ( examples.get( i, f ) - mean[ f ] );
+        for( int f = 0; f < d; f++ ) std[ f ] = Math.sqrt( std[ f ] / n );
+        final double[] w = new double[ d ], gradient = new double[ d ];
+        double b = 0;
+        for( int it = 0; it < iterations; it++ ) {
+            Arrays.fill( gradient, 0 );
+            double gb = 0, loss = 0;
+            for( int i = 0; i < n; i++ ) {
+                double z = b;
+                for( int f = 0; f < d; f++ ) if( std[ f ] > 0 ) z += w[ f ] * ( examples.get( i, f ) - mean[ f ] ) / std[ f ];
+                final double p = sigmoid( z );
+                final double g = p - ( examples.relevant.getBoolean( i ) ? 1 : 0 );
+                loss += examples.relevant.getBoolean( i ) ? -Math.log( p + 1e-12 ) : -Math.log( 1 - p + 1e-12 );
+                gb += g;
+                for( int f = 0; f < d; f++ ) if( std[ f ] > 0 ) gradient[ f ] += g * ( examples.get( i, f ) - mean[ f ] ) / std[ f ];
+            }
+            b -= rate * gb / n;
+            for( int f = 0; f < d; f++ ) w[ f ] -= rate * ( gradient[ f ] / n + l2 * w[ f ] );
+            if( it % 50 == 0 || it == iterations - 1 ) LOGGER.info( "Iteration " + it + ": log loss " + loss / n );
+        }
+        final float[] weights = new float[ d ];
+        for( int f = 0; f < d; f++ ) {
+            if( std[ f ] == 0 ) continue; //constant on the training data
+            weights[ f ] = ( float ) ( w[ f ] / std[ f ] );
+            b -= w[ f ] * mean[ f ] / std[ f ];
+        }
+        return new LinearRankingModel( b, weights );
+    }
+
+    /**
+     * Fits an ensemble of gradient-boosted regression trees with the logistic loss
+     *
+     * @param examples training examples
+     * @param trees number of trees
+     * @param depth maximum depth of every tree
+     * @param rate learning rate (shrinkage of the leaf values)
+     * @param minLeaf minimum number of examples in a leaf
+     * @return the tree ensemble
+     */
+    public static TreeEnsembleRankingModel trainTrees( Examples examples, int trees, int depth, double rate, int minLeaf ) {
+        if( examples.size() == 0 ) throw new IllegalArgumentException( "No training examples" );
+        final int n = examples.size(), d = RankingFeatures.COUNT;
+        //split candidates: quantiles of every feature; bin[ f ][ i ] is the first cut that example i is at most
+        final float[][] cuts = new float[ d ][];
+        final byte[][] bin = new byte[ d ][ n ];
+        final float[] values = new float[ n ];
+        for( int f = 0; f < d; f++ ) {
+            for( int i = 0; i < n; i++ ) values[ i ] = examples.get( i, f );
+            Arrays.sort( values );
+            final FloatArrayList c = new FloatArrayList();
+            for( int q = 1; q < BINS; q++ ) {
+                final float v = values[ ( int ) ( ( long ) q * ( n - 1 ) / BINS ) ];
+                if( v < values[ n - 1 ] && ( c.isEmpty() || v > c.getFloat( c.size() - 1 ) ) ) c.add( v );
+            }
+            cuts[ f ] = c.toFloatArray();
+            for( int i = 0; i < n; i++ ) {
+                int b = Arrays.binarySearch( cuts[ f ], examples.get( i, f ) );
+                bin[ f ][ i ] = ( byte ) ( b >= 0 ? b : -b - 1 );
+            }
+        }
+
+        int positives = 0;
+        for( int i = 0; i < n; i++ ) if( examples.relevant.getBoolean( i ) ) positives++;
+        final double base = Math.log( ( positives + 1. ) / ( n - positives + 1. ) );
+        final double[] margin = new double[ n ], g = new double[ n ], h = new double[ n ];
+        Arrays.fill( margin, base );
+        final IntArrayList roots = new IntArrayList(), feature = new IntArrayList(), right = new IntArrayList();
+        final FloatArrayList threshold = new FloatArrayList();
+        final int[] all = new int[ n ];
+        for( int i = 0; i < n; i++ ) all[ i ] = i;
+        for( int t = 0; t < trees; t++ ) {
+            double loss = 0;
+            for( int i = 0; i < n; i++ ) {
+                final double p = sigmoid( margin[ i ] );
+                final boolean y = examples.relevant.getBoolean( i );
+                g[ i ] = p - ( y ? 1 : 0 );
+                h[ i ] = Math.max( p * ( 1 - p ), 1e-12 );
+                loss += y ? -Math.log( p + 1e-12 ) : -Math.log( 1 - p + 1e-12 );
+            }
+            if( t % 10 == 0 ) LOGGER.info( "Tree " + t + ": log loss " + loss / n );
+            roots.add( feature.size() );
+            grow( all.clone(), 0, n, depth, minLeaf, rate, bin, cuts, g, h, margin, feature, threshold, right );
+        }
+        return new TreeEnsembleRankingModel( base, roots.toIntArray(), feature.toIntArray(), threshold.toFloatArray(), right.toIntArray() );
+    }
+
+    /**
+     * Grows a subtree over the examples in idx[ from, to ), appending its nodes in pre-order, and adds its leaf values
+     * to the margins of the examples
+     */
+    private static void grow( int[] idx, int from, int to, int depth, int minLeaf, double rate, byte[][] bin, float[][] cuts, double[] g, double[] h, double[] margin,
+            IntArrayList feature, FloatArrayList threshold, IntArrayList right ) {
+        double G = 0, H = 0;
+        for( int k = from; k < to; k++ ) {
+            G += g[ idx[ k ] ];
+            H += h[ idx[ k ] ];
+        }
+        int bestFeature = -1, bestBin = -1;
+        double bestGain = 1e-9;
+        if( depth > 0 && to - from >= 2 * minLeaf ) {
+            final double[] gb = new double[ BINS ], hb = new double[ BINS ];
+            final int[] cb = new int[ BINS ];
+            for( int f = 0; f < cuts.length; f++ ) {
+                final int bins = cuts[ f ].length + 1;
+                if( bins < 2 ) continue;
+                Arrays.fill( gb, 0, bins, 0 );
+                Arrays.fill( hb, 0, bins, 0 );
+                Arrays.fill( cb, 0, bins, 0 );
+                for( int k = from; k < to; k++ ) {
+                    final int i = idx[ k ], b = bin[ f ][ i ];
+                    gb[ b ] += g[ i ];
+                    hb[ b ] += h[ i ];
+                    cb[ b ]++;
+                }
+                double GL = 0, HL = 0;
+                int CL = 0;
+                for( int b = 0; b < bins - 1; b++ ) { //left: bins up to b, i.e., values at most cuts[ f ][ b ]
+                    GL += gb[ b ];
+                    HL += hb[ b ];
+                    CL += cb[ b ];
+                    if( CL < minLeaf || to - from - CL < minLeaf ) continue;
+                    final double gain = GL * GL / ( HL + LAMBDA ) + ( G - GL ) * ( G - GL ) / ( H - HL + LAMBDA ) - G * G / ( H + LAMBDA );
+                    if( gain > bestGain ) {
+                        bestGain = gain;
+                        bestFeature = f;
+                        bestBin = b;
+                    }
+                }
+            }
+        }
+        final int node = feature.size();
+        if( bestFeature == -1 ) {
+            final float value = ( float ) ( -rate * G / ( H + LAMBDA ) );
+            feature.add( -1 );
+            threshold.add( value );
+            right.add( -1 );
+            for( int k = from; k < to; k++ ) margin[ idx[ k ] ] += value;
+            return;
+        }
+        feature.add( bestFeature );
+        threshold.add( cuts[ bestFeature ][ bestBin ] );
+        right.add( -1 );
+        int mid = from; //partition: left examples first
+        for( int k = from; k < to; k++ ) {
+            if( bin[ bestFeature ][ idx[ k ] ] <= bestBin ) {
+                final int t = idx[ mid ];
+                idx[ mid++ ] = idx[ k ];
+                idx[ k ] = t;
+            }
+        }
+        grow( idx, from, mid, depth - 1, minLeaf, rate, bin, cuts, g, h, margin, feature, threshold, right );
+        right.set( node, feature.size() );
+        grow( idx, mid, to, depth - 1, minLeaf, rate, bin, cuts, g, h, margin, feature, threshold, right );
+    }
+
+    private static double sigmoid( double z ) {
+        return 1 / ( 1 + Math.exp( -z ) );
+    }
+
+    /**
+     * @param examples training examples
+     * @param scores score of every example
+     * @return fraction of the groups whose highest scored example (the first one, on ties) is relevant
+     */
+    public static double precisionAtOne( Examples examples, double[] scores ) {
+        final int groups = examples.groups.size() - 1;
+        int hits = 0;
+        for( int k = 0; k < groups; k++ ) {
+            int best = examples.groups.getInt( k );
+            for( int i = best + 1; i < examples.groups.getInt( k + 1 ); i++ ) if( scores[ i ] > scores[ best ] ) best = i;
+            if( examples.relevant.getBoolean( best ) ) hits++;
+        }
+        return groups == 0 ? 0 : hits / ( double ) groups;
+    }
+
+    /**
+     * Trains a model from the command line
+     *
+     * @param args command line arguments; see -help
+     * @throws Exception
+     */
+    public static void main( String[] args ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( LearnedRankerTrainer.class.getName(), "Trains a model for the learned ranker from relevance judgments", new Parameter[]{
+                new FlaggedOption( "hash", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'h', "hash", "quasi succint hash" ),
+                new FlaggedOption( "labels", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'l', "labels", "File containing query2entity labels" ),
+                new FlaggedOption( "output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "output", "Model file" ),
+                new FlaggedOption( "model", JSAP.STRING_PARSER, "trees", JSAP.NOT_REQUIRED, 'm', "model", "Model type: linear or trees" ),
+                new FlaggedOption( "vectors", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'v', "vectors", "Word vectors file (for the context score)" ),
+                new FlaggedOption( "entities", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'e', "entities", "Entities word vectors file (for the context score)" ),
+                new Switch( "centroid", 'c', "centroid", "Use centroid-based distances and not LR" ),
+                new FlaggedOption( "trees", JSAP.INTEGER_PARSER, "100", JSAP.NOT_REQUIRED, 't', "trees", "Number of trees" ),
+                new FlaggedOption( "depth", JSAP.INTEGER_PARSER, "3", JSAP.NOT_REQUIRED, 'd', "depth", "Maximum depth of the trees" ),
+                new FlaggedOption( "minLeaf", JSAP.INTEGER_PARSER, "20", JSAP.NOT_REQUIRED, 'n', "minLeaf", "Minimum number of examples per leaf" ),
+                new FlaggedOption( "rate", JSAP.DOUBLE_PARSER, "0.1", JSAP.NOT_REQUIRED, 'r', "rate", "Learning rate" ),
+                new FlaggedOption( "iterations", JSAP.INTEGER_PARSER, "500", JSAP.NOT_REQUIRED, 'i', "iterations", "Gradient descent iterations of the linear model" ),
+                new FlaggedOption( "l2", JSAP.DOUBLE_PARSER, "0.0001", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "l2", "L2 regularization of the linear model" ), }
+        );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( jsapResult.getString( "hash" ) );
+        EntityContext context = new EmptyContext();
+        if( jsapResult.getString( "vectors" ) != null && jsapResult.getString( "entities" ) != null ) {
+            context = jsapResult.getBoolean( "centroid" ) ? new CentroidEntityContext( jsapResult.getString( "vectors" ), jsapResult.getString( "entities" ), hash )
+                    : new LREntityContext( jsapResult.getString( "vectors" ), jsapResult.getString( "entities" ), hash );
+        }
+        final Examples examples = examples( hash, FastEntityLinker.readTrainingData( jsapResult.getString( "labels" ) ), context );
+        LOGGER.info( "Collected " + examples.size() + " examples in " + ( examples.groups.size() - 1 ) + " aliases" );
+        if( examples.size() == 0 ) {
+            LOGGER.error( "No alias of the judged queries has a relevant candidate" );
+            System.exit( 1 );
+        }
+
+        final RankingModel model;
+        if( jsapResult.getString( "model" ).equals( "linear" ) ) {
+            model = trainLinear( examples, jsapResult.getInt( "iterations" ), jsapResult.getDouble( "rate" ), jsapResult.getDouble( "l2" ) );
+        } else if( jsapResult.getString( "model" ).equals( "trees" ) ) {
+            model = trainTrees( examples, jsapResult.getInt( "trees" ), jsapResult.getInt( "depth" ), jsapResult.getDouble( "rate" ), jsapResult.getInt( "minLeaf" ) );
+        } else {
+            throw new IllegalArgumentException( "Unknown model type " + jsapResult.getString( "model" ) );
+        }
+        final double[] scores = new double[ examples.size() ];
+        final float[] x = examples.features.elements();
+        for( int i = 0; i < scores.length; i++ ) scores[ i ] = model.score( x, i * RankingFeatures.COUNT );
+        LOGGER.info( "Training P@1: model " + precisionAtOne( examples, scores ) + ", probability ranker " + precisionAtOne( examples, examples.baseline.toDoubleArray() ) );
+        final PrintWriter out = new PrintWriter( new OutputStreamWriter( new FileOutputStream( jsapResult.getString( "output" ) ), StandardCharsets.UTF_8 ) );
+        model.write( out );
+        out.close();
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Linear model: the score of a candidate is the bias plus the inner product of the weights and its features.
+ * Features missing from the model file have weight zero.
+ */
+public class LinearRankingModel extends RankingModel {
+    private static final long serialVersionUID = 1L;
+    public final double bias;
+    public final float[] weights;
+
+    /**
+     * @param bias bias
+     * @param weights one weight per {@link RankingFeatures feature}
+     */
+    public LinearRankingModel( double bias, float[] weights ) {
+        if( weights.length != RankingFeatures.COUNT ) throw new IllegalArgumentException( "Expected " + RankingFeatures.COUNT + " weights, got " + weights.length );
+        this.bias = bias;
+        this.weights = weights;
+    }
+
+    @Override
+    public double score( float[] x, int offset ) {
+        final float[] w = weights;
+        float s = 0;
+        for( int i = 0; i < RankingFeatures.COUNT; i++ ) s += w[ i ] * x[ offset + i ];
+        return bias + s;
+    }
+
+    @Override
+    public boolean uses( int feature ) {
+        return weights[ feature ] != 0;
+    }
+
+    @Override
+    public void write( PrintWriter out ) {
+        out.println( "linear" );
+        out.println( "bias " + bias );
+        for( int i = 0; i < RankingFeatures.COUNT; i++ ) if( weights[ i ] != 0 ) out.println( RankingFeatures.NAMES[ i ] + " " + weights[ i ] );
+    }
+
+    static LinearRankingModel read( RankingModel.Lines lines ) throws IOException {
+        double bias = 0;
+        final float[] weights = new float[ RankingFeatures.COUNT ];
+        String[] t;
+        while( ( t = lines.next() ) != null ) {
+            if( t[ 0 ].equals( "bias" ) ) bias = Double.parseDouble( t[ 1 ] );
+            else weights[ RankingFeatures.index( t[ 0 ] ) ] = Float.parseFloat( t[ 1 ] );
+        }
+        return new LinearRankingModel( bias, weights );
+    }
+}
@@ -6,8 +6,7 @@
 package com.yahoo.semsearch.fastlinking.entityranker;
 
 import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
-import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
-import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
 
 /**
@@ -24,25 +23,43 @@ public class NPMIRanker extends ProbabilityRanker {
      * NPMI = ln(p(x,y)/p(x)p(y)) / -ln(p(x,y))
      */
     @Override
-    public double rank( Entity e, CandidatesInfo info, EntityContext context, String surfaceForm, int length ) {
+    protected double score( double QEF, double LET, double QAEF, double LAET, double QAF, double QAT, double QAC, double LAF, double LAT ) {
         double totalClicks = stats.SQEF;
         double totalAnchor = stats.SLET;
-        double p_e_q = ( e.QEF ) / ( totalClicks );//
-        double p_e_w = ( e.LET ) / ( totalAnchor );
-        double p_a_w = info.LAT / totalAnchor;
-        double p_a_q = info.QAF / totalClicks;
+        double p_e_q = ( QEF ) / ( totalClicks );//
+        double p_e_w = ( LET ) / ( totalAnchor );
+        double p_a_w = LAT / totalAnchor;
+        double p_a_q = QAF / totalClicks;
 
-        double p_ea_q = e.QAEF / totalClicks;
-        double p_ea_w = e.LAET / totalAnchor;
+        double p_ea_q = QAEF / totalClicks;
+        double p_ea_w = LAET / totalAnchor;
         double score = ( pAnchor * ( Math.log( ( p_ea_w / ( p_e_w * p_a_w ) ) ) / -Math.log( p_ea_w ) )
                 + pQuery * ( Math.log( ( p_ea_q / ( p_e_q * p_a_q ) ) ) / -Math.log( p_ea_q ) ) );
 
-        if( e.QAEF == 0 ) {
-            if( e.LAET == 0 ) return -1;
+        if( QAEF == 0 ) {
+            if( LAET == 0 ) return -1;
             score = pAnchor * ( Math.log( ( p_ea_w / ( p_e_w * p_a_w ) ) ) / -Math.log( p_ea_w ) );
-        } else if( e.LAET == 0 ) {
+        } else if( LAET == 0 ) {
             score = pQuery * ( Math.log( ( p_ea_q / ( p_e_q * p_a_q ) ) ) / -Math.log( p_ea_q ) );
         }
         return score;
     }
+
+    /**
+     * The priors stored in the hash are probability scores
+     */
+    @Override
+    protected boolean rankByPriors() {
+        return false;
+    }
+
+    /**
+     * NPMI decreases with the entity frequencies, so the scores of the candidates can't be bounded by their maxima
+     *
+     * @return infinity, i.e., all the candidates are scored
+     */
+    @Override
+    protected double rankUpperBound( CandidatesView view, int k, int j, EntityContext context, String surfaceForm, int length ) {
+        return Double.POSITIVE_INFINITY;
+    }
 }
@@ -5,15 +5,24 @@
 
 package com.yahoo.semsearch.fastlinking.entityranker;
 
+import java.util.ArrayList;
+
 import com.yahoo.semsearch.fastlinking.hash.CountAndRecordStats;
+import com.yahoo.semsearch.fastlinking.hash.EntityPriors;
 import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.utils.TopK;
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.Entity;
 import com.yahoo.semsearch.fastlinking.view.EntityContext;
+import com.yahoo.semsearch.fastlinking.view.EntityScore;
 
 /**
  * Chunks a query and ranks entities based on selecting the max probability
  * sequence.
+ * If the hash stores precomputed priors for the same smoothing (see {@link EntityPriors}) and the ranker is built
+ * with {@link #usePriors} set, the candidates of a view are ranked by their quantized priors instead of computing the score of every one.
+ * Quantized scores are rounded to the step of the priors, so the output may change slightly.
  *
  * @author roi blanco
  */
@@ -24,12 +33,37 @@ public class ProbabilityRanker extends CandidateRanker {
 
     public double pQuery = 0;
     public double pAnchor = 1 - pQuery;
-    private double mu_0 = 20;
-    private double mu_1 = mu_0; //this is completely ad-hoc and un-tuned
+    private final double mu_0 = 20;
+    private final double mu_1 = mu_0; //this is completely ad-hoc and un-tuned
+    /** rank the candidates of views by the priors stored in the hash, if any (off by default, as they are rounded) */
+    public final boolean usePriors;
+    private final EntityPriors priors;
 
     public ProbabilityRanker( QuasiSuccinctEntityHash hash ) {
+        this( hash, false );
+    }
+
+    /**
+     * The smoothing and the use of the priors are fixed, as linkers cache the scores of their ranker
+     *
+     * @param hash hash with the candidates
+     * @param usePriors rank the candidates of views by the priors stored in the hash, if any
+     */
+    public ProbabilityRanker( QuasiSuccinctEntityHash hash, boolean usePriors ) {
+        this.usePriors = usePriors;
         this.hash = hash;
         this.stats = hash.stats;
+        this.priors = hash.priors != null && hash.priors.matches( mu_0, mu_1 ) ? hash.priors : null;
+    }
+
+    /**
+     * Sub-classes that re-define {@link #score} must re-define this method to return false, as the priors stored in
+     * the hash are the scores of this class
+     *
+     * @return true if the candidates of views are ranked by their precomputed priors
+     */
+    protected boolean rankByPriors() {
+        return usePriors && priors != null;
     }
 
     /**
@@ -52,27 +86,146 @@ public class ProbabilityRanker extends CandidateRanker {
      */
     @Override
     public double rank( Entity e, CandidatesInfo info, EntityContext context, String surfaceForm, int length ) {
-        double p_e = ( e.QEF + 1 ) / ( stats.SQEF + stats.entities ); // or ( totalClicks + numberOfCandidates )
-        double p_e_w = ( e.LET + 1 ) / ( stats.SLET + stats.entities ); // or ( totalAnchor + numberOfCandidates )
-
-        double p_l_a_w = ( info.LAF + 1 ) / ( info.LAT + 2 );//prob of linking given Wiki
-        double p_l_a = ( info.QAC + 1 ) / ( info.QAT + 2 ); //prob of linking given query
-        double p_e_l_a = ( e.QAEF + mu_0 * p_e ) / ( info.QAF + mu_0 ); //otherwise ( e.QAEF + 1 )  numberOfCandidates + QAF );
-        double p_e_l_a_w = ( e.LAET + mu_1 * p_e_w ) / ( info.LAF + mu_1 ); // or ( e.LAET + 1 ) /  numberOfCandidates + LAF )
-        if( p_e_l_a_w > 1 ) p_e_l_a_w = 1; //TODO this might happen because there were some bogus counts in datapacks
-        if( p_e_l_a > 1 ) p_e_l_a = 1;
-        double priorQ = ( ( info.QAT + 1 ) / ( info.QAT + info.LAT + 2 ) );
-        final double score = priorQ * ( p_l_a * p_e_l_a + ( 1 - p_l_a ) * p_e ) + ( 1 - priorQ ) * ( p_l_a_w * p_e_l_a_w + ( 1 - p_l_a_w ) * p_e_w );
-
+        final double score = score( e.QEF, e.LET, e.QAEF, e.LAET, info.QAF, info.QAT, info.QAC, info.LAF, info.LAT );
         if( DEBUG ) System.out.println( "\033[1m" + hash.getEntityName( e.id ) + "\033[0m type = " + e.type + " score=" + score + " " + " #Cand=" + info.entities.length + " QAEF=" + e.QAEF + " QEF= " + e.QEF + " QAF=" +
-                info.QAF + " QAT=" + info.QAT + " QAC=" + info.QAC + " LAEF= " + e.LAET + " LAF=" + info.LAF + " LAT= " + info.LAT + " " + "tClicks=" + info.totalPriorProbOfClick + " p(e|l,a)=" + p_e_l_a + " p(e|l,a;" +
-                "w) =" + p_e_l_a_w + "" + " priorQ = " + priorQ + " priorA " + ( 1 - priorQ ) +
-                " p(l|a) = " + p_l_a + " p(l|a;w) = " + p_l_a_w + " anchorContr " + ( p_l_a_w * ( 1 - priorQ ) * p_e_l_a_w ) + " queryContr " + ( p_l_a * priorQ * p_e_l_a ) + " alias [ " + surfaceForm + " ] " );
-        return Math.log( score );
+                info.QAF + " QAT=" + info.QAT + " QAC=" + info.QAC + " LAEF= " + e.LAET + " LAF=" + info.LAF + " LAT= " + info.LAT + " " + "tClicks=" + info.totalPriorProbOfClick + " alias [ " + surfaceForm + " ] " );
+        return score;
+    }
+
+    /**
+     * Scores the candidate i of a view. Sub-classes that re-define {@link #rank(Entity, CandidatesInfo, EntityContext, String, int)}
+     * must re-define this method and {@link #rankUpperBound} as well (or {@link #score} instead of the rank methods).
+     * The score is the quantized prior of the candidate if the view carries them (see {@link #rankByPriors()})
+     *
+     * @param view candidates of a batch of surface forms
+     * @param k position of the surface form in the view
+     * @param i index of the candidate to score
+     * @param flyweight scratch entity that can be filled with the candidate (see {@link CandidatesView#entity(int, Entity)}) if an Entity is needed
+     * @param context string context
+     * @param surfaceForm string where the aliases are taken from
+     * @param length length of the surface form
+     * @return score for the candidate
+     */
+    public double rank( CandidatesView view, int k, int i, Entity flyweight, EntityContext context, String surfaceForm, int length ) {
+        if( rankByPriors() && !Double.isNaN( view.prior[ i ] ) ) return view.prior[ i ];
+        return score( view.QEF[ i ], view.LET[ i ], view.QAEF[ i ], view.LAET[ i ], view.QAF[ k ], view.QAT[ k ], view.QAC[ k ], view.LAF[ k ], view.LAT[ k ] );
+    }
+
+    /**
+     * Scores an entity for an alias given their features, see {@link #rank(Entity, CandidatesInfo, EntityContext, String, int)}
+     *
+     * @return log-score for the entity
+     */
+    protected double score( double QEF, double LET, double QAEF, double LAET, double QAF, double QAT, double QAC, double LAF, double LAT ) {
+        return EntityPriors.score( stats, mu_0, mu_1, QEF, LET, QAEF, LAET, QAF, QAT, QAC, LAF, LAT );
+    }
+
+    /**
+     * Same as {@link CandidateRanker#getTopKEntities(CandidatesInfo, EntityContext, String, int, int)} but scoring
+     * the candidates straight from the view, and stopping as soon as the rest can't make it to the top k (see
+     * {@link #topK}); only the top k entities are materialized
+     */
+    @Override
+    public ArrayList<EntityScore> getTopKEntities( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length, int k ) {
+        k = Math.max( 0, Math.min( k, view.end( alias ) - view.start( alias ) ) );
+        final int[] top = new int[ k ];
+        final double[] scores = new double[ k ];
+        topK( view, alias, context, surfaceForm, length, top, scores );
+        ArrayList<EntityScore> scoresTop = new ArrayList<EntityScore>( k );
+        for( int i = 0; i < k; i++ ) {
+            scoresTop.add( new EntityScore( view.entity( top[ i ] ), scores[ i ] ) );
+        }
+        return scoresTop;
+    }
+
+    /**
+     * Same as {@link CandidateRanker#getHighestRankedEntity(CandidatesInfo, EntityContext, String, int)} but scoring
+     * the candidates straight from the view, with the same early stop as {@link #topK}; only the winner is materialized.
+     * As there, NaN scores never win, and if no score is above -Double.MAX_VALUE the first candidate is returned with
+     * that score
+     */
+    @Override
+    public EntityScore getHighestRankedEntity( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length ) {
+        final int[] top = { view.start( alias ) };
+        final double[] maxS = { -Double.MAX_VALUE };
+        context.setEntitiesForScoring( view, alias );
+        if( view.end( alias ) > view.start( alias ) ) topK( view, alias, context, surfaceForm, length, top, maxS );
+        if( !( maxS[ 0 ] > -Double.MAX_VALUE ) ) return new EntityScore( view.entity( view.start( alias ) ), -Double.MAX_VALUE );
+        return new EntityScore( view.entity( top[ 0 ] ), maxS[ 0 ] );
+    }
+
+    /**
+     * Finds the top.length highest scored candidates of the surface form at position alias of a view, which must have
+     * at least as many candidates. The candidates are scored in the order of the view, keeping the best ones in a
+     * {@link TopK} heap, and at every checkpoint of the alias (see {@link CandidatesView#bounds(int)}) the scan stops if the k-th
+     * best score is at least the {@link #rankUpperBound upper bound} of the remaining candidates. Hashes store the
+     * candidates by decreasing prior, so ambiguous aliases are usually settled after a few checkpoints.
+     * Scores are compared with {@link TopK#compare(double, double)} (NaN ranks as negative infinity, also against the
+     * bounds) and ties are broken by position, so the result is the same as sorting the scores of all the candidates
+     * (stably) in that order and taking the first ones.
+     *
+     * @param view candidates of a batch of surface forms
+     * @param alias position of the surface form in the view
+     * @param context string context
+     * @param surfaceForm string where the aliases are taken from
+     * @param length length of the surface form
+     * @param top gets the indexes of the top candidates, by decreasing score
+     * @param scores gets their scores
+     */
+    protected void topK( CandidatesView view, int alias, EntityContext context, String surfaceForm, int length, int[] top, double[] scores ) {
+        final int k = top.length;
+        if( k == 0 ) return;
+        final int start = view.start( alias ), end = view.end( alias ), bounds = view.bounds( alias );
+        final Entity flyweight = new Entity();
+        int size = 0;
+        int j = 0, checkpoint = bounds > 0 ? start + CandidatesView.checkpoint( 0 ) : end;
+        for( int i = start; i < end; i++ ) {
+            if( i == checkpoint ) {
+                if( size == k && TopK.compare( TopK.worst( scores ), rankUpperBound( view, alias, j, context, surfaceForm, length ) ) >= 0 ) break;
+                checkpoint = ++j < bounds ? start + CandidatesView.checkpoint( j ) : end;
+            }
+            size = TopK.add( top, scores, size, i, rank( view, alias, i, flyweight, context, surfaceForm, length ) );
+        }
+        TopK.sort( top, scores, size );
+    }
+
+    /**
+     * Upper bound of the {@link #rank(CandidatesView, int, int, Entity, EntityContext, String, int) rank} of the
+     * candidates that follow checkpoint j of the surface form at position k of a view. The probability score does not
+     * decrease with any of the entity features as long as the alias features are non-negative and
+     * QAC &lt;= QAT + 1, LAF &lt;= LAT + 1 (so that the mixture weights are probabilities), and floating-point
+     * arithmetic preserves that, so it is bounded by the score of the feature maxima. Sub-classes that re-define
+     * {@link #score} or the rank methods must re-define this method as well, returning infinity if they can't bound
+     * their scores (which disables the early stop). Quantization does not decrease with the score, so the bound of
+     * candidates ranked by their priors is the quantized bound
+     *
+     * @param view candidates of a batch of surface forms
+     * @param k position of the surface form in the view
+     * @param j index of the checkpoint
+     * @param context string context
+     * @param surfaceForm string where the aliases are taken from
+     * @param length length of the surface form
+     * @return upper bound of the scores of the candidates from the checkpoint on
+     */
+    protected double rankUpperBound( CandidatesView view, int k, int j, EntityContext context, String surfaceForm, int length ) {
+        if( view.QAF[ k ] < 0 || view.QAT[ k ] < 0 || view.QAC[ k ] < 0 || view.LAF[ k ] < 0 || view.LAT[ k ] < 0 ) return Double.POSITIVE_INFINITY;
+        if( view.QAC[ k ] > view.QAT[ k ] + 1 || view.LAF[ k ] > view.LAT[ k ] + 1 ) return Double.POSITIVE_INFINITY;
+        final int b = view.boundStart( k ) + j;
+        final double bound = score( view.maxQEF[ b ], view.maxLET[ b ], view.maxQAEF[ b ], view.maxLAET[ b ], view.QAF[ k ], view.QAT[ k ], view.QAC[ k ], view.LAF[ k ], view.LAT[ k ] );
+        return rankByPriors() && !Double.isNaN( bound ) ? priors.quantized( bound ) : bound;
+    }
+
+    /**
+     * The probability (and NPMI) scores only depend on the alias and entity features
+     */
+    @Override
+    public boolean isContextFree() {
+        return true;
     }
 
     /**
-     * Removes the Wikipedia weight of the scoring function
+     * Removes the Wikipedia weight of the scoring function. Linkers cache the scores of this ranker, so use
+     * {@link com.yahoo.semsearch.fastlinking.FastEntityLinker#removeWiki()} to change the ranker of a linker
      */
     public void removeWiki() {
         pQuery = 1;
@@ -80,7 +233,8 @@ public class ProbabilityRanker extends CandidateRanker {
     }
 
     /**
-     * Removes the query log weight of the scoring function
+     * Removes the query log weight of the scoring function. Linkers cache the scores of this ranker, so use
+     * {@link com.yahoo.semsearch.fastlinking.FastEntityLinker#removeQuery()} to change the ranker of a linker
      */
     public void removeQuery() {
         pQuery = 0;
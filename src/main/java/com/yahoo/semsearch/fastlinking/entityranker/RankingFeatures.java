@@ -0,0 +1,124 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+/**
+ * Features of a (surface form, candidate entity) pair scored by a {@link RankingModel}. They are computed from the
+ * per alias and per entity counts stored in the hash, the length of the surface form and the context score of the
+ * entity. Counts are log-scaled (log(1 + x)), so linear models weigh orders of magnitude rather than raw counts.
+ *
+ * The features of an alias are the same for all its candidates, so they are filled once per alias with
+ * {@link #alias} and then every candidate overwrites its own with {@link #entity}. Features can be stored at any
+ * offset of an array, so that the features of many candidates can be kept one after the other, {@link #COUNT} each.
+ */
+public class RankingFeatures {
+    /** clicks on the entity */
+    public final static int QEF = 0;
+    /** anchors to the entity */
+    public final static int LET = 1;
+    /** clicks on the entity for queries matching the alias */
+    public final static int QAEF = 2;
+    /** anchors with the alias pointing to the entity */
+    public final static int LAET = 3;
+    /** QAEF / ( QAF + 1 ), the query estimate of p( entity | alias ) */
+    public final static int P_QUERY = 4;
+    /** LAET / ( LAF + 1 ), the anchor estimate of p( entity | alias ) */
+    public final static int P_ANCHOR = 5;
+    /** context score of the entity (see {@link com.yahoo.semsearch.fastlinking.view.EntityContext}) */
+    public final static int CONTEXT = 6;
+    /** queries matching the alias */
+    public final static int QAF = 7;
+    public final static int QAT = 8;
+    public final static int QAC = 9;
+    /** anchors with the alias */
+    public final static int LAF = 10;
+    public final static int LAT = 11;
+    /** ( QAC + 1 ) / ( QAT + 2 ), the probability of a click given the alias */
+    public final static int P_LINK_QUERY = 12;
+    /** ( LAF + 1 ) / ( LAT + 2 ), the probability of a link given the alias */
+    public final static int P_LINK_ANCHOR = 13;
+    /** number of candidates of the alias */
+    public final static int CANDIDATES = 14;
+    /** length of the surface form, as passed to the rankers */
+    public final static int LENGTH = 15;
+    /** number of features */
+    public final static int COUNT = 16;
+    /** feature names, as used in model files */
+    public final static String[] NAMES = { "QEF", "LET", "QAEF", "LAET", "P_QUERY", "P_ANCHOR", "CONTEXT", "QAF", "QAT", "QAC", "LAF", "LAT", "P_LINK_QUERY",
+            "P_LINK_ANCHOR", "CANDIDATES", "LENGTH" };
+
+    /** log( 1 + x ) of small counts, which are most of them */
+    private final static float[] LOG = new float[ 4096 ];
+
+    static {
+        for( int i = 0; i < LOG.length; i++ ) LOG[ i ] = ( float ) Math.log( 1 + i );
+    }
+
+    private RankingFeatures() {}
+
+    /**
+     * @param name feature name
+     * @return index of the feature
+     * @throws IllegalArgumentException if there is no such feature
+     */
+    public static int index( String name ) {
+        for( int i = 0; i < COUNT; i++ ) if( NAMES[ i ].equals( name ) ) return i;
+        throw new IllegalArgumentException( "Unknown ranking feature " + name );
+    }
+
+    /**
+     * Fills the features of an alias
+     *
+     * @param qaf queries matching the alias
+     * @param qat QAT of the alias
+     * @param qac QAC of the alias
+     * @param laf anchors with the alias
+     * @param lat LAT of the alias
+     * @param candidates number of candidates of the alias
+     * @param length length of the surface form
+     * @param x features
+     * @param offset position of the features of the candidate in x
+     */
+    public static void alias( double qaf, double qat, double qac, double laf, double lat, int candidates, int length, float[] x, int offset ) {
+        x[ offset + QAF ] = log( qaf );
+        x[ offset + QAT ] = log( qat );
+        x[ offset + QAC ] = log( qac );
+        x[ offset + LAF ] = log( laf );
+        x[ offset + LAT ] = log( lat );
+        x[ offset + P_LINK_QUERY ] = ( float ) ( ( qac + 1 ) / ( qat + 2 ) );
+        x[ offset + P_LINK_ANCHOR ] = ( float ) ( ( laf + 1 ) / ( lat + 2 ) );
+        x[ offset + CANDIDATES ] = log( candidates );
+        x[ offset + LENGTH ] = length;
+    }
+
+    /**
+     * Fills the features of a candidate of the alias whose features were filled last
+     *
+     * @param qef clicks on the entity
+     * @param let anchors to the entity
+     * @param qaef clicks on the entity for queries matching the alias
+     * @param laet anchors with the alias pointing to the entity
+     * @param qaf queries matching the alias
+     * @param laf anchors with the alias
+     * @param context context score of the entity
+     * @param x features
+     * @param offset position of the features of the candidate in x
+     */
+    public static void entity( double qef, double let, double qaef, double laet, double qaf, double laf, double context, float[] x, int offset ) {
+        x[ offset + QEF ] = log( qef );
+        x[ offset + LET ] = log( let );
+        x[ offset + QAEF ] = log( qaef );
+        x[ offset + LAET ] = log( laet );
+        x[ offset + P_QUERY ] = ( float ) ( qaef / ( qaf + 1 ) );
+        x[ offset + P_ANCHOR ] = ( float ) ( laet / ( laf + 1 ) );
+        x[ offset + CONTEXT ] = Double.isNaN( context ) ? 0 : ( float ) context;
+    }
+
+    private static float log( double count ) {
+        if( count > 0 && count < LOG.length && count == ( int ) count ) return LOG[ ( int ) count ];
+        return count > 0 ? ( float ) Math.log( 1 + count ) : 0;
+    }
+}
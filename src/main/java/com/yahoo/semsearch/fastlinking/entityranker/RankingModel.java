@@ -0,0 +1,121 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Model scoring a candidate from its {@link RankingFeatures}, as used by {@link LearnedRanker}. Models are stored in
+ * a text file, which is either a linear model:
+ * <pre>
+ * linear
+ * bias -2.5
+ * QAEF 0.75
+ * CONTEXT 0.1
+ * </pre>
+ * or an ensemble of regression trees, whose scores add up. Every tree is written in pre-order, one node per line,
+ * where a split sends the features whose value is at most the threshold to the first (left) subtree:
+ * <pre>
+ * trees 2
+ * base 0.5
+ * tree
+ * split P_ANCHOR 0.25
+ * leaf -0.1
+ * leaf 0.3
+ * tree
+ * leaf 0.05
+ * </pre>
+ * Features are referred to by {@link RankingFeatures#NAMES name}; blank lines and lines starting with # are ignored.
+ * Models are parsed into flat arrays when loaded, so scoring a candidate does not interpret the file.
+ */
+public abstract class RankingModel implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param x features of a candidate, see {@link RankingFeatures}
+     * @return score of the candidate, higher is better
+     */
+    public double score( float[] x ) {
+        return score( x, 0 );
+    }
+
+    /**
+     * @param x features
+     * @param offset position of the features of the candidate in x
+     * @return score of the candidate, higher is better
+     */
+    public abstract double score( float[] x, int offset );
+
+    /**
+     * @param feature feature index
+     * @return true if the score depends on the feature
+     */
+    public abstract boolean uses( int feature );
+
+    /**
+     * Writes the model in the format read by {@link #load(String)}
+     *
+     * @param out writer
+     */
+    public abstract void write( PrintWriter out );
+
+    /**
+     * Loads a model file
+     *
+     * @param file model file
+     * @return the model
+     * @throws IOException if the file can't be read or is not a valid model
+     */
+    public static RankingModel load( String file ) throws IOException {
+        final BufferedReader br = new BufferedReader( new InputStreamReader( new FileInputStream( file ), StandardCharsets.UTF_8 ) );
+        try {
+            final Lines lines = new Lines( br );
+            final String[] header = lines.next();
+            if( header == null ) throw new IOException( "Empty model file " + file );
+            try {
+                if( header[ 0 ].equals( "linear" ) ) return LinearRankingModel.read( lines );
+                if( header[ 0 ].equals( "trees" ) ) return TreeEnsembleRankingModel.read( Integer.parseInt( header[ 1 ] ), lines );
+            } catch( IllegalArgumentException | ArrayIndexOutOfBoundsException e ) {
+                throw new IOException( "Wrong model file " + file + " at line " + lines.number + ": " + e.getMessage(), e );
+            }
+            throw new IOException( "Unknown model type " + header[ 0 ] + " in " + file );
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Tokenized non-empty lines of a model file
+     */
+    static class Lines {
+        private final BufferedReader br;
+        int number;
+
+        Lines( BufferedReader br ) {
+            this.br = br;
+        }
+
+        /**
+         * @return the tokens of the next line that is not blank or a comment, or null at the end of the file
+         * @throws IOException
+         */
+        String[] next() throws IOException {
+            String line;
+            while( ( line = br.readLine() ) != null ) {
+                number++;
+                line = line.trim();
+                if( !line.isEmpty() && line.charAt( 0 ) != '#' ) return line.split( "\\s+" );
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Ensemble of regression trees (e.g., gradient-boosted), whose score is the base score plus the value of the leaf
+ * every tree sends the candidate to. The nodes of all the trees are flattened in pre-order into three parallel arrays,
+ * so evaluating a tree is a loop over array lookups: the left child of an inner node is the next node and only the
+ * right one is stored; leaves have feature -1 and keep their value in place of the threshold.
+ * <p>
+ * Walking such trees costs a mispredicted branch at almost every node, so ensembles of shallow trees (the usual case
+ * for boosting) are also laid out as complete trees of the same depth, where the leaves above the maximum depth are
+ * replicated: every tree is then a fixed number of steps, each computing the next node from the comparison without
+ * branching, and a lookup of the leaf value.
+ */
+public class TreeEnsembleRankingModel extends RankingModel {
+    private static final long serialVersionUID = 1L;
+    public final double base;
+    /** index of the root of every tree */
+    private final int[] roots;
+    /** feature tested by every node, or -1 for leaves */
+    private final int[] feature;
+    /** threshold of inner nodes, value of leaves */
+    private final float[] threshold;
+    /** right child of inner nodes */
+    private final int[] right;
+    /** Deepest ensembles laid out as complete trees */
+    public static final int MAX_COMPLETE_DEPTH = 8;
+    /** depth of the complete trees, or -1 if the ensemble is too deep */
+    private final int depth;
+    /** feature and threshold of the inner nodes of the complete trees, in breadth-first order, 2^depth - 1 per tree */
+    private final int[] completeFeature;
+    private final float[] completeThreshold;
+    /** values of the leaves of the complete trees, 2^depth per tree */
+    private final float[] completeLeaf;
+
+    /**
+     * @param base base score
+     * @param roots index of the root of every tree
+     * @param feature feature tested by every node, -1 for leaves
+     * @param threshold threshold of inner nodes (going left if the feature is at most the threshold), value of leaves
+     * @param right right child of every inner node, whose left child must be the following node
+     */
+    public TreeEnsembleRankingModel( double base, int[] roots, int[] feature, float[] threshold, int[] right ) {
+        this.base = base;
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.right = right;
+        for( int n = 0; n < feature.length; n++ ) {
+            if( feature[ n ] >= RankingFeatures.COUNT || feature[ n ] >= 0 && ( right[ n ] <= n + 1 || right[ n ] >= feature.length ) ) throw new IllegalArgumentException( "Wrong node " + n );
+        }
+        int d = 0;
+        for( int root : roots ) d = Math.max( d, depth( root ) );
+        if( d > MAX_COMPLETE_DEPTH ) {
+            this.depth = -1;
+            completeFeature = null;
+            completeThreshold = null;
+            completeLeaf = null;
+        } else {
+            this.depth = d;
+            final int inner = ( 1 << d ) - 1, leaves = 1 << d;
+            completeFeature = new int[ roots.length * inner ];
+            completeThreshold = new float[ roots.length * inner ];
+            completeLeaf = new float[ roots.length * leaves ];
+            for( int t = 0; t < roots.length; t++ ) complete( roots[ t ], 0, 0, t * inner, t * leaves );
+        }
+    }
+
+    /**
+     * @return depth of the subtree rooted at node n, 0 for a leaf
+     */
+    private int depth( int n ) {
+        return feature[ n ] < 0 ? 0 : 1 + Math.max( depth( n + 1 ), depth( right[ n ] ) );
+    }
+
+    /**
+     * Copies the subtree rooted at node n to position k (breadth-first, 0 being the root) at level d of a complete tree
+     */
+    private void complete( int n, int k, int d, int innerBase, int leafBase ) {
+        if( d == depth ) {
+            completeLeaf[ leafBase + k - ( ( 1 << depth ) - 1 ) ] = threshold[ n ];
+        } else if( feature[ n ] < 0 ) { // a leaf above the last level: both subtrees lead to its value
+            completeFeature[ innerBase + k ] = 0;
+            completeThreshold[ innerBase + k ] = Float.POSITIVE_INFINITY;
+            complete( n, 2 * k + 1, d + 1, innerBase, leafBase );
+            complete( n, 2 * k + 2, d + 1, innerBase, leafBase );
+        } else {
+            completeFeature[ innerBase + k ] = feature[ n ];
+            completeThreshold[ innerBase + k ] = threshold[ n ];
+            complete( n + 1, 2 * k + 1, d + 1, innerBase, leafBase );
+            complete( right[ n ], 2 * k + 2, d + 1, innerBase, leafBase );
+        }
+    }
+
+    @Override
+    public double score( float[] x, int offset ) {
+        if( depth >= 0 ) return scoreComplete( x, offset );
+        final int[] feature = this.feature, right = this.right;
+        final float[] threshold = this.threshold;
+        double s = base;
+        for( int root : roots ) {
+            int n = root, f;
+            while( ( f = feature[ n ] ) >= 0 ) n = x[ offset + f ] <= threshold[ n ] ? n + 1 : right[ n ];
+            s += threshold[ n ];
+        }
+        return s;
+    }
+
+    private double scoreComplete( float[] x, int offset ) {
+        final int[] feature = completeFeature;
+        final float[] threshold = completeThreshold, leaf = completeLeaf;
+        final int depth = this.depth, inner = ( 1 << depth ) - 1;
+        double s = base;
+        for( int t = 0, innerBase = 0, leafBase = 0; t < roots.length; t++, innerBase += inner, leafBase += inner + 1 ) {
+            int k = 0;
+            for( int d = 0; d < depth; d++ ) k = 2 * k + ( x[ offset + feature[ innerBase + k ] ] > threshold[ innerBase + k ] ? 2 : 1 );
+            s += leaf[ leafBase + k - inner ];
+        }
+        return s;
+    }
+
+    @Override
+    public boolean uses( int f ) {
+        for( int g : feature ) if( g == f ) return true;
+        return false;
+    }
+
+    /**
+     * @return number of trees
+     */
+    public int trees() {
+        return roots.length;
+    }
+
+    @Override
+    public void write( PrintWriter out ) {
+        out.println( "trees " + roots.length );
+        out.println( "base " + base );
+        for( int t = 0; t < roots.length; t++ ) {
+            out.println( "tree" );
+            for( int n = roots[ t ]; n < ( t + 1 < roots.length ? roots[ t + 1 ] : feature.length ); n++ ) {
+                if( feature[ n ] < 0 ) out.println( "leaf " + threshold[ n ] );
+                else out.println( "split " + RankingFeatures.NAMES[ feature[ n ] ] + " " + threshold[ n ] );
+            }
+        }
+    }
+
+    static TreeEnsembleRankingModel read( int trees, RankingModel.Lines lines ) throws IOException {
+        final IntArrayList roots = new IntArrayList( trees ), feature = new IntArrayList(), right = new IntArrayList();
+        final FloatArrayList threshold = new FloatArrayList();
+        double base = 0;
+        String[] t;
+        while( ( t = lines.next() ) != null ) {
+            if( t[ 0 ].equals( "base" ) ) base = Double.parseDouble( t[ 1 ] );
+            else if( t[ 0 ].equals( "tree" ) ) {
+                roots.add( feature.size() );
+                readNode( lines, feature, threshold, right );
+            } else throw new IOException( "Expected a tree, found " + t[ 0 ] );
+        }
+        if( roots.size() != trees ) throw new IOException( "Expected " + trees + " trees, found " + roots.size() );
+        return new TreeEnsembleRankingModel( base, roots.toIntArray(), feature.toIntArray(), threshold.toFloatArray(), right.toIntArray() );
+    }
+
+    /**
+     * Reads a subtree in pre-order, appending its nodes to the arrays
+     */
+    private static void readNode( RankingModel.Lines lines, IntArrayList feature, FloatArrayList threshold, IntArrayList right ) throws IOException {
+        final String[] t = lines.next();
+        if( t == null ) throw new IOException( "Truncated tree" );
+        final int n = feature.size();
+        if( t[ 0 ].equals( "leaf" ) ) {
+            feature.add( -1 );
+            threshold.add( Float.parseFloat( t[ 1 ] ) );
+            right.add( -1 );
+        } else if( t[ 0 ].equals( "split" ) ) {
+            feature.add( RankingFeatures.index( t[ 1 ] ) );
+            threshold.add( Float.parseFloat( t[ 2 ] ) );
+            right.add( -1 );
+            readNode( lines, feature, threshold, right );
+            right.set( n, feature.size() );
+            readNode( lines, feature, threshold, right );
+        } else throw new IOException( "Expected a split or a leaf, found " + t[ 0 ] );
+    }
+}
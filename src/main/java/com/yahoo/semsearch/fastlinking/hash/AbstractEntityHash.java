@@ -11,6 +11,7 @@ import java.io.Serializable;
 import java.util.regex.Pattern;
 
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 
 /**
  * Super-class for holding hashes that store aliases and features for those aliases.
@@ -39,6 +40,52 @@ public abstract class AbstractEntityHash implements Serializable {
      */
     public abstract CandidatesInfo getCandidatesInfo( String surfaceForm );
 
+    /**
+     * Same as {@link #getCandidatesInfo(String)} for any character sequence, e.g. a
+     * {@link com.yahoo.semsearch.fastlinking.view.TextWindow} over a query, so that callers need not materialize a
+     * String per lookup. Sub-classes whose hash accepts character sequences should override this method to avoid the
+     * copy made by the default implementation.
+     *
+     * @param surfaceForm surface form to get the candidates from
+     * @return candidates info containing entities that could be linked to surface form, or null if it is not an alias
+     */
+    public CandidatesInfo getCandidatesInfo( CharSequence surfaceForm ) {
+        return getCandidatesInfo( surfaceForm.toString() );
+    }
+
+    /**
+     * Batch version of {@link #getCandidatesInfo(String)}: resolves the first n surface forms (e.g. all the n-grams of
+     * a query, or of many queries) at once. results[ i ] is set to the candidates of surfaceForms[ i ], or null if it is
+     * not an alias. Sub-classes can override this method to decode the candidates in storage order using the scratch
+     * space in the buffer.
+     *
+     * @param surfaceForms surface forms to get the candidates from
+     * @param n number of surface forms to resolve
+     * @param results array of (at least) n elements that gets filled with the candidates
+     * @param buffer reusable scratch space, owned by the caller
+     */
+    public void getCandidatesInfo( CharSequence[] surfaceForms, int n, CandidatesInfo[] results, LookupBuffer buffer ) {
+        for( int i = 0; i < n; i++ ) results[ i ] = getCandidatesInfo( surfaceForms[ i ] );
+    }
+
+    /**
+     * Batch lookup that stores the candidates of the first n surface forms in a struct-of-arrays view, so that they
+     * can be ranked without creating an {@link com.yahoo.semsearch.fastlinking.view.Entity} per candidate. The
+     * candidates of surfaceForms[ i ] end up at position i of the view. Sub-classes can override this method to decode
+     * straight into the view; the default implementation copies the CandidatesInfo objects.
+     *
+     * @param surfaceForms surface forms to get the candidates from
+     * @param n number of surface forms to resolve
+     * @param view reusable view that gets cleared and filled with the candidates
+     * @param buffer reusable scratch space, owned by the caller
+     */
+    public void getCandidates( CharSequence[] surfaceForms, int n, CandidatesView view, LookupBuffer buffer ) {
+        CandidatesInfo[] infos = new CandidatesInfo[ n ];
+        getCandidatesInfo( surfaceForms, n, infos, buffer );
+        view.clear( n );
+        for( int i = 0; i < n; i++ ) if( infos[ i ] != null ) view.add( i, infos[ i ] );
+    }
+
     /**
      * return the string identifier of an entity given its integer identifier
      * @param id entity id
@@ -46,6 +93,50 @@ public abstract class AbstractEntityHash implements Serializable {
      */
     public abstract CharSequence getEntityName( int id );
 
+    /**
+     * Upper bound on the number of tokens of any alias stored in the hash. Segmentation does not need to look up
+     * n-grams longer than this, as they can't be aliases.
+     *
+     * @return maximum number of tokens of an alias, or Integer.MAX_VALUE if unknown
+     */
+    public int maxAliasLength() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Tells whether an n-gram can be extended into an alias, i.e., whether some alias starts with the tokens of the
+     * n-gram followed by more tokens. Segmentation uses this to stop extending n-grams that can't match. False
+     * positives are allowed; false negatives are not.
+     *
+     * @param ngram space-separated tokens
+     * @return false if no alias starts with the n-gram; true if some alias might
+     */
+    public boolean isAliasPrefix( CharSequence ngram ) {
+        return true;
+    }
+
+    /**
+     * Same as {@link #isAliasPrefix(CharSequence)} for the {@link NGramHash} of an n-gram, which can be computed from
+     * the hashes of the query tokens without building the n-gram
+     *
+     * @param ngram hash of the n-gram
+     * @return false if no alias starts with the n-gram; true if some alias might
+     */
+    public boolean isAliasPrefix( long ngram ) {
+        return true;
+    }
+
+    /**
+     * Tells whether an n-gram can be an alias without looking it up. False positives are allowed; false negatives are
+     * not. Segmentation only builds the surface forms of the n-grams that may be aliases.
+     *
+     * @param ngram {@link NGramHash} of the n-gram
+     * @return false if the n-gram is not an alias; true if it might be
+     */
+    public boolean mayBeAlias( long ngram ) {
+        return true;
+    }
+
  
 
 }
\ No newline at end of file
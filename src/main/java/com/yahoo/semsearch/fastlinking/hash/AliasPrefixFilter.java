@@ -0,0 +1,159 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+import java.io.Serializable;
+
+/**
+ * Bloom filter of the aliases in a hash and of their proper token prefixes: for the alias "new york city" it stores
+ * the prefixes "new" and "new york" and the alias "new york city". Segmentation extends an n-gram with the next query
+ * token only if the n-gram is a prefix, and looks it up only if it may be an alias, so most of the n-grams that can't
+ * be aliases are never built as strings nor looked up in the (much more expensive) signed alias function. The filter
+ * has no false negatives, so pruning with it doesn't change which aliases are found.
+ *
+ * Elements are {@link NGramHash n-gram hashes}, which the linkers compute from the hashes of the query tokens without
+ * building the n-grams.
+ *
+ * The bits are laid out as an array of longs (bit b is bit b % 64 of long b / 64), so that {@link MappedEntityHash}
+ * can store them in its file and test them in place with {@link #prefixKey(long)}, {@link #aliasKey(long)} and
+ * {@link #bit(long, int, long)}.
+ */
+public class AliasPrefixFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final long ALIAS = 0xD6E8FEB86659FD93L;
+    /** Default false positive rate */
+    public static final double FPP = .01;
+
+    final long[] bits;
+    final long numBits;
+    final int hashes;
+
+    /**
+     * Creates an empty filter
+     *
+     * @param numberOfElements expected number of prefixes and aliases
+     * @param fpp target false positive rate
+     */
+    public AliasPrefixFilter( long numberOfElements, double fpp ) {
+        final long n = Math.max( 1, numberOfElements );
+        final long words = Math.max( 1, ( long ) Math.ceil( -n * Math.log( fpp ) / ( Math.log( 2 ) * Math.log( 2 ) ) / Long.SIZE ) );
+        bits = new long[ ( int ) words ];
+        numBits = words * Long.SIZE;
+        hashes = Math.max( 1, ( int ) Math.round( ( double ) numBits / n * Math.log( 2 ) ) );
+    }
+
+    /**
+     * Builds the filter of a set of aliases and their proper token prefixes
+     *
+     * @param aliases aliases; iterated twice
+     * @param fpp target false positive rate
+     * @return filter with every alias and its prefixes
+     */
+    public static AliasPrefixFilter create( Iterable<? extends CharSequence> aliases, double fpp ) {
+        long numberOfElements = 0;
+        for( CharSequence alias : aliases ) numberOfElements += QuasiSuccinctEntityHash.tokens( alias );
+        final AliasPrefixFilter filter = new AliasPrefixFilter( numberOfElements, fpp );
+        for( CharSequence alias : aliases ) filter.addAlias( alias );
+        return filter;
+    }
+
+    /**
+     * Adds an alias and every proper token prefix of it
+     *
+     * @param alias alias
+     */
+    public void addAlias( CharSequence alias ) {
+        final String s = alias.toString();
+        long h = NGramHash.EMPTY;
+        int start = 0;
+        for( int i = s.indexOf( ' ' ); i != -1; start = i + 1, i = s.indexOf( ' ', start ) ) {
+            h = NGramHash.extend( h, NGramHash.token( s.substring( start, i ) ) );
+            add( prefixKey( h ) );
+        }
+        add( aliasKey( NGramHash.extend( h, NGramHash.token( s.substring( start ) ) ) ) );
+    }
+
+    private void add( long key ) {
+        for( int i = 0; i < hashes; i++ ) {
+            final long b = bit( key, i, numBits );
+            bits[ ( int ) ( b >>> 6 ) ] |= 1L << b;
+        }
+    }
+
+    private boolean contains( long key ) {
+        for( int i = 0; i < hashes; i++ ) {
+            final long b = bit( key, i, numBits );
+            if( ( bits[ ( int ) ( b >>> 6 ) ] & 1L << b ) == 0 ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param ngram space-separated tokens
+     * @return false if no alias starts with the tokens of ngram followed by more tokens; true otherwise (or in case of a false positive)
+     */
+    public boolean isPrefix( CharSequence ngram ) {
+        return contains( prefixKey( NGramHash.of( ngram ) ) );
+    }
+
+    /**
+     * @param ngram {@link NGramHash} of an n-gram
+     * @return false if no alias starts with the tokens of the n-gram followed by more tokens; true otherwise (or in case of a false positive)
+     */
+    public boolean isPrefix( long ngram ) {
+        return contains( prefixKey( ngram ) );
+    }
+
+    /**
+     * @param ngram {@link NGramHash} of an n-gram
+     * @return false if the n-gram is not an alias; true otherwise (or in case of a false positive)
+     */
+    public boolean mayBeAlias( long ngram ) {
+        return contains( aliasKey( ngram ) );
+    }
+
+    /**
+     * @param ngram {@link NGramHash} of a prefix
+     * @return the element stored in the filter for the prefix
+     */
+    static long prefixKey( long ngram ) {
+        return ngram;
+    }
+
+    /**
+     * @param ngram {@link NGramHash} of an alias
+     * @return the element stored in the filter for the alias, which differs from the one of the same n-gram as a prefix
+     */
+    static long aliasKey( long ngram ) {
+        return NGramHash.extend( ngram, ALIAS );
+    }
+
+    /**
+     * Position of the i-th bit of an element, using double hashing over the two halves of its hash
+     *
+     * @param key element
+     * @param i index of the hash function
+     * @param numBits number of bits of the filter
+     * @return bit position
+     */
+    static long bit( long key, int i, long numBits ) {
+        return ( ( key + i * ( ( key >>> 32 ) | 1 ) ) & Long.MAX_VALUE ) % numBits;
+    }
+
+    /**
+     * @return number of bits of the filter
+     */
+    public long numBits() {
+        return numBits;
+    }
+
+    /**
+     * @return number of hash functions
+     */
+    public int hashes() {
+        return hashes;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+import it.unimi.dsi.fastutil.ints.IntBigArrayBigList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.sux4j.util.EliasFanoLongBigList;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+
+/**
+ * Upper bounds of the candidate features of every alias, built with the hash. For every
+ * {@link CandidatesView#checkpoint(int) checkpoint} before its last candidate, an alias stores the maxima of QEF, LET,
+ * QAEF and LAET over the candidates from the checkpoint on. Rankers whose scores do not decrease with these features
+ * can then stop scoring the candidates of an alias once the k-th best score reaches the score of the bounds
+ * (see {@link com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker#getTopKEntities(CandidatesView, int, com.yahoo.semsearch.fastlinking.view.EntityContext, String, int, int)}).
+ *
+ * The bounds hold for any order of the candidates, but they are only tight if the candidates with the highest
+ * features come first, so the hash stores them {@link #sort(Entity[]) sorted} by decreasing prior.
+ */
+public class CandidateBounds implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /** bounded features per checkpoint: QEF, LET, QAEF, LAET */
+    public final static int FEATURES = 4;
+    private final EliasFanoMonotoneLongBigList pointers;
+    private final EliasFanoLongBigList values;
+
+    /**
+     * @param pointers #aliases + 1 offsets into the values
+     * @param values the bounds of every alias, see {@link #of(Entity[])}
+     */
+    CandidateBounds( LongArrayList pointers, IntBigArrayBigList values ) {
+        this.pointers = new EliasFanoMonotoneLongBigList( pointers );
+        this.values = new EliasFanoLongBigList( values );
+    }
+
+    /**
+     * Sorts candidates by decreasing prior, i.e., by the number of times the alias was clicked or linked to them
+     * (QAEF + LAET). The sort is stable, so candidates with the same prior keep their order
+     *
+     * @param entities candidates of an alias
+     */
+    public static void sort( Entity[] entities ) {
+        Arrays.sort( entities, new Comparator<Entity>() {
+            @Override
+            public int compare( Entity e1, Entity e2 ) {
+                return -Double.compare( e1.QAEF + e1.LAET, e2.QAEF + e2.LAET );
+            }
+        } );
+    }
+
+    /**
+     * Computes the bounds of the candidates of an alias
+     *
+     * @param entities candidates of an alias
+     * @return {@link #FEATURES} maxima for every checkpoint, {@link CandidatesView#checkpoints(int)} of them
+     */
+    public static int[] of( Entity[] entities ) {
+        final int checkpoints = CandidatesView.checkpoints( entities.length );
+        final int[] bounds = new int[ checkpoints * FEATURES ];
+        int QEF = Integer.MIN_VALUE, LET = Integer.MIN_VALUE, QAEF = Integer.MIN_VALUE, LAET = Integer.MIN_VALUE;
+        for( int i = entities.length - 1, j = checkpoints - 1; j >= 0; i-- ) { //suffix maxima, recorded at the checkpoints
+            QEF = Math.max( QEF, ( int ) entities[ i ].QEF );
+            LET = Math.max( LET, ( int ) entities[ i ].LET );
+            QAEF = Math.max( QAEF, ( int ) entities[ i ].QAEF );
+            LAET = Math.max( LAET, ( int ) entities[ i ].LAET );
+            if( i == CandidatesView.checkpoint( j ) ) {
+                bounds[ j * FEATURES ] = QEF;
+                bounds[ j * FEATURES + 1 ] = LET;
+                bounds[ j * FEATURES + 2 ] = QAEF;
+                bounds[ j * FEATURES + 3 ] = LAET;
+                j--;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Adds the bounds of the alias with a given index to the view
+     *
+     * @param index alias index
+     * @param buffer scratch space for decoding
+     * @param view view the candidates of the alias were added to
+     * @param k position of the alias in the view
+     */
+    void get( long index, LookupBuffer buffer, CandidatesView view, int k ) {
+        final long startEnd[] = pointers.get( index, buffer.startEnd );
+        final int length = ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] );
+        if( length == 0 ) return;
+        final long t[] = values.get( startEnd[ 0 ], buffer.values( length ), 0, length );
+        for( int b = 0; b < length; b += FEATURES ) view.addBound( k, ( int ) t[ b ], ( int ) t[ b + 1 ], ( int ) t[ b + 2 ], ( int ) t[ b + 3 ] );
+    }
+}
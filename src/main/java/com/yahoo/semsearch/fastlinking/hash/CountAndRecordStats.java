@@ -26,7 +26,7 @@ public class CountAndRecordStats implements Serializable {
     public long SQAF, SQAT, SQAC, SLAF, SLAT;
     public long SQEF, SQAEF, SMET, SMAET, SLET, SLAET;
 
-    private CountAndRecordStats( long SQAF, long SQAT, long SQAC, long SLAF, long SLAT, long SQEF, long SQAEF, long SMET, long SMAET, long SLET, long SLAET, long entities, long phrases, long entityPhrasePairs ) {
+    CountAndRecordStats( long SQAF, long SQAT, long SQAC, long SLAF, long SLAT, long SQEF, long SQAEF, long SMET, long SMAET, long SLET, long SLAET, long entities, long phrases, long entityPhrasePairs ) {
 
         this.entities = entities;
         this.phrases = phrases;
@@ -73,13 +73,13 @@ public class CountAndRecordStats implements Serializable {
             }
         }
 
-        for( int i = 0; i < quasiHash.entityNames.size(); i++ ) {
+        for( int i = 0; i < quasiHash.numberOfEntities(); i++ ) {
             Entity e = quasiHash.getEntity( i );
             SQEF += e.QEF;
             SMET += e.MET;
 
         }
-        return new CountAndRecordStats( SQAF, SQAT, SQAC, SLAF, SLAT, SQEF, SQAEF, SMET, SMAET, SLET, SLAET, quasiHash.entityNames.size(), quasiHash.hash.size(), entityPhrasePairs );
+        return new CountAndRecordStats( SQAF, SQAT, SQAC, SLAF, SLAT, SQEF, SQAEF, SMET, SMAET, SLET, SLAET, quasiHash.numberOfEntities(), quasiHash.hash.size(), entityPhrasePairs );
     }
 
 }
@@ -6,7 +6,6 @@
 package com.yahoo.semsearch.fastlinking.hash;
 
 import it.unimi.dsi.bits.TransformationStrategies;
-import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.objects.AbstractObjectIterator;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
 import it.unimi.dsi.logging.ProgressLogger;
@@ -60,7 +59,7 @@ public class CountNGramsFromQueries {
         Object2LongFunction<? extends CharSequence> f;
         ProgressLogger pl = new ProgressLogger( LOGGER );
         if( jsapResult.getString( "hash" ) != null ) {
-            QuasiSuccinctEntityHash hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( jsapResult.getString( "hash" ) );
+            QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( jsapResult.getString( "hash" ) );
             numberOfPhrases = ( int ) hash.stats.phrases;
             f = hash.hash;
         } else {
@@ -32,6 +32,11 @@ public class EntityHash extends AbstractEntityHash implements Serializable {
 
     @Override
     public CandidatesInfo getCandidatesInfo( String surfaceForm ) {
+        return getCandidatesInfo( ( CharSequence ) surfaceForm );
+    }
+
+    @Override
+    public CandidatesInfo getCandidatesInfo( CharSequence surfaceForm ) {
         long id = hash.getLong( surfaceForm );
         if( id != -1 ) {
             assert id < infos.length;
@@ -0,0 +1,178 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+import it.unimi.dsi.fastutil.ints.IntBigArrayBigList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.util.EliasFanoLongBigList;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+
+import java.io.Serializable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+
+/**
+ * Context-free log-priors of every (alias, entity) pair, computed when the hash is built. The prior of a candidate is
+ * the log-probability {@link #score} of {@link com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker}, which
+ * only depends on the alias and entity features and on the global stats, for the smoothing parameters recorded here.
+ * Priors are stored quantized, as the number of {@link #step steps} below zero, so that views of the candidates (see
+ * {@link CandidatesView#prior}) carry them and ranking with an empty context is a lookup.
+ */
+public class EntityPriors implements Serializable {
+    private final static Logger LOGGER = LoggerFactory.getLogger( EntityPriors.class );
+    private static final long serialVersionUID = 1L;
+    /** quantized value of undefined (NaN) priors, which {@link #prior(long)} maps back to NaN */
+    public final static long NAN_QUANTIZED = Integer.MAX_VALUE;
+    /** quantized value of priors of probability zero */
+    public final static long MAX_QUANTIZED = NAN_QUANTIZED - 1;
+    /** smoothing of the query and anchor probabilities the priors were computed with */
+    public final double muQuery, muAnchor;
+    /** quantization step of the priors */
+    public final double step;
+    private final EliasFanoMonotoneLongBigList pointers;
+    private final EliasFanoLongBigList values;
+
+    /**
+     * Priors whose values are stored elsewhere (e.g., in a {@link MappedEntityHash})
+     */
+    EntityPriors( double muQuery, double muAnchor, double step ) {
+        this( muQuery, muAnchor, step, null, null );
+    }
+
+    private EntityPriors( double muQuery, double muAnchor, double step, EliasFanoMonotoneLongBigList pointers, EliasFanoLongBigList values ) {
+        this.muQuery = muQuery;
+        this.muAnchor = muAnchor;
+        this.step = step;
+        this.pointers = pointers;
+        this.values = values;
+    }
+
+    /**
+     * Computes the priors of every candidate of a hash, whose stats must be set
+     *
+     * @param hash hash with the candidates
+     * @param muQuery smoothing of the query probabilities
+     * @param muAnchor smoothing of the anchor probabilities
+     * @param step quantization step (a power of two keeps the priors exact in a double)
+     * @return the priors, in the order of the candidates of the hash
+     */
+    public static EntityPriors create( QuasiSuccinctEntityHash hash, double muQuery, double muAnchor, double step ) {
+        final long numberOfAliases = hash.hash.size();
+        final LongArrayList pointers = new LongArrayList();
+        final IntBigArrayBigList values = new IntBigArrayBigList();
+        final CountAndRecordStats stats = hash.stats;
+        final ProgressLogger pl = new ProgressLogger( LOGGER );
+        pl.itemsName = "aliases";
+        pl.expectedUpdates = numberOfAliases;
+        pl.start( "Computing candidate priors" );
+        pointers.add( 0 );
+        for( long i = 0; i < numberOfAliases; i++ ) {
+            pl.lightUpdate();
+            final CandidatesInfo ci = hash.candidatesInfo( i );
+            for( Entity e : ci.entities ) {
+                values.add( ( int ) quantize( score( stats, muQuery, muAnchor, e.QEF, e.LET, e.QAEF, e.LAET, ci.QAF, ci.QAT, ci.QAC, ci.LAF, ci.LAT ), step ) );
+            }
+            pointers.add( values.size64() );
+        }
+        pl.done();
+        return new EntityPriors( muQuery, muAnchor, step, new EliasFanoMonotoneLongBigList( pointers ), new EliasFanoLongBigList( values ) );
+    }
+
+    /**
+     * Scores an entity for an alias given their features: the log-probability of the entity given the alias, mixing
+     * the query log and the anchor text estimates (see
+     * {@link com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker#rank(Entity, CandidatesInfo, com.yahoo.semsearch.fastlinking.view.EntityContext, String, int)})
+     *
+     * @param stats global stats of the hash
+     * @param muQuery smoothing of the query probabilities
+     * @param muAnchor smoothing of the anchor probabilities
+     * @return log-score for the entity
+     */
+    public static double score( CountAndRecordStats stats, double muQuery, double muAnchor, double QEF, double LET, double QAEF, double LAET, double QAF, double QAT, double QAC, double LAF, double LAT ) {
+        double p_e = ( QEF + 1 ) / ( stats.SQEF + stats.entities ); // or ( totalClicks + numberOfCandidates )
+        double p_e_w = ( LET + 1 ) / ( stats.SLET + stats.entities ); // or ( totalAnchor + numberOfCandidates )
+
+        double p_l_a_w = ( LAF + 1 ) / ( LAT + 2 );//prob of linking given Wiki
+        double p_l_a = ( QAC + 1 ) / ( QAT + 2 ); //prob of linking given query
+        double p_e_l_a = ( QAEF + muQuery * p_e ) / ( QAF + muQuery ); //otherwise ( e.QAEF + 1 )  numberOfCandidates + QAF );
+        double p_e_l_a_w = ( LAET + muAnchor * p_e_w ) / ( LAF + muAnchor ); // or ( e.LAET + 1 ) /  numberOfCandidates + LAF )
+        if( p_e_l_a_w > 1 ) p_e_l_a_w = 1; //TODO this might happen because there were some bogus counts in datapacks
+        if( p_e_l_a > 1 ) p_e_l_a = 1;
+        double priorQ = ( ( QAT + 1 ) / ( QAT + LAT + 2 ) );
+        final double score = priorQ * ( p_l_a * p_e_l_a + ( 1 - p_l_a ) * p_e ) + ( 1 - priorQ ) * ( p_l_a_w * p_e_l_a_w + ( 1 - p_l_a_w ) * p_e_w );
+        return Math.log( score );
+    }
+
+    /**
+     * Quantizes a log-prior. Quantization does not decrease with the prior, so upper bounds of the priors quantize to
+     * upper bounds of the quantized priors
+     *
+     * @param logPrior log-prior, at most zero
+     * @param step quantization step
+     * @return number of steps below zero, clamped to [0, {@link #MAX_QUANTIZED}], or {@link #NAN_QUANTIZED} if the
+     * log-prior is NaN
+     */
+    public static long quantize( double logPrior, double step ) {
+        if( Double.isNaN( logPrior ) ) return NAN_QUANTIZED;
+        final double v = Math.rint( -logPrior / step );
+        if( v >= MAX_QUANTIZED ) return MAX_QUANTIZED;
+        return v <= 0 ? 0 : ( long ) v;
+    }
+
+    /**
+     * @param quantized quantized log-prior
+     * @return the log-prior (NaN for {@link #NAN_QUANTIZED})
+     */
+    public double prior( long quantized ) {
+        return quantized == NAN_QUANTIZED ? Double.NaN : -quantized * step;
+    }
+
+    /**
+     * @param logPrior log-prior
+     * @return the log-prior, quantized as the stored ones
+     */
+    public double quantized( double logPrior ) {
+        return prior( quantize( logPrior, step ) );
+    }
+
+    /**
+     * @return true if the priors were computed with the given smoothing parameters
+     */
+    public boolean matches( double muQuery, double muAnchor ) {
+        return this.muQuery == muQuery && this.muAnchor == muAnchor;
+    }
+
+    /**
+     * @param index alias index
+     * @return the quantized priors of the candidates of the alias
+     */
+    long[] quantized( long index ) {
+        final long[] startEnd = pointers.get( index, new long[ 2 ] );
+        return values.get( startEnd[ 0 ], new long[ ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] ) ] );
+    }
+
+    /**
+     * Sets the priors of the candidates of the alias with a given index in a view
+     *
+     * @param index alias index
+     * @param buffer scratch space for decoding
+     * @param view view the candidates of the alias were added to
+     * @param k position of the alias in the view
+     */
+    void get( long index, LookupBuffer buffer, CandidatesView view, int k ) {
+        final long startEnd[] = pointers.get( index, buffer.startEnd );
+        final int length = ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] );
+        final long t[] = values.get( startEnd[ 0 ], buffer.values( length ), 0, length );
+        final int start = view.start( k );
+        for( int i = 0; i < length; i++ ) view.prior[ start + i ] = prior( t[ i ] );
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+/**
+ * Scratch space for batch candidate lookups (see
+ * {@link AbstractEntityHash#getCandidatesInfo(CharSequence[], int, com.yahoo.semsearch.fastlinking.view.CandidatesInfo[], LookupBuffer)}).
+ * The arrays grow on demand and are reused across calls, so a buffer should be kept per thread and never shared
+ * by concurrent lookups.
+ */
+public class LookupBuffer {
+    /** alias index of every surface form in the batch */
+    long[] ids = LongArrays.EMPTY_ARRAY;
+    /** positions of the batch sorted by alias index */
+    int[] order = IntArrays.EMPTY_ARRAY;
+    /** start and end of the values of an alias */
+    final long[] startEnd = new long[ 2 ];
+    /** decoded values of an alias */
+    long[] values = LongArrays.EMPTY_ARRAY;
+    /** decoded per entity features */
+    final long[] entityFeatures = new long[ QuasiSuccinctEntityHash.PER_ENTITY_FEATURES ];
+
+    /**
+     * Makes room for a batch of n surface forms
+     *
+     * @param n number of surface forms
+     */
+    void ensureBatchCapacity( int n ) {
+        ids = LongArrays.ensureCapacity( ids, n );
+        order = IntArrays.ensureCapacity( order, n );
+    }
+
+    /**
+     * Makes room for the values of an alias
+     *
+     * @param n number of values
+     * @return the values array, with at least n elements
+     */
+    long[] values( int n ) {
+        return values = LongArrays.grow( values, n );
+    }
+}
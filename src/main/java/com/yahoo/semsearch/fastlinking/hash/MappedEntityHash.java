@@ -0,0 +1,564 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.AbstractObject2LongFunction;
+import it.unimi.dsi.fastutil.objects.AbstractObjectIterator;
+import it.unimi.dsi.logging.ProgressLogger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.StringAndCandidate;
+
+/**
+ * Memory-mapped version of {@link QuasiSuccinctEntityHash}. Instead of deserializing the whole structure onto the heap,
+ * the alias table, pointers, features and entity names are mapped from a single file using {@link FileChannel#map}, so
+ * loading is O(1), the heap footprint is a few objects, and the page cache is shared between JVMs on the same host.
+ * All the accesses are absolute reads, so the hash can be shared across threads.
+ *
+ * The file layout (big endian) is a fixed header followed by 8-byte aligned sections:
+ *  - header: magic, version, #aliases, #entities, table size, seed, #values, #name bytes, stats flag, the 14 stats counters,
+ *    the number of tokens of the longest alias, the number of bits and hash functions of the alias prefix filter, the
+ *    number of candidate bound values, the quantization step of the candidate priors (0 if there are none) and their
+ *    query and anchor smoothing
+ *  - alias table: open addressing table of (64-bit alias fingerprint, alias index) pairs
+ *  - pointers: #aliases + 1 offsets into the values section
+ *  - values: per alias QAF, QAT, QAC, LAF, LAT followed by (id, LAET, QAEF) for every candidate entity
+ *  - entity features: QEF, LET, type for every entity
+ *  - entity name offsets (#entities + 1) and the UTF-8 encoded entity names
+ *  - the bits of the {@link AliasPrefixFilter}, 8-byte aligned
+ *  - the {@link CandidateBounds}: #aliases + 1 offsets into the bound values, and the bound values (QEF, LET, QAEF,
+ *    LAET maxima per checkpoint). The converter computes them from the candidates in the order of the serialized hash,
+ *    so they hold for hashes built before the candidates were sorted too (they are just looser)
+ *  - (if the hash stores them) the quantized {@link EntityPriors} of every candidate, in the order of the values section
+ *
+ * The signed function stored in a serialized hash does not keep the aliases, so the converter needs the datapack the
+ * hash was built from:
+ * java com.yahoo.semsearch.fastlinking.hash.MappedEntityHash -h hash -i datapack -o hash.mapped
+ *
+ * Every tool that loads hashes through {@link QuasiSuccinctEntityHash#load(String)} accepts both formats.
+ */
+public class MappedEntityHash extends QuasiSuccinctEntityHash {
+    private final static Logger LOGGER = LoggerFactory.getLogger( MappedEntityHash.class );
+    private static final long serialVersionUID = 1L;
+    /** First long of every mapped hash file; serialized hashes start with the java serialization magic instead */
+    public final static long MAGIC = 0x46454C4D41505048L; //FELMAPPH
+    public final static long VERSION = 1;
+    private final static int HEADER_LONGS = 9 + 14 + 1 + 2 + 1 + 3;
+    private final static int LOG2_SEGMENT_SIZE = 30;
+    private final static long SEGMENT_MASK = ( 1L << LOG2_SEGMENT_SIZE ) - 1;
+    private final static double LOAD_FACTOR = .6;
+    /** The alias table is built in java arrays, so its (power of two) size can't be larger than this */
+    private final static long MAX_TABLE_SIZE = 1L << 30;
+
+    private final transient ByteBuffer[] segments;
+    private final long numberOfEntities;
+    private final long tableOffset, pointersOffset, valuesOffset, entitiesOffset, nameOffsetsOffset, namesOffset;
+    private final long prefixesOffset, prefixBits;
+    private final int prefixHashes;
+    private final long boundPointersOffset, boundValuesOffset;
+    private long priorsOffset;
+
+    /**
+     * Function mapping aliases to their index using the mapped open addressing table
+     */
+    private static class MappedAliasFunction extends AbstractObject2LongFunction<CharSequence> {
+        private static final long serialVersionUID = 1L;
+        private MappedEntityHash mapped;
+        private final long size, mask, seed;
+
+        MappedAliasFunction( long size, long tableSize, long seed ) {
+            this.size = size;
+            this.mask = tableSize - 1;
+            this.seed = seed;
+            defaultReturnValue( -1 );
+        }
+
+        @Override
+        public long getLong( Object key ) {
+            final long fp = fingerprint( ( CharSequence ) key, seed );
+            for( long slot = fp & mask; ; slot = ( slot + 1 ) & mask ) {
+                final long offset = mapped.tableOffset + slot * 16;
+                final long stored = mapped.getLongAt( offset );
+                if( stored == fp ) return mapped.getLongAt( offset + 8 );
+                if( stored == 0 ) return defRetValue;
+            }
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return getLong( key ) != -1;
+        }
+
+        @Override
+        public int size() {
+            return ( int ) size;
+        }
+    }
+
+    private MappedEntityHash( MappedAliasFunction function, ByteBuffer[] segments, long numberOfEntities, long tableSize, long numberOfValues, long numberOfNameBytes,
+                              long prefixBits, int prefixHashes ) {
+        super( function, null, null, null, null );
+        function.mapped = this;
+        this.segments = segments;
+        this.numberOfEntities = numberOfEntities;
+        this.prefixBits = prefixBits;
+        this.prefixHashes = prefixHashes;
+        tableOffset = HEADER_LONGS * 8;
+        pointersOffset = tableOffset + tableSize * 16;
+        valuesOffset = pointersOffset + ( function.size + 1 ) * 8;
+        entitiesOffset = valuesOffset + align( numberOfValues * 4 );
+        nameOffsetsOffset = entitiesOffset + align( numberOfEntities * PER_ENTITY_FEATURES * 4 );
+        namesOffset = nameOffsetsOffset + ( numberOfEntities + 1 ) * 8;
+        prefixesOffset = align( namesOffset + numberOfNameBytes );
+        boundPointersOffset = prefixesOffset + prefixBits / 8;
+        boundValuesOffset = boundPointersOffset + ( function.size + 1 ) * 8;
+    }
+
+    /**
+     * Maps a hash file written by {@link #store(QuasiSuccinctEntityHash, Iterable, String)}
+     *
+     * @param file mapped hash file
+     * @return hash backed by the mapped file
+     * @throws IOException
+     */
+    public static MappedEntityHash map( String file ) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            final ByteBuffer[] segments = new ByteBuffer[ ( int ) ( ( length + SEGMENT_MASK ) >>> LOG2_SEGMENT_SIZE ) ];
+            for( int i = 0; i < segments.length; i++ ) {
+                final long start = ( long ) i << LOG2_SEGMENT_SIZE;
+                segments[ i ] = channel.map( FileChannel.MapMode.READ_ONLY, start, Math.min( SEGMENT_MASK + 1, length - start ) );
+            }
+            final ByteBuffer header = segments[ 0 ];
+            if( header.getLong( 0 ) != MAGIC ) throw new IOException( file + " is not a mapped entity hash" );
+            final long version = header.getLong( 8 );
+            if( version != VERSION ) throw new IOException( "Unsupported mapped hash version " + version );
+            final MappedAliasFunction function = new MappedAliasFunction( header.getLong( 16 ), header.getLong( 32 ), header.getLong( 40 ) );
+            final MappedEntityHash mapped = new MappedEntityHash( function, segments, header.getLong( 24 ), header.getLong( 32 ), header.getLong( 48 ), header.getLong( 56 ),
+                    header.getLong( 72 + 15 * 8 ), ( int ) header.getLong( 72 + 16 * 8 ) );
+            if( header.getLong( 64 ) != 0 ) {
+                long s[] = new long[ 14 ];
+                for( int i = 0; i < s.length; i++ ) s[ i ] = header.getLong( 72 + i * 8 );
+                mapped.stats = new CountAndRecordStats( s[ 3 ], s[ 4 ], s[ 5 ], s[ 6 ], s[ 7 ], s[ 8 ], s[ 9 ], s[ 10 ], s[ 11 ], s[ 12 ], s[ 13 ], s[ 0 ], s[ 1 ], s[ 2 ] );
+            }
+            mapped.maxAliasLength = ( int ) header.getLong( 72 + 14 * 8 );
+            if( header.getLong( 72 + 18 * 8 ) != 0 ) {
+                mapped.priors = new EntityPriors( Double.longBitsToDouble( header.getLong( 72 + 19 * 8 ) ), Double.longBitsToDouble( header.getLong( 72 + 20 * 8 ) ),
+                        Double.longBitsToDouble( header.getLong( 72 + 18 * 8 ) ) );
+                mapped.priorsOffset = mapped.boundValuesOffset + align( header.getLong( 72 + 17 * 8 ) * 4 );
+            }
+            return mapped;
+        } finally {
+            raf.close(); //mappings stay valid after the channel is closed
+        }
+    }
+
+    /**
+     * @param file hash file
+     * @return true if the file starts with the mapped hash magic number
+     * @throws IOException
+     */
+    public static boolean isMapped( String file ) throws IOException {
+        final DataInputStream dis = new DataInputStream( new FileInputStream( file ) );
+        try {
+            return dis.readLong() == MAGIC;
+        } catch( EOFException e ) {
+            return false;
+        } finally {
+            dis.close();
+        }
+    }
+
+    private long getLongAt( long offset ) {
+        return segments[ ( int ) ( offset >>> LOG2_SEGMENT_SIZE ) ].getLong( ( int ) ( offset & SEGMENT_MASK ) );
+    }
+
+    private int getIntAt( long offset ) {
+        return segments[ ( int ) ( offset >>> LOG2_SEGMENT_SIZE ) ].getInt( ( int ) ( offset & SEGMENT_MASK ) );
+    }
+
+    private int value( long index ) {
+        return getIntAt( valuesOffset + index * 4 );
+    }
+
+    /**
+     * Mapped values need no decoding, so the buffer is not used
+     */
+    @Override
+    protected CandidatesInfo candidatesInfo( long index, LookupBuffer buffer ) {
+        final long start = getLongAt( pointersOffset + index * 8 );
+        final long end = getLongAt( pointersOffset + index * 8 + 8 );
+        final int numEntities = ( int ) ( ( end - start - PER_CANDIDATE_FEATURES ) / PER_ENTITY_CANDIDATE_FEATURES );
+        Entity[] e = new Entity[ numEntities ];
+        for( int i = 0; i < numEntities; i++ ) {
+            final long base = start + PER_CANDIDATE_FEATURES + i * PER_ENTITY_CANDIDATE_FEATURES;
+            e[ i ] = getEntity( value( base ) );
+            e[ i ].LAET = value( base + 1 );
+            e[ i ].QAEF = value( base + 2 );
+        }
+        return new CandidatesInfo( e, value( start ), value( start + 1 ), value( start + 2 ), value( start + 3 ), value( start + 4 ) );
+    }
+
+    @Override
+    protected void candidates( long index, LookupBuffer buffer, CandidatesView view, int k ) {
+        final long start = getLongAt( pointersOffset + index * 8 );
+        final long end = getLongAt( pointersOffset + index * 8 + 8 );
+        final int numEntities = ( int ) ( ( end - start - PER_CANDIDATE_FEATURES ) / PER_ENTITY_CANDIDATE_FEATURES );
+        view.startAlias( k, value( start ), value( start + 1 ), value( start + 2 ), value( start + 3 ), value( start + 4 ) );
+        for( int i = 0; i < numEntities; i++ ) {
+            final long base = start + PER_CANDIDATE_FEATURES + i * PER_ENTITY_CANDIDATE_FEATURES;
+            final int id = value( base );
+            final long offset = entitiesOffset + id * ( long ) PER_ENTITY_FEATURES * 4;
+            view.addCandidate( k, id, value( base + 1 ), value( base + 2 ), getIntAt( offset ), getIntAt( offset + 4 ), ( short ) getIntAt( offset + 8 ) );
+        }
+        if( priorsOffset != 0 ) {
+            final long first = priorsOffset + ( start - PER_CANDIDATE_FEATURES * index ) / PER_ENTITY_CANDIDATE_FEATURES * 4;
+            final int viewStart = view.start( k );
+            for( int i = 0; i < numEntities; i++ ) view.prior[ viewStart + i ] = priors.prior( getIntAt( first + i * 4 ) );
+        }
+        final long boundEnd = getLongAt( boundPointersOffset + index * 8 + 8 );
+        for( long b = getLongAt( boundPointersOffset + index * 8 ); b < boundEnd; b += CandidateBounds.FEATURES ) {
+            final long offset = boundValuesOffset + b * 4;
+            view.addBound( k, getIntAt( offset ), getIntAt( offset + 4 ), getIntAt( offset + 8 ), getIntAt( offset + 12 ) );
+        }
+    }
+
+    @Override
+    public Entity getEntity( final long id ) {
+        final long offset = entitiesOffset + id * PER_ENTITY_FEATURES * 4;
+        Entity e = new Entity( ( int ) id );
+        e.QEF = getIntAt( offset );
+        e.LET = getIntAt( offset + 4 );
+        e.type = ( short ) getIntAt( offset + 8 );
+        return e;
+    }
+
+    @Override
+    public CharSequence getEntityName( int id ) {
+        final long start = getLongAt( nameOffsetsOffset + id * 8L );
+        final byte[] bytes = new byte[ ( int ) ( getLongAt( nameOffsetsOffset + id * 8L + 8 ) - start ) ];
+        for( int i = 0; i < bytes.length; i++ ) {
+            final long offset = namesOffset + start + i;
+            bytes[ i ] = segments[ ( int ) ( offset >>> LOG2_SEGMENT_SIZE ) ].get( ( int ) ( offset & SEGMENT_MASK ) );
+        }
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Tests an element against the mapped bits of the alias prefix filter
+     *
+     * @param key element of the filter
+     * @return false if the element is not in the filter
+     */
+    private boolean inPrefixFilter( long key ) {
+        for( int i = 0; i < prefixHashes; i++ ) {
+            final long b = AliasPrefixFilter.bit( key, i, prefixBits );
+            if( ( getLongAt( prefixesOffset + ( b >>> 6 ) * 8 ) & 1L << b ) == 0 ) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isAliasPrefix( CharSequence ngram ) {
+        return inPrefixFilter( AliasPrefixFilter.prefixKey( NGramHash.of( ngram ) ) );
+    }
+
+    @Override
+    public boolean isAliasPrefix( long ngram ) {
+        return inPrefixFilter( AliasPrefixFilter.prefixKey( ngram ) );
+    }
+
+    @Override
+    public boolean mayBeAlias( long ngram ) {
+        return inPrefixFilter( AliasPrefixFilter.aliasKey( ngram ) );
+    }
+
+    @Override
+    public int numberOfEntities() {
+        return ( int ) numberOfEntities;
+    }
+
+    /**
+     * 64-bit fingerprint of the UTF-16 code units of an alias. Zero is reserved for empty slots.
+     *
+     * @param s alias
+     * @param seed seed of the table
+     * @return non-zero fingerprint
+     */
+    static long fingerprint( CharSequence s, long seed ) {
+        long h = seed ^ ( s.length() * 0x9E3779B97F4A7C15L );
+        for( int i = 0; i < s.length(); i++ ) {
+            h = ( h ^ s.charAt( i ) ) * 0xC6A4A7935BD1E995L;
+            h ^= h >>> 47;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private static long align( long bytes ) {
+        return ( bytes + 7 ) & -8L;
+    }
+
+    /**
+     * Writes a hash in the mapped format. The aliases are looked up in the hash to recover their index; aliases that
+     * are not in the hash are ignored.
+     *
+     * @param hash hash to convert
+     * @param aliases all the aliases stored in the hash
+     * @param file output file
+     * @throws IOException
+     */
+    public static void store( QuasiSuccinctEntityHash hash, Iterable<? extends CharSequence> aliases, String file ) throws IOException {
+        final long numberOfAliases = hash.hash.size();
+        final int numberOfEntities = hash.numberOfEntities();
+        final long tableSize = Long.highestOneBit( Math.max( 2, ( long ) ( numberOfAliases / LOAD_FACTOR ) ) ) << 1;
+        if( tableSize > MAX_TABLE_SIZE ) throw new IllegalArgumentException( "Too many aliases for a mapped hash: " + numberOfAliases + " need a table of " + tableSize + " slots (at most " + MAX_TABLE_SIZE + ")" );
+        long[] fingerprints = null;
+        long[] indices = null;
+        long seed = 0;
+        int maxAliasLength = 0; //recomputed from the aliases, so that hashes serialized without it get it too
+        ProgressLogger pl = new ProgressLogger( LOGGER );
+        pl.itemsName = "aliases";
+        boolean collision = true;
+        while( collision ) { //a full 64-bit fingerprint collision is unlikely, but we just retry with another seed
+            collision = false;
+            fingerprints = new long[ ( int ) tableSize ];
+            indices = new long[ ( int ) tableSize ];
+            final boolean[] seen = new boolean[ ( int ) numberOfAliases ];
+            long found = 0;
+            pl.start( "Building alias table with seed " + seed );
+            for( CharSequence alias : aliases ) {
+                pl.lightUpdate();
+                final long index = hash.hash.getLong( alias );
+                if( index == -1 || seen[ ( int ) index ] ) continue;
+                seen[ ( int ) index ] = true;
+                found++;
+                maxAliasLength = Math.max( maxAliasLength, tokens( alias ) );
+                final long fp = fingerprint( alias, seed );
+                int slot = ( int ) ( fp & ( tableSize - 1 ) );
+                while( fingerprints[ slot ] != 0 && fingerprints[ slot ] != fp ) slot = ( int ) ( ( slot + 1 ) & ( tableSize - 1 ) );
+                if( fingerprints[ slot ] == fp ) {
+                    LOGGER.warn( "Fingerprint collision for alias " + alias + ", retrying" );
+                    collision = true;
+                    seed++;
+                    break;
+                }
+                fingerprints[ slot ] = fp;
+                indices[ slot ] = index;
+            }
+            pl.done();
+            if( !collision && found != numberOfAliases ) LOGGER.warn( "Only " + found + " out of " + numberOfAliases + " aliases were found in the input; the rest won't be retrievable" );
+        }
+
+        final DataOutputStream dos = new DataOutputStream( new FastBufferedOutputStream( new FileOutputStream( file ) ) );
+        final long[] pointers = new long[ ( int ) numberOfAliases + 1 ];
+        final long[] boundPointers = new long[ ( int ) numberOfAliases + 1 ];
+        for( int i = 0; i < numberOfAliases; i++ ) {
+            final int candidates = hash.candidatesInfo( i ).entities.length;
+            pointers[ i + 1 ] = pointers[ i ] + PER_CANDIDATE_FEATURES + PER_ENTITY_CANDIDATE_FEATURES * candidates;
+            boundPointers[ i + 1 ] = boundPointers[ i ] + CandidateBounds.FEATURES * CandidatesView.checkpoints( candidates );
+        }
+        final long numberOfValues = pointers[ ( int ) numberOfAliases ];
+        final byte[][] names = new byte[ numberOfEntities ][];
+        long numberOfNameBytes = 0;
+        for( int i = 0; i < numberOfEntities; i++ ) {
+            names[ i ] = hash.getEntityName( i ).toString().getBytes( StandardCharsets.UTF_8 );
+            numberOfNameBytes += names[ i ].length;
+        }
+
+        dos.writeLong( MAGIC );
+        dos.writeLong( VERSION );
+        dos.writeLong( numberOfAliases );
+        dos.writeLong( numberOfEntities );
+        dos.writeLong( tableSize );
+        dos.writeLong( seed );
+        dos.writeLong( numberOfValues );
+        dos.writeLong( numberOfNameBytes );
+        final CountAndRecordStats s = hash.stats;
+        dos.writeLong( s != null ? 1 : 0 );
+        final long[] stats = s != null ? new long[]{ s.entities, s.phrases, s.entityPhrasePairs, s.SQAF, s.SQAT, s.SQAC, s.SLAF, s.SLAT, s.SQEF, s.SQAEF, s.SMET, s.SMAET, s.SLET, s.SLAET } : new long[ 14 ];
+        for( long x : stats ) dos.writeLong( x );
+        dos.writeLong( maxAliasLength );
+        final AliasPrefixFilter prefixes = AliasPrefixFilter.create( aliases, AliasPrefixFilter.FPP );
+        dos.writeLong( prefixes.numBits );
+        dos.writeLong( prefixes.hashes );
+        dos.writeLong( boundPointers[ ( int ) numberOfAliases ] );
+        final EntityPriors priors = hash.priors;
+        dos.writeLong( priors != null ? Double.doubleToLongBits( priors.step ) : 0 );
+        dos.writeLong( priors != null ? Double.doubleToLongBits( priors.muQuery ) : 0 );
+        dos.writeLong( priors != null ? Double.doubleToLongBits( priors.muAnchor ) : 0 );
+
+        for( int i = 0; i < tableSize; i++ ) {
+            dos.writeLong( fingerprints[ i ] );
+            dos.writeLong( indices[ i ] );
+        }
+        fingerprints = indices = null;
+
+        for( long p : pointers ) dos.writeLong( p );
+
+        pl.start( "Writing features" );
+        for( long i = 0; i < numberOfAliases; i++ ) {
+            pl.lightUpdate();
+            final CandidatesInfo ci = hash.candidatesInfo( i );
+            dos.writeInt( ( int ) ci.QAF );
+            dos.writeInt( ( int ) ci.QAT );
+            dos.writeInt( ( int ) ci.QAC );
+            dos.writeInt( ( int ) ci.LAF );
+            dos.writeInt( ( int ) ci.LAT );
+            for( Entity e : ci.entities ) {
+                dos.writeInt( e.id );
+                dos.writeInt( ( int ) e.LAET );
+                dos.writeInt( ( int ) e.QAEF );
+            }
+        }
+        pl.done();
+        if( numberOfValues % 2 != 0 ) dos.writeInt( 0 );
+
+        for( int i = 0; i < numberOfEntities; i++ ) {
+            final Entity e = hash.getEntity( i );
+            dos.writeInt( ( int ) e.QEF );
+            dos.writeInt( ( int ) e.LET );
+            dos.writeInt( e.type );
+        }
+        if( ( ( long ) numberOfEntities * PER_ENTITY_FEATURES ) % 2 != 0 ) dos.writeInt( 0 );
+
+        long nameOffset = 0;
+        dos.writeLong( nameOffset );
+        for( byte[] name : names ) {
+            nameOffset += name.length;
+            dos.writeLong( nameOffset );
+        }
+        for( byte[] name : names ) dos.write( name );
+        for( long i = numberOfNameBytes; i % 8 != 0; i++ ) dos.write( 0 );
+        for( long word : prefixes.bits ) dos.writeLong( word );
+
+        for( long p : boundPointers ) dos.writeLong( p );
+        pl.start( "Writing candidate bounds" );
+        for( long i = 0; i < numberOfAliases; i++ ) {
+            pl.lightUpdate();
+            for( int b : CandidateBounds.of( hash.candidatesInfo( i ).entities ) ) dos.writeInt( b );
+        }
+        pl.done();
+        if( priors != null ) {
+            if( boundPointers[ ( int ) numberOfAliases ] % 2 != 0 ) dos.writeInt( 0 );
+            pl.start( "Writing candidate priors" );
+            for( long i = 0; i < numberOfAliases; i++ ) {
+                pl.lightUpdate();
+                for( long q : priors.quantized( i ) ) dos.writeInt( ( int ) q );
+            }
+            pl.done();
+        }
+        dos.close();
+    }
+
+    /**
+     * Checks that the mapped hash returns the same candidates as the serialized one for every alias, and that every
+     * alias and its prefixes are in its prefix filter
+     *
+     * @param hash original hash
+     * @param mapped mapped hash
+     * @param aliases aliases to check
+     * @return true if every alias returns the same features
+     */
+    private static boolean check( QuasiSuccinctEntityHash hash, MappedEntityHash mapped, Iterable<? extends CharSequence> aliases ) {
+        for( CharSequence alias : aliases ) {
+            final CandidatesInfo original = hash.getCandidatesInfo( alias.toString() );
+            final CandidatesInfo converted = mapped.getCandidatesInfo( alias.toString() );
+            if( original == null ) continue;
+            final String s = alias.toString();
+            for( int i = s.indexOf( ' ' ); i != -1; i = s.indexOf( ' ', i + 1 ) ) {
+                if( !mapped.isAliasPrefix( s.substring( 0, i ) ) || !mapped.isAliasPrefix( NGramHash.of( s.substring( 0, i ) ) ) ) {
+                    LOGGER.error( "Prefix " + s.substring( 0, i ) + " of alias " + alias + " is not in the prefix filter" );
+                    return false;
+                }
+            }
+            if( !mapped.mayBeAlias( NGramHash.of( s ) ) ) {
+                LOGGER.error( "Alias " + alias + " is not in the prefix filter" );
+                return false;
+            }
+            if( converted == null || !original.toString().equals( converted.toString() ) ) {
+                LOGGER.error( "Mismatch for alias " + alias + ":\n" + original + "\n" + converted );
+                return false;
+            }
+            for( Entity e : original.entities ) {
+                if( !hash.getEntityName( e.id ).toString().equals( mapped.getEntityName( e.id ).toString() ) ) {
+                    LOGGER.error( "Mismatch for the name of entity " + e.id );
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a serialized {@link QuasiSuccinctEntityHash} into the mapped format
+     *
+     * @param args command line args; see -help
+     * @throws Exception
+     */
+    public static void main( String[] args ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( MappedEntityHash.class.getName(), "Converts a serialized hash into a memory-mapped hash", new Parameter[]{
+                new FlaggedOption( "hash", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'h', "hash", "Serialized quasi succint hash" ),
+                new FlaggedOption( "input", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'i', "input", "Datapack file the hash was built from (for the aliases)" ),
+                new FlaggedOption( "output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "output", "Mapped hash file" ), }
+        );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+        final Iterable<StringAndCandidate> stringAndCandidates = FormatReader.stringAndCandidates( jsapResult.getString( "input" ), 0, 0 );
+        final Iterable<CharSequence> aliases = new Iterable<CharSequence>() {
+            @Override
+            public Iterator<CharSequence> iterator() {
+                final Iterator<StringAndCandidate> i = stringAndCandidates.iterator();
+                return new AbstractObjectIterator<CharSequence>() {
+                    @Override
+                    public boolean hasNext() {
+                        return i.hasNext();
+                    }
+
+                    @Override
+                    public CharSequence next() {
+                        return i.next().surfaceForm;
+                    }
+                };
+            }
+        };
+        final QuasiSuccinctEntityHash hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( jsapResult.getString( "hash" ) );
+        store( hash, aliases, jsapResult.getString( "output" ) );
+        LOGGER.info( "Checking the mapped hash" );
+        if( !check( hash, map( jsapResult.getString( "output" ) ), aliases ) ) System.exit( 1 );
+        LOGGER.info( "...  done" );
+    }
+}
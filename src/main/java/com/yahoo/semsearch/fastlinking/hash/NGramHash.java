@@ -0,0 +1,55 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.hash;
+
+/**
+ * 64-bit hashes of token sequences. Every token of a query is hashed once, and the hash of an n-gram is derived from
+ * the hash of the (n-1)-gram it extends and the hash of its last token in constant time, so probing all the n-grams
+ * of a query hashes every character once instead of once per n-gram it belongs to. The hash of an alias is the same
+ * as the hash of the n-gram with the same tokens, which is what {@link AliasPrefixFilter} stores.
+ */
+public final class NGramHash {
+    /** Hash of the empty sequence, which every n-gram extends */
+    public static final long EMPTY = 0x2545F4914F6CDD1DL;
+    private static final long TOKEN_SEED = 0x1B873593L;
+
+    private NGramHash() {}
+
+    /**
+     * @param token token
+     * @return hash of the token, to be combined with {@link #extend(long, long)}
+     */
+    public static long token( CharSequence token ) {
+        return MappedEntityHash.fingerprint( token, TOKEN_SEED );
+    }
+
+    /**
+     * Hash of an n-gram followed by one more token
+     *
+     * @param ngram hash of the n-gram ({@link #EMPTY} for the first token)
+     * @param token hash of the token
+     * @return hash of the (n+1)-gram
+     */
+    public static long extend( long ngram, long token ) {
+        long h = ngram * 0x9E3779B97F4A7C15L + token;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param ngram space-separated tokens
+     * @return hash of the n-gram, the same as extending {@link #EMPTY} with each of its tokens
+     */
+    public static long of( CharSequence ngram ) {
+        final String s = ngram.toString();
+        long h = EMPTY;
+        int start = 0;
+        for( int i = s.indexOf( ' ' ); i != -1; start = i + 1, i = s.indexOf( ' ', start ) ) h = extend( h, token( s.substring( start, i ) ) );
+        return extend( h, token( s.substring( start ) ) );
+    }
+}
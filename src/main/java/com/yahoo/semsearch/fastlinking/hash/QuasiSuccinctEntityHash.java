@@ -6,6 +6,8 @@
 package com.yahoo.semsearch.fastlinking.hash;
 
 import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntBigArrayBigList;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
@@ -41,7 +43,9 @@ import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Parameter;
 import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
 import com.yahoo.semsearch.fastlinking.view.CandidatesInfo;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
 import com.yahoo.semsearch.fastlinking.view.Entity;
 import com.yahoo.semsearch.fastlinking.view.StringAndCandidate;
 
@@ -52,17 +56,32 @@ import com.yahoo.semsearch.fastlinking.view.StringAndCandidate;
  */
 public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Serializable {
     private final static Logger LOGGER = LoggerFactory.getLogger( QuasiSuccinctEntityHash.class );
-    private final static int PER_CANDIDATE_FEATURES = 5; //QAF, QAT, QAC, LAF, LAT (ignoring MAF, MAT)
-    private final static int PER_ENTITY_CANDIDATE_FEATURES = 3; //id, LAET, QAEF, (MAET)
-    private final static int PER_ENTITY_FEATURES = 3; // QEF, LET, type, (MET)
+    final static int PER_CANDIDATE_FEATURES = 5; //QAF, QAT, QAC, LAF, LAT (ignoring MAF, MAT)
+    final static int PER_ENTITY_CANDIDATE_FEATURES = 3; //id, LAET, QAEF, (MAET)
+    final static int PER_ENTITY_FEATURES = 3; // QEF, LET, type, (MET)
 
     public final static int ALIASESPERBATCH = 10000000; //we use a number of different longbiglists to avoid overflowing
     private static final long serialVersionUID = 1L;
+    /** scratch space of the single-alias lookups, which hold on to it only while decoding */
+    private static final ThreadLocal<LookupBuffer> LOOKUP_BUFFERS = new ThreadLocal<LookupBuffer>() {
+        @Override
+        protected LookupBuffer initialValue() {
+            return new LookupBuffer();
+        }
+    };
     public EliasFanoMonotoneLongBigList pointers[];
     public EliasFanoLongBigList values[];
     public final EliasFanoLongBigList entityValues;
     public final FrontCodedStringList entityNames;
     public CountAndRecordStats stats;
+    /** Number of tokens of the longest alias, recorded at build time (0 for hashes built before it was recorded) */
+    public int maxAliasLength;
+    /** Aliases and their proper token prefixes, built with the hash (null for hashes built before it was recorded) */
+    public AliasPrefixFilter prefixes;
+    /** Upper bounds of the candidate features of every alias, whose candidates are sorted by decreasing prior (null for hashes built before they were recorded) */
+    public CandidateBounds bounds;
+    /** Quantized context-free log-priors of every candidate (null unless the hash was built with them) */
+    public EntityPriors priors;
 
     public QuasiSuccinctEntityHash( Object2LongFunction<? extends CharSequence> hash, EliasFanoMonotoneLongBigList[] pointers, EliasFanoLongBigList[] values, EliasFanoLongBigList entityValues, FrontCodedStringList
             frontCodedStringList ) {
@@ -73,10 +92,71 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
         this.entityNames = frontCodedStringList;
     }
 
+    /**
+     * Loads a hash from disk. Files written by {@link MappedEntityHash} are memory-mapped, everything else is
+     * deserialized onto the heap.
+     *
+     * @param file hash file
+     * @return the loaded hash
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public static QuasiSuccinctEntityHash load( String file ) throws IOException, ClassNotFoundException {
+        if( MappedEntityHash.isMapped( file ) ) return MappedEntityHash.map( file );
+        return ( QuasiSuccinctEntityHash ) BinIO.loadObject( file );
+    }
+
+    /**
+     * @return number of entities stored in the hash
+     */
+    public int numberOfEntities() {
+        return entityNames.size();
+    }
+
+    @Override
+    public int maxAliasLength() {
+        return maxAliasLength > 0 ? maxAliasLength : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isAliasPrefix( CharSequence ngram ) {
+        return prefixes == null || prefixes.isPrefix( ngram );
+    }
+
+    @Override
+    public boolean isAliasPrefix( long ngram ) {
+        return prefixes == null || prefixes.isPrefix( ngram );
+    }
+
+    @Override
+    public boolean mayBeAlias( long ngram ) {
+        return prefixes == null || prefixes.mayBeAlias( ngram );
+    }
+
+    /**
+     * Number of space-separated tokens of an alias
+     *
+     * @param alias alias
+     * @return number of tokens
+     */
+    static int tokens( CharSequence alias ) {
+        int n = 1;
+        for( int i = 0; i < alias.length(); i++ ) if( alias.charAt( i ) == ' ' ) n++;
+        return n;
+    }
+
     /**
      * returns the candidates with their features for a given surface form
      */
     public CandidatesInfo getCandidatesInfo( String surfaceForm ) {
+        return getCandidatesInfo( ( CharSequence ) surfaceForm );
+    }
+
+    /**
+     * The alias function hashes the characters in place, so the surface form is not copied
+     */
+    @Override
+    public CandidatesInfo getCandidatesInfo( CharSequence surfaceForm ) {
         final long id = hash.getLong( surfaceForm );
         return id != -1 ? candidatesInfo( id ) : null;
     }
@@ -100,16 +180,115 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
 
 
     /**
-     * returns the features in a CandidatesInfo class that belong to a particular index
+     * Resolves the alias index of a batch of surface forms, and sorts the batch by index (which is the order the
+     * aliases are laid out in the compressed lists) into buffer.order
+     *
+     * @param surfaceForms surface forms to resolve
+     * @param n number of surface forms
+     * @param buffer buffer that gets the indexes and the order
+     */
+    private void resolve( final CharSequence[] surfaceForms, final int n, final LookupBuffer buffer ) {
+        buffer.ensureBatchCapacity( n );
+        final long[] ids = buffer.ids;
+        final int[] order = buffer.order;
+        for( int i = 0; i < n; i++ ) {
+            ids[ i ] = hash.getLong( surfaceForms[ i ] );
+            order[ i ] = i;
+        }
+        IntArrays.quickSort( order, 0, n, new AbstractIntComparator() {
+            @Override
+            public int compare( int a, int b ) {
+                return Long.compare( ids[ a ], ids[ b ] );
+            }
+        } );
+    }
+
+    /**
+     * Resolves a batch of surface forms. The aliases are decoded in increasing index order, and all the decoding
+     * scratch space comes from the buffer.
+     */
+    @Override
+    public void getCandidatesInfo( final CharSequence[] surfaceForms, final int n, final CandidatesInfo[] results, final LookupBuffer buffer ) {
+        resolve( surfaceForms, n, buffer );
+        final long[] ids = buffer.ids;
+        final int[] order = buffer.order;
+        for( int i = 0; i < n; i++ ) {
+            final int k = order[ i ];
+            if( ids[ k ] == -1 ) results[ k ] = null;
+            else if( i > 0 && ids[ k ] == ids[ order[ i - 1 ] ] ) results[ k ] = results[ order[ i - 1 ] ];
+            else results[ k ] = candidatesInfo( ids[ k ], buffer );
+        }
+    }
+
+    /**
+     * Resolves a batch of surface forms, decoding the candidates straight into the view in increasing index order
+     */
+    @Override
+    public void getCandidates( final CharSequence[] surfaceForms, final int n, final CandidatesView view, final LookupBuffer buffer ) {
+        resolve( surfaceForms, n, buffer );
+        final long[] ids = buffer.ids;
+        final int[] order = buffer.order;
+        view.clear( n );
+        for( int i = 0; i < n; i++ ) {
+            final int k = order[ i ];
+            if( ids[ k ] == -1 ) continue;
+            if( i > 0 && ids[ k ] == ids[ order[ i - 1 ] ] ) view.copyAlias( k, order[ i - 1 ] );
+            else candidates( ids[ k ], buffer, view, k );
+        }
+    }
+
+    /**
+     * Decodes the features of the alias with a given index into a view
+     *
+     * @param index where in the compressed stream we have to look up the info
+     * @param buffer scratch space for decoding
+     * @param view view to add the candidates to
+     * @param k position of the alias in the view
+     */
+    protected void candidates( long index, LookupBuffer buffer, CandidatesView view, int k ) {
+        final int batch = ( int ) ( index / ALIASESPERBATCH );
+        final long startEnd[] = pointers[ batch ].get( index % ALIASESPERBATCH, buffer.startEnd );
+        final int length = ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] );
+        final int numEntities = ( length - PER_CANDIDATE_FEATURES ) / PER_ENTITY_CANDIDATE_FEATURES;
+        long t[] = values[ batch ].get( startEnd[ 0 ], buffer.values( length ), 0, length );
+        long u[] = buffer.entityFeatures;
+        view.startAlias( k, ( int ) t[ 0 ], ( int ) t[ 1 ], ( int ) t[ 2 ], ( int ) t[ 3 ], ( int ) t[ 4 ] );
+        for( int i = 0; i < numEntities; i++ ) {
+            final int id = ( int ) t[ PER_CANDIDATE_FEATURES + i * PER_ENTITY_CANDIDATE_FEATURES ];
+            entityValues.get( id * PER_ENTITY_FEATURES, u );
+            view.addCandidate( k, id, ( int ) t[ PER_CANDIDATE_FEATURES + 1 + i * PER_ENTITY_CANDIDATE_FEATURES ], ( int ) t[ PER_CANDIDATE_FEATURES + 2 + i * PER_ENTITY_CANDIDATE_FEATURES ],
+                    ( int ) u[ 0 ], ( int ) u[ 1 ], ( short ) u[ 2 ] );
+        }
+        if( bounds != null ) bounds.get( index, buffer, view, k );
+        if( priors != null ) priors.get( index, buffer, view, k );
+    }
+
+    /**
+     * returns the features in a CandidatesInfo class that belong to a particular index, decoding them into the
+     * scratch space of the calling thread
      *
      * @param index where in the compressed stream we have to look up the info
      * @return candidates info object for the specified index
      */
     protected CandidatesInfo candidatesInfo( long index ) {
-        final long startEnd[] = pointers[ ( int ) ( index / ALIASESPERBATCH ) ].get( index % ALIASESPERBATCH, new long[ 2 ] );
-        final int numEntities = ( int ) ( ( startEnd[ 1 ] - startEnd[ 0 ] - PER_CANDIDATE_FEATURES ) / PER_ENTITY_CANDIDATE_FEATURES );
-        long t[] = values[ ( int ) ( index / ALIASESPERBATCH ) ].get( startEnd[ 0 ], new long[ ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] ) ] );
-        long u[] = new long[ PER_ENTITY_FEATURES ];
+        return candidatesInfo( index, LOOKUP_BUFFERS.get() );
+    }
+
+    /**
+     * returns the features in a CandidatesInfo class that belong to a particular index, decoding them into the
+     * scratch space of a buffer
+     *
+     * @param index where in the compressed stream we have to look up the info
+     * @param buffer scratch space for decoding
+     * @return candidates info object for the specified index
+     */
+    protected CandidatesInfo candidatesInfo( long index, LookupBuffer buffer ) {
+        final int batch = ( int ) ( index / ALIASESPERBATCH );
+        final long startEnd[] = pointers[ batch ].get( index % ALIASESPERBATCH, buffer.startEnd );
+        final int length = ( int ) ( startEnd[ 1 ] - startEnd[ 0 ] );
+        final int numEntities = ( length - PER_CANDIDATE_FEATURES ) / PER_ENTITY_CANDIDATE_FEATURES;
+        long t[] = values[ batch ].get( startEnd[ 0 ], buffer.values( length ), 0, length );
+        long u[] = buffer.entityFeatures;
         Entity[] e = new Entity[ numEntities ];
         for( int i = 0; i < numEntities; i++ ) {
             e[ i ] = new Entity();
@@ -128,7 +307,9 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
     /**
      * Creates a QuasiSuccinctEntityHash from a datapack file. This class will compress everything: strings using
      * minimal perfect hash functions, entity identifiers, and all the entity features, provided tha
-     * that every feature is an integer.
+     * that every feature is an integer. The candidates of every alias are stored sorted by decreasing prior, along with
+     * upper bounds of their features (see {@link CandidateBounds}). Optionally (-p), the hash also stores the quantized
+     * log-priors of the candidates for the given smoothing (see {@link EntityPriors}).
      *
      * @param args command line args; see -help
      * @throws Exception
@@ -139,6 +320,9 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
                 new FlaggedOption( "entity2id", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'e', "entities", "TAB-separated entity names and corresponding ids" ),
                 new FlaggedOption( "wikiThreshold", JSAP.INTEGER_PARSER, "0", JSAP.NOT_REQUIRED, 'w', "wikiThreshold", "Minimum number of anchors to store a candidate" ),
                 new FlaggedOption( "queryThreshold", JSAP.INTEGER_PARSER, "0", JSAP.NOT_REQUIRED, 'q', "queryThreshold", "Minimum number of clicks to store a candidate" ),
+                new Switch( "priors", 'p', "priors", "Precompute and store the quantized log-priors of the candidates" ),
+                new FlaggedOption( "priorMu", JSAP.DOUBLE_PARSER, "20", JSAP.NOT_REQUIRED, 'm', "priorMu", "Smoothing of the query and anchor probabilities of the priors" ),
+                new FlaggedOption( "priorStep", JSAP.DOUBLE_PARSER, "0.0009765625", JSAP.NOT_REQUIRED, 's', "priorStep", "Quantization step of the log-priors" ),
                 new FlaggedOption( "output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "output", "Compressed version" ), }
         );
         JSAPResult jsapResult = jsap.parse( args );
@@ -201,8 +385,13 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
         ProgressLogger pl = new ProgressLogger( LOGGER );
         pl.itemsName = "aliases";
         int numberOfCandidates = 0;
+        int maxAliasLength = 0;
+        final LongArrayList boundPointers = new LongArrayList();
+        final IntBigArrayBigList boundValues = new IntBigArrayBigList();
+        boundPointers.add( 0 );
         for( StringAndCandidate sc : stringAndCandidates ) {
             pl.lightUpdate();
+            maxAliasLength = Math.max( maxAliasLength, tokens( sc.surfaceForm ) );
             if( numberOfCandidates++ > ALIASESPERBATCH - 1 ) {
                 numberOfCandidates = 1;
                 batchNumber++;
@@ -219,6 +408,9 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
             }
 
             CandidatesInfo ci = sc.candidatesInfo;
+            CandidateBounds.sort( ci.entities );
+            for( int b : CandidateBounds.of( ci.entities ) ) boundValues.add( b );
+            boundPointers.add( boundValues.size64() );
             values.writeInt( ( int ) ci.QAF );
             values.writeInt( ( int ) ci.QAT );
             values.writeInt( ( int ) ci.QAC );
@@ -287,6 +479,16 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
                 true ) );
         LOGGER.info( "Creating stats" );
         quasiSuccinctEntityHash.stats = CountAndRecordStats.createStats( quasiSuccinctEntityHash );
+        quasiSuccinctEntityHash.maxAliasLength = maxAliasLength;
+        LOGGER.info( "Longest alias has " + maxAliasLength + " tokens" );
+        LOGGER.info( "Creating the alias filter" );
+        quasiSuccinctEntityHash.prefixes = AliasPrefixFilter.create( surfaceForms, AliasPrefixFilter.FPP );
+        quasiSuccinctEntityHash.bounds = new CandidateBounds( boundPointers, boundValues );
+        LOGGER.info( "Stored " + boundValues.size64() / CandidateBounds.FEATURES + " candidate bounds" );
+        if( jsapResult.getBoolean( "priors" ) ) {
+            final double mu = jsapResult.getDouble( "priorMu" );
+            quasiSuccinctEntityHash.priors = EntityPriors.create( quasiSuccinctEntityHash, mu, mu, jsapResult.getDouble( "priorStep" ) );
+        }
         BinIO.storeObject( quasiSuccinctEntityHash, jsapResult.getString( "output" ) );
         LOGGER.info( "...  done" );
         assert checkMap( jsapResult, stringAndCandidates );
@@ -308,6 +510,7 @@ public class QuasiSuccinctEntityHash extends AbstractEntityHash implements Seria
         int i = 0;
         for( StringAndCandidate sc : stringAndCandidates ) {
             final CandidatesInfo original = sc.candidatesInfo;
+            CandidateBounds.sort( original.entities );
             final CandidatesInfo compressed = hashCompressor.candidatesInfo( i );
             assert original.QAF == compressed.QAF;
             assert original.QAT == compressed.QAT;
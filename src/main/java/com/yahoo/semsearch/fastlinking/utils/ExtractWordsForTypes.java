@@ -6,10 +6,8 @@
 package com.yahoo.semsearch.fastlinking.utils;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 
 import java.io.FileWriter;
@@ -60,7 +58,7 @@ public class ExtractWordsForTypes {
 
         ProgressLogger pl = new ProgressLogger( LOGGER );
 
-        QuasiSuccinctEntityHash hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( jsapResult.getString( "hash" ) );
+        QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( jsapResult.getString( "hash" ) );
         numberOfPhrases = ( int ) hash.stats.phrases;
 
 
@@ -79,9 +77,9 @@ public class ExtractWordsForTypes {
 
         }
 
-        for( int i = 0; i < hash.entityNames.size(); i++ ) {
-            MutableString name = hash.entityNames.get( i );
-            if( !name.isEmpty() ) {
+        for( int i = 0; i < hash.numberOfEntities(); i++ ) {
+            CharSequence name = hash.getEntityName( i );
+            if( name.length() > 0 ) {
                 String newType = id2Type.get( name.toString() );
                 if( newType != null ) {
                     entityTypes.put( i, newType );
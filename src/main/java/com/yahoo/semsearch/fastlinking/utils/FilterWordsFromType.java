@@ -7,8 +7,6 @@ package com.yahoo.semsearch.fastlinking.utils;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -29,6 +27,8 @@ import com.martiansoftware.jsap.SimpleJSAP;
  *
  */
 public class FilterWordsFromType {
+    /** number of most frequent words printed per type */
+    private static final int MAX_WORDS = 5000;
       
     /**
      * Reads a file that contains words for different types and filter those that  
@@ -62,38 +62,31 @@ public class FilterWordsFromType {
 			String typeID = typeMap.get( Integer.parseInt( parts[ 0 ] ) ).trim();
 
 			final int l = parts.length - 1;
-			Integer[] idx = new Integer[ l ];
+			final int k = Math.min( l, MAX_WORDS );
+			final int[] idx = new int[ k ];
+			final double[] fFreq = new double[ k ];
 			String[] wordsArray = new String[ l ];
-			int[] freqs = new int[ l ];
+			int size = 0;
 			for( int i = 1; i < parts.length; i++ ) {
 				String[] words = parts[ i ].split( "\u0001" );
 				int freq = Integer.parseInt( words[ 1 ] );
-				idx[ i - 1 ] = i - 1;
-				freqs[ i - 1 ] = freq;
+				size = TopK.add( idx, fFreq, size, i - 1, freq );
 				wordsArray[ i - 1 ] = words[ 0 ];
 			}
-
-			final int[] fFreq = freqs;
-			Arrays.sort( idx, new Comparator<Integer>() {
-				public int compare( Integer i1, Integer i2 ) {
-					return -Integer.compare( fFreq[ i1 ], fFreq[ i2 ] );
-				}
-			} );
+			TopK.sort( idx, fFreq, size );
 
 			int index = 0;
 			System.out.print( typeID + "\t" );
-			for( int i = 0; i < 5000; i++ ) {
-				if( i == l ) break;
+			for( int i = 0; i < k; i++ ) {
 				if( wordsArray[ idx[ i ] ].contains( "_" ) ) {
 					index = i;
 					break;
 				}
-				System.out.print( wordsArray[ idx[ i ] ] + "\t" + fFreq[ idx[ i ] ] + "\t" );
+				System.out.print( wordsArray[ idx[ i ] ] + "\t" + ( int ) fFreq[ i ] + "\t" );
 			}
 
-			for( int i = index; i < 5000; i++ ) {
-				if( i == l ) break;
-				System.out.print( wordsArray[ idx[ i ] ] + "\t" + fFreq[ idx[ i ] ] + "\t" );
+			for( int i = index; i < k; i++ ) {
+				System.out.print( wordsArray[ idx[ i ] ] + "\t" + ( int ) fFreq[ i ] + "\t" );
 			}
 			System.out.println();
 		}
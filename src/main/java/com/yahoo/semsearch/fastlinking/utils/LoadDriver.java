@@ -0,0 +1,373 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.utils;
+
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.HdrHistogram.Histogram;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.yahoo.semsearch.fastlinking.CoherentEntityLinker;
+import com.yahoo.semsearch.fastlinking.CoherentEntityLinkerWrapper;
+import com.yahoo.semsearch.fastlinking.EntityContextFastEntityLinker;
+import com.yahoo.semsearch.fastlinking.FastEntityLinker;
+import com.yahoo.semsearch.fastlinking.entityranker.ProbabilityRanker;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
+
+/**
+ * Replays a query log against a linker from a number of threads and reports latency percentiles, throughput,
+ * allocation rate and GC pauses. Queries are taken in log order (cycling over the log) by all the threads.
+ * <p/>
+ * Without a rate (-r 0) every thread sends its next query as soon as the previous one returns (maximum throughput).
+ * With a rate, queries are scheduled open-loop at fixed intervals and the latency of a query is measured from the
+ * time it should have been sent, so a stall is charged to all the queries queued behind it (no coordinated omission).
+ * <p/>
+ * Every run (one per thread count in -t) is written as one JSON object per line, so that runs can be compared.
+ * java com.yahoo.semsearch.fastlinking.utils.LoadDriver -h hash -q queries -t 1,2,4,8 [-l context -v words -e entities] [-r 2000]
+ */
+public class LoadDriver {
+
+    /**
+     * A linker being driven. Implementations must be thread-safe
+     */
+    interface Linker {
+        /**
+         * @param line line of the query log
+         * @return number of results (consumed so that the work is not optimized away)
+         */
+        int link( String line );
+    }
+
+    /**
+     * Results of one run
+     */
+    static class Run {
+        final Histogram latencies = new Histogram( 3 );
+        final Histogram gcPauses = new Histogram( 3 );
+        long queries;
+        long errors;
+        long results;
+        long allocatedBytes;
+        long gcCount;
+        long gcMillis;
+        double seconds;
+        double elapsedSeconds;
+    }
+
+    private final Linker linker;
+    private final String[] queries;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param linker linker to drive
+     * @param queries query log
+     */
+    public LoadDriver( Linker linker, String[] queries ) {
+        this.linker = linker;
+        this.queries = queries;
+    }
+
+    /**
+     * Runs the query log with a number of threads, first for a warm-up period (not measured) and then for the
+     * measured period
+     *
+     * @param threads number of threads
+     * @param rate    total number of queries per second, or 0 for maximum throughput
+     * @param warmup  warm-up seconds
+     * @param seconds measured seconds
+     * @return the results of the run
+     * @throws InterruptedException
+     */
+    public Run run( final int threads, final double rate, final double warmup, final double seconds ) throws InterruptedException {
+        final Run run = new Run();
+        final long intervalNanos = rate > 0 ? ( long ) ( 1e9 * threads / rate ) : 0; //between two queries of a thread
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( 100 );
+        final long measureFrom = start + ( long ) ( warmup * 1e9 );
+        final long measureTo = measureFrom + ( long ) ( seconds * 1e9 );
+        final Histogram[] histograms = new Histogram[ threads ];
+        final long[] counts = new long[ threads ];
+        final long[] results = new long[ threads ];
+        final long[] allocated = new long[ threads ];
+        final long[] lastEnd = new long[ threads ];
+        final CountDownLatch done = new CountDownLatch( threads );
+        final com.sun.management.ThreadMXBean threadBean = allocationBean();
+        errors.set( 0 );
+
+        final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        final NotificationListener gcListener = new NotificationListener() {
+            @Override
+            public void handleNotification( Notification notification, Object handback ) {
+                if( !notification.getType().equals( GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION ) ) return;
+                final long now = System.nanoTime();
+                if( now < measureFrom || now > measureTo ) return;
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from( ( CompositeData ) notification.getUserData() );
+                synchronized( run.gcPauses ) {
+                    run.gcPauses.recordValue( Math.max( 0, info.getGcInfo().getDuration() ) );
+                }
+            }
+        };
+        for( GarbageCollectorMXBean gc : collectors ) ( ( NotificationEmitter ) gc ).addNotificationListener( gcListener, null, null );
+
+        for( int t = 0; t < threads; t++ ) {
+            final int thread = t;
+            histograms[ t ] = new Histogram( 3 );
+            new Thread( "load-driver-" + t ) {
+                @Override
+                public void run() {
+                    final long id = Thread.currentThread().getId();
+                    long intended = start + thread * intervalNanos / threads; //spread the threads over the interval
+                    boolean measuring = false;
+                    try {
+                        for( ; ; ) {
+                            if( intervalNanos > 0 ) {
+                                long wait;
+                                while( ( wait = intended - System.nanoTime() ) > 0 ) {
+                                    if( wait > 100000 ) TimeUnit.NANOSECONDS.sleep( wait - 50000 );
+                                }
+                            }
+                            final long begin = intervalNanos > 0 ? intended : System.nanoTime();
+                            if( begin >= measureTo ) break;
+                            if( !measuring && begin >= measureFrom ) {
+                                measuring = true;
+                                if( threadBean != null ) allocated[ thread ] = -threadBean.getThreadAllocatedBytes( id );
+                            }
+                            final String q = queries[ ( int ) ( cursor.getAndIncrement() % queries.length ) ];
+                            int n = 0;
+                            try {
+                                n = linker.link( q );
+                            } catch( RuntimeException e ) {
+                                if( errors.getAndIncrement() == 0 ) e.printStackTrace();
+                            }
+                            final long end = System.nanoTime();
+                            if( measuring ) {
+                                histograms[ thread ].recordValue( end - begin );
+                                counts[ thread ]++;
+                                results[ thread ] += n;
+                                lastEnd[ thread ] = end;
+                            }
+                            intended += intervalNanos;
+                        }
+                        if( threadBean != null && measuring ) allocated[ thread ] += threadBean.getThreadAllocatedBytes( id );
+                    } catch( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long toMeasure = measureFrom - System.nanoTime(); //the counters include the warm-up until then
+        if( toMeasure > 0 ) TimeUnit.NANOSECONDS.sleep( toMeasure );
+        final long[] gcBefore = gcCounters( collectors );
+        final long errorsBefore = errors.get();
+        done.await();
+        final long[] gcAfter = gcCounters( collectors );
+        for( GarbageCollectorMXBean gc : collectors ) {
+            try {
+                ( ( NotificationEmitter ) gc ).removeNotificationListener( gcListener );
+            } catch( javax.management.ListenerNotFoundException e ) {
+                //already removed
+            }
+        }
+
+        for( int t = 0; t < threads; t++ ) {
+            run.latencies.add( histograms[ t ] );
+            run.queries += counts[ t ];
+            run.results += results[ t ];
+            run.allocatedBytes += allocated[ t ];
+        }
+        run.errors = errors.get() - errorsBefore;
+        run.seconds = seconds;
+        long last = measureFrom;
+        for( long end : lastEnd ) last = Math.max( last, end );
+        run.elapsedSeconds = ( last - measureFrom ) / 1e9; //longer than seconds if an open-loop run falls behind
+        run.gcCount = gcAfter[ 0 ] - gcBefore[ 0 ];
+        run.gcMillis = gcAfter[ 1 ] - gcBefore[ 1 ];
+        return run;
+    }
+
+    /**
+     * @return the thread bean, if it can measure allocations
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if( !( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ) ) return null;
+        com.sun.management.ThreadMXBean bean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        if( !bean.isThreadAllocatedMemorySupported() ) return null;
+        bean.setThreadAllocatedMemoryEnabled( true );
+        return bean;
+    }
+
+    /**
+     * @return total number of collections and total collection time (ms) so far
+     */
+    private static long[] gcCounters( List<GarbageCollectorMXBean> collectors ) {
+        long[] c = new long[ 2 ];
+        for( GarbageCollectorMXBean gc : collectors ) {
+            c[ 0 ] += Math.max( 0, gc.getCollectionCount() );
+            c[ 1 ] += Math.max( 0, gc.getCollectionTime() );
+        }
+        return c;
+    }
+
+    /**
+     * Serializes a run as a JSON object
+     *
+     * @param linker  linker name
+     * @param method  linking method
+     * @param threads number of threads
+     * @param rate    target rate (0 for maximum throughput)
+     * @param run     run results
+     * @return one line JSON object
+     */
+    static String toJson( String linker, String method, int threads, double rate, Run run ) {
+        final Histogram l = run.latencies;
+        final Histogram g = run.gcPauses;
+        return String.format( Locale.ROOT, "{\"linker\":\"%s\",\"method\":\"%s\",\"threads\":%d,\"targetRate\":%.1f,\"seconds\":%.1f,\"elapsedSeconds\":%.2f,\"queries\":%d,\"errors\":%d,\"results\":%d," +
+                        "\"throughput\":%.1f,\"latencyUs\":{\"mean\":%.1f,\"p50\":%.1f,\"p90\":%.1f,\"p99\":%.1f,\"p999\":%.1f,\"max\":%.1f}," +
+                        "\"allocBytesPerSec\":%.0f,\"allocBytesPerQuery\":%.0f,\"gc\":{\"count\":%d,\"timeMs\":%d,\"pauses\":%d,\"p99PauseMs\":%d,\"maxPauseMs\":%d}}",
+                linker, method, threads, rate, run.seconds, run.elapsedSeconds, run.queries, run.errors, run.results,
+                perSecond( run.queries, run.elapsedSeconds ), l.getMean() / 1e3, l.getValueAtPercentile( 50 ) / 1e3, l.getValueAtPercentile( 90 ) / 1e3, l.getValueAtPercentile( 99 ) / 1e3,
+                l.getValueAtPercentile( 99.9 ) / 1e3, l.getMaxValue() / 1e3,
+                perSecond( run.allocatedBytes, run.elapsedSeconds ), run.queries > 0 ? ( double ) run.allocatedBytes / run.queries : 0,
+                run.gcCount, run.gcMillis, g.getTotalCount(), g.getValueAtPercentile( 99 ), g.getMaxValue() );
+    }
+
+    /**
+     * @return count / seconds, or 0 if no time elapsed (JSON has no NaN or infinity)
+     */
+    private static double perSecond( long count, double seconds ) {
+        return seconds > 0 ? count / seconds : 0;
+    }
+
+    /**
+     * Runs the driver
+     *
+     * @param args command line arguments (see --help)
+     * @throws Exception
+     */
+    public static void main( String args[] ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( LoadDriver.class.getName(), "Replays a query log against a linker and reports latency percentiles, throughput, allocation rate and GC pauses",
+                new Parameter[]{
+                        new FlaggedOption( "hash", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'h', "hash", "quasi succint hash" ),
+                        new FlaggedOption( "queries", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'q', "queries", "Query log, one query per line (for the coherent linker, TAB-separated mentions)" ),
+                        new FlaggedOption( "linker", JSAP.STRING_PARSER, "fel", JSAP.NOT_REQUIRED, 'l', "linker", "fel, context (EntityContextFastEntityLinker) or coherent (CoherentEntityLinkerWrapper)" ),
+                        new FlaggedOption( "method", JSAP.STRING_PARSER, "results", JSAP.NOT_REQUIRED, 'm', "method", "results (getResults) or greedy (getResultsGreedy)" ),
+                        new FlaggedOption( "vectors", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'v', "vectors", "Word vectors file (context linker)" ),
+                        new FlaggedOption( "entities", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'e', "entities", "Entity vectors file (context and coherent linkers)" ),
+                        new FlaggedOption( "threads", JSAP.STRING_PARSER, "1", JSAP.NOT_REQUIRED, 't', "threads", "Comma-separated thread counts, one run each" ),
+                        new FlaggedOption( "rate", JSAP.DOUBLE_PARSER, "0", JSAP.NOT_REQUIRED, 'r', "rate", "Total queries per second (open loop), or 0 for maximum throughput" ),
+                        new FlaggedOption( "warmup", JSAP.DOUBLE_PARSER, "10", JSAP.NOT_REQUIRED, 'w', "warmup", "Warm-up seconds of every run" ),
+                        new FlaggedOption( "duration", JSAP.DOUBLE_PARSER, "30", JSAP.NOT_REQUIRED, 'd', "duration", "Measured seconds of every run" ),
+                        new FlaggedOption( "threshold", JSAP.DOUBLE_PARSER, "-30", JSAP.NOT_REQUIRED, 'T', "threshold", "Score threshold for getResults" ),
+                        new FlaggedOption( "k", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, 'k', "k", "Number of candidates for getResultsGreedy" ),
+                        new FlaggedOption( "vectorCache", JSAP.INTEGER_PARSER, "0", JSAP.NOT_REQUIRED, 'C', "vector-cache", "Decoded vector cache of every model (context linker), in MB (0 disables it)" ),
+                        new FlaggedOption( "hotVectors", JSAP.INTEGER_PARSER, "0", JSAP.NOT_REQUIRED, 'H', "hot-vectors", "Uncompressed vectors of the most frequent entities and query words of every model (context linker), in MB (0 disables them)" ),
+                        new Switch( "priors", 'p', "priors", "Rank by the candidate priors stored in the hash, if any (fel linker)" ),
+                        new FlaggedOption( "output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'o', "output", "File to append the JSON results to (default: stdout)" ), }
+        );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+
+        final String linkerName = jsapResult.getString( "linker" );
+        final String method = jsapResult.getString( "method" );
+        final double threshold = jsapResult.getDouble( "threshold" );
+        final int k = jsapResult.getInt( "k" );
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( jsapResult.getString( "hash" ) );
+        final Linker linker;
+        LREntityContext context = null;
+        switch( linkerName ) {
+            case "coherent":
+                final CoherentEntityLinkerWrapper wrapper = new CoherentEntityLinkerWrapper( new FastEntityLinker( hash, new EmptyContext() ),
+                        new CoherentEntityLinker( jsapResult.getString( "entities" ) ) );
+                linker = new Linker() {
+                    @Override
+                    public int link( String line ) {
+                        return wrapper.linkTextsToEntities( Arrays.asList( line.split( "\t" ) ) ).size();
+                    }
+                };
+                break;
+            case "context":
+            case "fel":
+                if( linkerName.equals( "context" ) ) {
+                    context = new LREntityContext( jsapResult.getString( "vectors" ), jsapResult.getString( "entities" ), hash );
+                    context.setVectorCache( jsapResult.getInt( "vectorCache" ) * ( 1L << 20 ) );
+                }
+                final FastEntityLinker fel = context == null ? new FastEntityLinker( hash, new EmptyContext() ) : new EntityContextFastEntityLinker( hash, context );
+                if( context == null && jsapResult.getBoolean( "priors" ) ) fel.setRanker( new ProbabilityRanker( hash, true ) );
+                final boolean greedy = method.equals( "greedy" );
+                if( !greedy && !method.equals( "results" ) ) throw new IllegalArgumentException( "Unknown method " + method );
+                linker = new Linker() {
+                    @Override
+                    public int link( String line ) {
+                        final String q = line.split( "\t" )[ 0 ];
+                        return greedy ? fel.getResultsGreedy( q, k ).size() : fel.getResults( q, threshold ).size();
+                    }
+                };
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown linker " + linkerName );
+        }
+
+        final List<String> queries = new ArrayList<String>();
+        BufferedReader lines = new BufferedReader( new FileReader( jsapResult.getString( "queries" ) ) );
+        String q;
+        while( ( q = lines.readLine() ) != null ) {
+            if( q.length() > 0 ) queries.add( q );
+        }
+        lines.close();
+        if( context != null && jsapResult.getInt( "hotVectors" ) > 0 ) {
+            final List<String> texts = new ArrayList<String>();
+            for( String line : queries ) texts.add( line.split( "\t" )[ 0 ] );
+            context.setHotVectors( jsapResult.getInt( "hotVectors" ) * ( 1L << 20 ), texts );
+        }
+
+        final PrintWriter out = jsapResult.getString( "output" ) != null ?
+                new PrintWriter( new OutputStreamWriter( new FileOutputStream( jsapResult.getString( "output" ), true ), StandardCharsets.UTF_8 ) ) :
+                new PrintWriter( new OutputStreamWriter( System.out, StandardCharsets.UTF_8 ) );
+        final LoadDriver driver = new LoadDriver( linker, queries.toArray( new String[ queries.size() ] ) );
+        final double rate = jsapResult.getDouble( "rate" );
+        for( String t : jsapResult.getString( "threads" ).split( "," ) ) {
+            final int threads = Integer.parseInt( t.trim() );
+            System.err.println( "Running " + threads + " threads " + ( rate > 0 ? "at " + rate + " q/s" : "at maximum throughput" ) );
+            Run run = driver.run( threads, rate, jsapResult.getDouble( "warmup" ), jsapResult.getDouble( "duration" ) );
+            out.println( toJson( linkerName, linkerName.equals( "coherent" ) ? "coherent" : method, threads, rate, run ) );
+            out.flush();
+            if( context != null && context.vectorCacheStats() != null ) System.err.println( "Vector cache: " + context.vectorCacheStats() );
+            if( context != null && context.hotVectorStats() != null ) System.err.println( "Hot vectors: " + context.hotVectorStats() );
+        }
+        out.close();
+    }
+}
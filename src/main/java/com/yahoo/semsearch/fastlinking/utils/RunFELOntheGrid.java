@@ -5,7 +5,6 @@
 
 package com.yahoo.semsearch.fastlinking.utils;
 
-import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -59,7 +58,7 @@ public class RunFELOntheGrid extends Configured implements Tool {
 
         public void setup( Context context ) throws IOException {
             try {
-                hash = ( QuasiSuccinctEntityHash ) BinIO.loadObject( "hash" );
+                hash = QuasiSuccinctEntityHash.load( "hash" );
                 fel = new FastEntityLinker( hash, new EmptyContext() );
                 entity2Id = EntityContextFastEntityLinker.readTypeMapping( "mapping" );
 
@@ -0,0 +1,191 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.utils;
+
+/**
+ * Primitive top-k selection. The k best (index, score) pairs seen so far are kept in a bounded min-heap stored in two
+ * parallel arrays of length k, with the worst of them at the root, so selecting k out of n items costs O(n log k)
+ * with no boxing and no comparator objects. Scores are compared with {@link #compare(double, double)}, which ranks
+ * NaN as negative infinity (like the {@code s > max} loops of the rankers, a NaN score never beats a real one), and
+ * ties are broken by index, lower first, so the result is the same as sorting all the items stably by decreasing
+ * score and taking the first k. NaN scores are kept as they are.
+ *
+ * Typical use, for items offered in any order:
+ * <pre>
+ * int size = 0;
+ * for( int i = 0; i &lt; n; i++ ) size = TopK.add( top, scores, size, i, score( i ) );
+ * TopK.sort( top, scores, size );
+ * </pre>
+ */
+public class TopK {
+
+    private TopK() {}
+
+    /**
+     * Offers an item to a heap of at most top.length items
+     *
+     * @param top indexes of the heap
+     * @param scores scores of the heap
+     * @param size number of items in the heap
+     * @param i index of the item
+     * @param s score of the item
+     * @return the new number of items in the heap
+     */
+    public static int add( int[] top, double[] scores, int size, int i, double s ) {
+        if( size < top.length ) {
+            int c = size++;
+            while( c > 0 && worse( s, i, scores[ ( c - 1 ) / 2 ], top[ ( c - 1 ) / 2 ] ) ) { //sift up
+                top[ c ] = top[ ( c - 1 ) / 2 ];
+                scores[ c ] = scores[ ( c - 1 ) / 2 ];
+                c = ( c - 1 ) / 2;
+            }
+            top[ c ] = i;
+            scores[ c ] = s;
+        } else if( size > 0 && worse( scores[ 0 ], top[ 0 ], s, i ) ) {
+            siftDown( top, scores, i, s, size );
+        }
+        return size;
+    }
+
+    /**
+     * @param scores scores of a heap
+     * @return the worst score in a non-empty heap, which any item has to beat to get in once the heap is full
+     */
+    public static double worst( double[] scores ) {
+        return scores[ 0 ];
+    }
+
+    /**
+     * Turns a heap into a list of its items by decreasing score (and increasing index)
+     *
+     * @param top indexes of the heap
+     * @param scores scores of the heap
+     * @param size number of items in the heap
+     */
+    public static void sort( int[] top, double[] scores, int size ) {
+        for( int n = size - 1; n > 0; n-- ) { //move the worst to the end
+            final int i = top[ 0 ];
+            final double s = scores[ 0 ];
+            siftDown( top, scores, top[ n ], scores[ n ], n );
+            top[ n ] = i;
+            scores[ n ] = s;
+        }
+    }
+
+    /**
+     * Selects the top.length best of the first n values of an array
+     *
+     * @param values scores of the items, indexed by item
+     * @param n number of items
+     * @param top gets the indexes of the best items, by decreasing score
+     * @param scores gets their scores
+     * @return number of items selected, min( n, top.length )
+     */
+    public static int select( double[] values, int n, int[] top, double[] scores ) {
+        int size = 0;
+        for( int i = 0; i < n; i++ ) size = add( top, scores, size, i, values[ i ] );
+        sort( top, scores, size );
+        return size;
+    }
+
+    /**
+     * Compares two scores as {@link Double#compare(double, double)} does, but with NaN equal to negative infinity
+     *
+     * @return a negative number, zero or a positive number if s1 ranks below, the same as or above s2
+     */
+    public static int compare( double s1, double s2 ) {
+        return Double.compare( s1 != s1 ? Double.NEGATIVE_INFINITY : s1, s2 != s2 ? Double.NEGATIVE_INFINITY : s2 );
+    }
+
+    /**
+     * @return true if item i1 with score s1 ranks below item i2 with score s2
+     */
+    private static boolean worse( double s1, int i1, double s2, int i2 ) {
+        final int c = compare( s1, s2 );
+        return c < 0 || c == 0 && i1 > i2;
+    }
+
+    /**
+     * Replaces the root of a heap of n items with item i, of score s
+     */
+    private static void siftDown( int[] top, double[] scores, int i, double s, int n ) {
+        int c = 0;
+        for( int child; ( child = 2 * c + 1 ) < n; c = child ) {
+            if( child + 1 < n && worse( scores[ child + 1 ], top[ child + 1 ], scores[ child ], top[ child ] ) ) child++;
+            if( !worse( scores[ child ], top[ child ], s, i ) ) break;
+            top[ c ] = top[ child ];
+            scores[ c ] = scores[ child ];
+        }
+        top[ c ] = i;
+        scores[ c ] = s;
+    }
+
+    /**
+     * Same as {@link #add(int[], double[], int, int, double)} for float scores
+     */
+    public static int add( int[] top, float[] scores, int size, int i, float s ) {
+        if( size < top.length ) {
+            int c = size++;
+            while( c > 0 && worse( s, i, scores[ ( c - 1 ) / 2 ], top[ ( c - 1 ) / 2 ] ) ) { //sift up
+                top[ c ] = top[ ( c - 1 ) / 2 ];
+                scores[ c ] = scores[ ( c - 1 ) / 2 ];
+                c = ( c - 1 ) / 2;
+            }
+            top[ c ] = i;
+            scores[ c ] = s;
+        } else if( size > 0 && worse( scores[ 0 ], top[ 0 ], s, i ) ) {
+            siftDown( top, scores, i, s, size );
+        }
+        return size;
+    }
+
+    /**
+     * Same as {@link #sort(int[], double[], int)} for float scores
+     */
+    public static void sort( int[] top, float[] scores, int size ) {
+        for( int n = size - 1; n > 0; n-- ) {
+            final int i = top[ 0 ];
+            final float s = scores[ 0 ];
+            siftDown( top, scores, top[ n ], scores[ n ], n );
+            top[ n ] = i;
+            scores[ n ] = s;
+        }
+    }
+
+    /**
+     * Same as {@link #select(double[], int, int[], double[])} for float scores
+     */
+    public static int select( float[] values, int n, int[] top, float[] scores ) {
+        int size = 0;
+        for( int i = 0; i < n; i++ ) size = add( top, scores, size, i, values[ i ] );
+        sort( top, scores, size );
+        return size;
+    }
+
+    /**
+     * Same as {@link #compare(double, double)} for float scores
+     */
+    public static int compare( float s1, float s2 ) {
+        return Float.compare( s1 != s1 ? Float.NEGATIVE_INFINITY : s1, s2 != s2 ? Float.NEGATIVE_INFINITY : s2 );
+    }
+
+    private static boolean worse( float s1, int i1, float s2, int i2 ) {
+        final int c = compare( s1, s2 );
+        return c < 0 || c == 0 && i1 > i2;
+    }
+
+    private static void siftDown( int[] top, float[] scores, int i, float s, int n ) {
+        int c = 0;
+        for( int child; ( child = 2 * c + 1 ) < n; c = child ) {
+            if( child + 1 < n && worse( scores[ child + 1 ], top[ child + 1 ], scores[ child ], top[ child ] ) ) child++;
+            if( !worse( scores[ child ], top[ child ], s, i ) ) break;
+            top[ c ] = top[ child ];
+            scores[ c ] = scores[ child ];
+        }
+        top[ c ] = i;
+        scores[ c ] = s;
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.view;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.shorts.ShortArrays;
+
+/**
+ * Struct-of-arrays alternative to {@link CandidatesInfo} holding the candidates of a batch of surface forms.
+ * The per-alias features are stored in one array per feature (indexed by the position k of the surface form in the
+ * batch) and the candidates of all the aliases in another set of int arrays (id, LAET, QAEF, QEF, LET and type), so
+ * that rankers can score them without boxing or allocating an {@link Entity} per candidate. The candidates of
+ * surface form k are the ones in [{@link #start(int)}, {@link #end(int)}).
+ * Entity objects are only created (see {@link #entity(int)}) for the results a ranker returns.
+ *
+ * Hashes that store them also add upper bounds of the candidate features at a few {@link #checkpoint(int) checkpoints}
+ * of every alias (see {@link #bounds(int)}), so that rankers can stop scoring the candidates of an alias as soon as
+ * none of the remaining ones can make it to the top, and hashes that store precomputed priors set the {@link #prior}
+ * of every candidate.
+ *
+ * A view is reused across batches, so it should be kept per thread.
+ */
+public class CandidatesView {
+    /** position of the first checkpoint of an alias; the following ones double it */
+    public static final int FIRST_CHECKPOINT = 8;
+    /** number of surface forms in the batch */
+    public int size;
+    /** number of candidates stored, across all the surface forms */
+    public int candidates;
+
+    private int[] start = IntArrays.EMPTY_ARRAY;
+    private int[] end = IntArrays.EMPTY_ARRAY;
+    //per alias features
+    public int[] QAF = IntArrays.EMPTY_ARRAY;
+    public int[] QAT = IntArrays.EMPTY_ARRAY;
+    public int[] QAC = IntArrays.EMPTY_ARRAY;
+    public int[] LAF = IntArrays.EMPTY_ARRAY;
+    public int[] LAT = IntArrays.EMPTY_ARRAY;
+    //per candidate features
+    public int[] id = IntArrays.EMPTY_ARRAY;
+    public int[] LAET = IntArrays.EMPTY_ARRAY;
+    public int[] QAEF = IntArrays.EMPTY_ARRAY;
+    public int[] QEF = IntArrays.EMPTY_ARRAY;
+    public int[] LET = IntArrays.EMPTY_ARRAY;
+    public short[] type = ShortArrays.EMPTY_ARRAY;
+    /** context-free log-prior of every candidate, NaN unless the hash stores them (see {@link com.yahoo.semsearch.fastlinking.hash.EntityPriors}) */
+    public double[] prior = DoubleArrays.EMPTY_ARRAY;
+    /** number of checkpoint bounds stored, across all the surface forms */
+    public int bounds;
+
+    private int[] boundStart = IntArrays.EMPTY_ARRAY;
+    private int[] boundEnd = IntArrays.EMPTY_ARRAY;
+    //per checkpoint maxima of the candidate features from the checkpoint on
+    public int[] maxQEF = IntArrays.EMPTY_ARRAY;
+    public int[] maxLET = IntArrays.EMPTY_ARRAY;
+    public int[] maxQAEF = IntArrays.EMPTY_ARRAY;
+    public int[] maxLAET = IntArrays.EMPTY_ARRAY;
+
+    /**
+     * Empties the view and makes room for n surface forms, none of which is an alias until it gets added
+     *
+     * @param n number of surface forms in the batch
+     */
+    public void clear( int n ) {
+        size = n;
+        candidates = 0;
+        bounds = 0;
+        start = IntArrays.ensureCapacity( start, n );
+        end = IntArrays.ensureCapacity( end, n );
+        boundStart = IntArrays.ensureCapacity( boundStart, n );
+        boundEnd = IntArrays.ensureCapacity( boundEnd, n );
+        QAF = IntArrays.ensureCapacity( QAF, n );
+        QAT = IntArrays.ensureCapacity( QAT, n );
+        QAC = IntArrays.ensureCapacity( QAC, n );
+        LAF = IntArrays.ensureCapacity( LAF, n );
+        LAT = IntArrays.ensureCapacity( LAT, n );
+        for( int k = 0; k < n; k++ ) {
+            start[ k ] = end[ k ] = -1;
+            boundStart[ k ] = boundEnd[ k ] = 0;
+        }
+    }
+
+    /**
+     * @param k position of the surface form in the batch
+     * @return true if the surface form is an alias (it might still have no candidates)
+     */
+    public boolean isAlias( int k ) {
+        return start[ k ] != -1;
+    }
+
+    /**
+     * @param k position of the surface form in the batch
+     * @return index of the first candidate of the surface form
+     */
+    public int start( int k ) {
+        return start[ k ];
+    }
+
+    /**
+     * @param k position of the surface form in the batch
+     * @return index following the last candidate of the surface form
+     */
+    public int end( int k ) {
+        return end[ k ];
+    }
+
+    /**
+     * @param j checkpoint index
+     * @return offset of checkpoint j from the first candidate of an alias
+     */
+    public static int checkpoint( int j ) {
+        return FIRST_CHECKPOINT << j;
+    }
+
+    /**
+     * @param candidates number of candidates of an alias
+     * @return number of checkpoints of the alias, i.e., of checkpoints before its last candidate
+     */
+    public static int checkpoints( int candidates ) {
+        int j = 0;
+        while( ( long ) FIRST_CHECKPOINT << j < candidates ) j++;
+        return j;
+    }
+
+    /**
+     * @param k position of the surface form in the batch
+     * @return number of checkpoint bounds of the surface form, either 0 or {@link #checkpoints(int) checkpoints}( end( k ) - start( k ) )
+     */
+    public int bounds( int k ) {
+        return boundEnd[ k ] - boundStart[ k ];
+    }
+
+    /**
+     * @param k position of the surface form in the batch
+     * @return index of the bounds of the first checkpoint of the surface form: the bounds of checkpoint j, which hold
+     * for candidates start( k ) + {@link #checkpoint(int) checkpoint}( j ) to end( k ), are at boundStart( k ) + j
+     */
+    public int boundStart( int k ) {
+        return boundStart[ k ];
+    }
+
+    /**
+     * Starts the candidates of an alias. Candidates added with {@link #addCandidate} belong to it until the next
+     * alias is started
+     *
+     * @param k position of the surface form in the batch
+     */
+    public void startAlias( int k, int QAF, int QAT, int QAC, int LAF, int LAT ) {
+        start[ k ] = end[ k ] = candidates;
+        boundStart[ k ] = boundEnd[ k ] = bounds;
+        this.QAF[ k ] = QAF;
+        this.QAT[ k ] = QAT;
+        this.QAC[ k ] = QAC;
+        this.LAF[ k ] = LAF;
+        this.LAT[ k ] = LAT;
+    }
+
+    /**
+     * Adds a candidate to the alias at position k, which must be the last one started
+     *
+     * @param k position of the surface form in the batch
+     */
+    public void addCandidate( int k, int id, int LAET, int QAEF, int QEF, int LET, short type ) {
+        if( candidates == this.id.length ) {
+            final int n = Math.max( 16, 2 * candidates );
+            this.id = IntArrays.grow( this.id, n, candidates );
+            this.LAET = IntArrays.grow( this.LAET, n, candidates );
+            this.QAEF = IntArrays.grow( this.QAEF, n, candidates );
+            this.QEF = IntArrays.grow( this.QEF, n, candidates );
+            this.LET = IntArrays.grow( this.LET, n, candidates );
+            this.type = ShortArrays.grow( this.type, n, candidates );
+            this.prior = DoubleArrays.grow( this.prior, n, candidates );
+        }
+        this.id[ candidates ] = id;
+        this.LAET[ candidates ] = LAET;
+        this.QAEF[ candidates ] = QAEF;
+        this.QEF[ candidates ] = QEF;
+        this.LET[ candidates ] = LET;
+        this.type[ candidates ] = type;
+        this.prior[ candidates ] = Double.NaN;
+        end[ k ] = ++candidates;
+    }
+
+    /**
+     * Adds the bounds of the next checkpoint of the alias at position k, which must be the last one started
+     *
+     * @param k position of the surface form in the batch
+     */
+    public void addBound( int k, int QEF, int LET, int QAEF, int LAET ) {
+        if( bounds == maxQEF.length ) {
+            final int n = Math.max( 16, 2 * bounds );
+            maxQEF = IntArrays.grow( maxQEF, n, bounds );
+            maxLET = IntArrays.grow( maxLET, n, bounds );
+            maxQAEF = IntArrays.grow( maxQAEF, n, bounds );
+            maxLAET = IntArrays.grow( maxLAET, n, bounds );
+        }
+        maxQEF[ bounds ] = QEF;
+        maxLET[ bounds ] = LET;
+        maxQAEF[ bounds ] = QAEF;
+        maxLAET[ bounds ] = LAET;
+        boundEnd[ k ] = ++bounds;
+    }
+
+    /**
+     * Makes the surface form at position k share the candidates of the one at position from (same alias)
+     */
+    public void copyAlias( int k, int from ) {
+        start[ k ] = start[ from ];
+        end[ k ] = end[ from ];
+        boundStart[ k ] = boundStart[ from ];
+        boundEnd[ k ] = boundEnd[ from ];
+        QAF[ k ] = QAF[ from ];
+        QAT[ k ] = QAT[ from ];
+        QAC[ k ] = QAC[ from ];
+        LAF[ k ] = LAF[ from ];
+        LAT[ k ] = LAT[ from ];
+    }
+
+    /**
+     * Adds all the candidates of a CandidatesInfo object as the alias at position k
+     *
+     * @param k position of the surface form in the batch
+     * @param info candidates of the alias
+     */
+    public void add( int k, CandidatesInfo info ) {
+        startAlias( k, ( int ) info.QAF, ( int ) info.QAT, ( int ) info.QAC, ( int ) info.LAF, ( int ) info.LAT );
+        for( Entity e : info.entities ) addCandidate( k, e.id, ( int ) e.LAET, ( int ) e.QAEF, ( int ) e.QEF, ( int ) e.LET, e.type );
+    }
+
+    /**
+     * Creates an entity object for a candidate
+     *
+     * @param i index of the candidate
+     * @return a new entity holding the features of the candidate
+     */
+    public Entity entity( int i ) {
+        return entity( i, new Entity() );
+    }
+
+    /**
+     * Fills a (flyweight) entity object with the features of a candidate
+     *
+     * @param i index of the candidate
+     * @param e entity to fill
+     * @return e
+     */
+    public Entity entity( int i, Entity e ) {
+        e.id = id[ i ];
+        e.LAET = LAET[ i ];
+        e.QAEF = QAEF[ i ];
+        e.QEF = QEF[ i ];
+        e.LET = LET[ i ];
+        e.type = type[ i ];
+        return e;
+    }
+
+    /**
+     * Materializes the candidates of an alias as a CandidatesInfo object
+     *
+     * @param k position of the surface form in the batch
+     * @return candidates info for the alias, or null if the surface form is not an alias
+     */
+    public CandidatesInfo candidatesInfo( int k ) {
+        if( !isAlias( k ) ) return null;
+        Entity[] e = new Entity[ end[ k ] - start[ k ] ];
+        for( int i = 0; i < e.length; i++ ) e[ i ] = entity( start[ k ] + i );
+        return new CandidatesInfo( e, QAF[ k ], QAT[ k ], QAC[ k ], LAF[ k ], LAT[ k ] );
+    }
+}
@@ -21,6 +21,11 @@ public class EmptyContext extends EntityContext {
 	return 0;	
     }
     
+    @Override
+    public float maxEntityContextScore() {
+        return 0;
+    }
+
     @Override
     public void setEntitiesForScoring( Entity[] entities ) {}
 }
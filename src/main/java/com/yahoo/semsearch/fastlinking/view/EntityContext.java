@@ -14,14 +14,29 @@ import java.util.ArrayList;
  * instance. The vanilla class implements an empty method (returns a score of 0
  * for every context).
  * Subclasses must at least implement the {@link #getEntityContextScore(Entity ) getEntityContextScorer method
+ * A context holds per-query state, so linkers serving concurrent requests use one {@link #copy() copy} per request.
+ * This includes the work done on the current query, which cascading rankers (see
+ * {@link com.yahoo.semsearch.fastlinking.entityranker.ContextualRanker}) check against their per-query budgets.
  *
  * @author roi blanco
  */
-public abstract class EntityContext {
+public abstract class EntityContext implements Cloneable {
     public ArrayList<String> words;
+    /** System.nanoTime() when the current query started, or 0 if no query was started */
+    private long queryStart;
+    /** Number of context scores computed by the rankers for the current query */
+    private long queryScores;
 
     public void setEntitiesForScoring( Entity[] entities ) {}
 
+    /**
+     * Same as {@link #setEntitiesForScoring(Entity[])} for the candidates of the surface form at position k of a view
+     *
+     * @param view candidates of a batch of surface forms
+     * @param k position of the surface form in the view
+     */
+    public void setEntitiesForScoring( CandidatesView view, int k ) {}
+
     /**
      * Call this method prior to scoring the context. This is useful to reuse as many calculations as possible in the context scorer (most likely many query
      * segments will share contexts)
@@ -39,6 +54,55 @@ public abstract class EntityContext {
         this.words = filtered;
     }
 
+    /**
+     * Marks the start of a query, resetting the work done on it. Linkers call it once per query, so that rankers can
+     * enforce per-query budgets; contexts whose queries are not started have no budget
+     */
+    public void startQuery() {
+        queryStart = System.nanoTime();
+        queryScores = 0;
+    }
+
+    /**
+     * @return true if a query was started with {@link #startQuery()}
+     */
+    public boolean queryStarted() {
+        return queryStart != 0;
+    }
+
+    /**
+     * @return nanoseconds since the current query started, or 0 if no query was started
+     */
+    public long queryNanos() {
+        return queryStart != 0 ? System.nanoTime() - queryStart : 0;
+    }
+
+    /**
+     * @return number of context scores computed for the current query, as recorded by {@link #addQueryScores(int)}
+     */
+    public long queryScores() {
+        return queryScores;
+    }
+
+    /**
+     * Records context scores computed for the current query
+     *
+     * @param n number of context scores
+     */
+    public void addQueryScores( int n ) {
+        queryScores += n;
+    }
+
+    /**
+     * Upper bound of the scores returned by {@link #getEntityContextScore(Entity)}, which lets rankers skip candidates
+     * that can't win whatever their context score. The default is infinity, i.e., unbounded
+     *
+     * @return maximum context score
+     */
+    public float maxEntityContextScore() {
+        return Float.POSITIVE_INFINITY;
+    }
+
     /**
      * Returns a score for the entity e using the words set previously using {@link #setContextWords(ArrayList<String> ) setContextWords}
      * @param e entity to be scored
@@ -46,6 +110,38 @@ public abstract class EntityContext {
      */
     public abstract double getEntityContextScore( Entity e );
 
+    /**
+     * Scores a batch of entities, with the same results as {@link #getEntityContextScore(Entity)} on each of them.
+     * Contexts that can score many entities at once faster than one by one (e.g., as a matrix product) override it
+     *
+     * @param entities entities to be scored
+     * @param n number of entities to be scored
+     * @param out context scores, out[ i ] for entities[ i ]
+     */
+    public void getEntityContextScores( Entity[] entities, int n, float[] out ) {
+        for( int i = 0; i < n; i++ ) out[ i ] = ( float ) getEntityContextScore( entities[ i ] );
+    }
+
+    /**
+     * Returns a context that shares the (read-only) models of this one but holds its own per-query state, so that it
+     * can be used to score one request concurrently with others. The default implementation returns a shallow copy
+     * with the context words and the work on the current query cleared (so every context, even a stateless one, must
+     * be copied); subclasses holding further per-query state must reset it as well.
+     *
+     * @return a context ready for {@link #setContextWords(ArrayList<String> ) setContextWords}
+     */
+    public EntityContext copy() {
+        try {
+            EntityContext copy = ( EntityContext ) super.clone();
+            copy.words = null;
+            copy.queryStart = 0;
+            copy.queryScores = 0;
+            return copy;
+        } catch( CloneNotSupportedException e ) {
+            throw new AssertionError( e ); //we are Cloneable
+        }
+    }
+
     public String toString() {
         return "EntityContext";
     }
@@ -49,6 +49,14 @@ public class LMLREntityContext extends LREntityContext {
         reset();
     }
 
+    @Override
+    public LMLREntityContext copy() {
+        LMLREntityContext copy = ( LMLREntityContext ) super.copy();
+        copy.ngrams = null;
+        copy.reset();
+        return copy;
+    }
+
     /**
      * Flushes out the scoring cache
      */
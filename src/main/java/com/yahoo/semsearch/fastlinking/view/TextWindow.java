@@ -0,0 +1,112 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.view;
+
+/**
+ * A window (offset + length) over a text, e.g. an n-gram of a normalized query, that can be looked up in a hash
+ * without copying its characters into a new String. The window can be moved with {@link #set(int, int)} and reused
+ * for many lookups; {@link #toString()} materializes it.
+ *
+ * Windows are compared by content, like Strings, so they can also be used to probe maps keyed by Strings that hash
+ * with {@link String#hashCode()}'s formula (see {@link #hashCode(CharSequence)}).
+ */
+public class TextWindow implements CharSequence {
+    private CharSequence text;
+    private int offset;
+    private int length;
+
+    /**
+     * @param text   underlying text
+     * @param offset start of the window
+     * @param length length of the window
+     */
+    public TextWindow( CharSequence text, int offset, int length ) {
+        this.text = text;
+        set( offset, length );
+    }
+
+    /**
+     * Moves the window over the same text
+     *
+     * @param offset start of the window
+     * @param length length of the window
+     * @return this window
+     */
+    public TextWindow set( int offset, int length ) {
+        if( offset < 0 || length < 0 || offset + length > text.length() ) throw new IndexOutOfBoundsException( "Window [" + offset + ", " + ( offset + length ) + ") out of a text of length " + text.length() );
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Moves the window over another text
+     *
+     * @param text   underlying text
+     * @param offset start of the window
+     * @param length length of the window
+     * @return this window
+     */
+    public TextWindow set( CharSequence text, int offset, int length ) {
+        this.text = text;
+        return set( offset, length );
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt( int index ) {
+        if( index < 0 || index >= length ) throw new IndexOutOfBoundsException( Integer.toString( index ) );
+        return text.charAt( offset + index );
+    }
+
+    @Override
+    public CharSequence subSequence( int start, int end ) {
+        if( start < 0 || end > length || start > end ) throw new IndexOutOfBoundsException( "[" + start + ", " + end + ")" );
+        return new TextWindow( text, offset + start, end - start );
+    }
+
+    @Override
+    public String toString() {
+        return text.subSequence( offset, offset + length ).toString();
+    }
+
+    /**
+     * Same as {@link String#hashCode()} for any character sequence
+     *
+     * @param s characters
+     * @return hash code of the characters
+     */
+    public static int hashCode( CharSequence s ) {
+        int h = 0;
+        for( int i = 0; i < s.length(); i++ ) h = 31 * h + s.charAt( i );
+        return h;
+    }
+
+    /**
+     * @param a characters
+     * @param b more characters
+     * @return true if both sequences have the same characters
+     */
+    public static boolean contentEquals( CharSequence a, CharSequence b ) {
+        if( a.length() != b.length() ) return false;
+        for( int i = 0; i < a.length(); i++ ) if( a.charAt( i ) != b.charAt( i ) ) return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode( this );
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        return o instanceof TextWindow && contentEquals( this, ( TextWindow ) o );
+    }
+}
@@ -13,6 +13,7 @@ import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.yahoo.semsearch.fastlinking.hash.AbstractEntityHash;
 import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
@@ -35,6 +36,9 @@ public class CentroidEntityContext extends EntityContext {
 
     //hack for speeding up the id look-ups
     private ArrayList<Long> idMapping;
+    //positions and scores of the entities of a batch that are not in the cache
+    private int[] missing;
+    private float[] missingScores;
 
     public CentroidEntityContext() {}
 
@@ -58,8 +62,8 @@ public class CentroidEntityContext extends EntityContext {
      * @param vec
      */
     void init( Word2VecCompress vec ) {
-        idMapping = new ArrayList<Long>( hash.entityNames.size() + 1 );
-        for( int i = 0; i < this.hash.entityNames.size(); i++ ) { //
+        idMapping = new ArrayList<Long>( hash.numberOfEntities() + 1 );
+        for( int i = 0; i < this.hash.numberOfEntities(); i++ ) { //
             String name = hash.getEntityName( i ).toString();
             Long x = vec.word_id( name );
             if( x != null ) {
@@ -70,6 +74,56 @@ public class CentroidEntityContext extends EntityContext {
         }
     }
 
+    /**
+     * Enables (or disables) a cache of decoded vectors in the word and entity models. Unlike the score cache, which
+     * only lives for one query, the vector cache is shared by all the queries and all the copies of this context
+     *
+     * @param maxBytes memory budget of the cache of each model, or 0 to disable them
+     */
+    public void setVectorCache( long maxBytes ) {
+        scorer.setVectorCache( maxBytes );
+    }
+
+    /**
+     * Keeps the vectors of the most clicked entities (QEF in the hash) and, given a query log, of its most frequent
+     * context words uncompressed, see {@link Word2VecCompress#setHotSet(long[], long)}. When words and entities share
+     * a model, the budget is filled with entities first.
+     *
+     * @param maxBytes memory budget of the hot set of each model, or 0 to disable them
+     * @param queries query log to count the words, or null to only keep entities
+     */
+    public void setHotVectors( long maxBytes, Iterable<String> queries ) {
+        final Word2VecCompress words = scorer.getWordModel(), entities = scorer.getEntityModel();
+        final long[] hotEntities = HotVectors.byEntityFrequency( hash, entities );
+        final long[] hotWords = queries != null ? HotVectors.byQueryFrequency( queries, words ) : new long[ 0 ];
+        if( words == entities ) {
+            final long[] hot = Arrays.copyOf( hotEntities, hotEntities.length + hotWords.length );
+            System.arraycopy( hotWords, 0, hot, hotEntities.length, hotWords.length );
+            entities.setHotSet( hot, maxBytes ); //ids in both lists are kept once
+        } else {
+            entities.setHotSet( hotEntities, maxBytes );
+            words.setHotSet( hotWords, maxBytes );
+        }
+    }
+
+    /**
+     * @return size and hit rate of the vector caches, or null if they are disabled
+     */
+    public String vectorCacheStats() {
+        final Word2VecCompress words = scorer.getWordModel(), entities = scorer.getEntityModel();
+        if( words.getCache() == null ) return null;
+        return words == entities ? words.getCache().toString() : "words: " + words.getCache() + ", entities: " + entities.getCache();
+    }
+
+    /**
+     * @return size and hit rate of the hot sets, or null if they are disabled
+     */
+    public String hotVectorStats() {
+        final Word2VecCompress words = scorer.getWordModel(), entities = scorer.getEntityModel();
+        if( words.getHotSet() == null && entities.getHotSet() == null ) return null;
+        return words == entities ? words.getHotSet().toString() : "words: " + words.getHotSet() + ", entities: " + entities.getHotSet();
+    }
+
     @Override
     public float queryNormalizer() {
         //float c = context.queryNormalizer();
@@ -85,6 +139,11 @@ public class CentroidEntityContext extends EntityContext {
         cache = new Object2FloatOpenHashMap<>(  );
     }
 
+    @Override
+    public float maxEntityContextScore() {
+        return scorer.max_score();
+    }
+
     public double getEntityContextScoreNoCache( Entity e ) {
         return context.score( idMapping.get( e.id ) );
     }
@@ -98,6 +157,44 @@ public class CentroidEntityContext extends EntityContext {
         return f;
     }
 
+    /**
+     * Scores the entities that are not cached yet with one {@link EntityScorer.ScorerContext#scoreAll(long[], float[])} call
+     */
+    @Override
+    public void getEntityContextScores( Entity[] entities, int n, float[] out ) {
+        if( missing == null || missing.length < n ) {
+            missing = new int[ n ];
+            missingScores = new float[ n ];
+        }
+        int m = 0;
+        for( int i = 0; i < n; i++ ) {
+            Float s = cache.get( idMapping.get( entities[ i ].id ) );
+            if( s != null ) out[ i ] = s;
+            else missing[ m++ ] = i;
+        }
+        if( m == 0 ) return;
+        final long[] ids = new long[ m ];
+        for( int j = 0; j < m; j++ ) ids[ j ] = idMapping.get( entities[ missing[ j ] ].id );
+        context.scoreAll( ids, missingScores );
+        for( int j = 0; j < m; j++ ) {
+            out[ missing[ j ] ] = missingScores[ j ];
+            cache.put( Long.valueOf( ids[ j ] ), missingScores[ j ] );
+        }
+    }
+
+    /**
+     * The copy shares the scorer and the id mapping, and gets its own scorer context and score cache
+     */
+    @Override
+    public CentroidEntityContext copy() {
+        CentroidEntityContext copy = ( CentroidEntityContext ) super.copy();
+        copy.context = null;
+        copy.cache = null;
+        copy.missing = null;
+        copy.missingScores = null;
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "CentroidCtx";
@@ -4,6 +4,8 @@
  **/
 package com.yahoo.semsearch.fastlinking.w2v;
 
+import it.cnr.isti.hpc.PQWord2Vec;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -78,6 +80,52 @@ public class CompressedSingleFileEntitySimilarityUtil extends CompressedEntitySi
         return s/numberOfWords;
     }
 
+    /**
+     * Same as {@link #entity2WordSimilarity(String, String)} for a batch of entities. With product-quantized vectors
+     * (see {@link PQWord2Vec}), the cosines are computed by asymmetric distance computation, with the tables of the
+     * words of the phrase built once for all the entities
+     *
+     * @param entities strings representing entities
+     * @param phrase string representing a phrase (will be split using spaces)
+     * @return Average cosine similarity of each entity
+     */
+    public double[] entity2WordSimilarity( String[] entities, String phrase ) {
+        final double[] similarities = new double[ entities.length ];
+        if( !( vector.getModel() instanceof PQWord2Vec ) ) {
+            for( int j = 0; j < entities.length; j++ ) similarities[ j ] = entity2WordSimilarity( entities[ j ], phrase );
+            return similarities;
+        }
+        final PQWord2Vec pq = ( PQWord2Vec ) vector.getModel();
+        final List<float[]> tables = new ArrayList<float[]>();
+        final List<Float> norms = new ArrayList<Float>();
+        String[] parts = phrase.split( "\\s+" );
+        for( int i = 0; i < parts.length; i++ ) {
+            addTable( pq, parts[ i ], tables, norms );
+            if( i > 0 ) addTable( pq, parts[ i - 1 ] + "_" + parts[ i ], tables, norms );
+        }
+        if( tables.isEmpty() ) return similarities;
+        for( int j = 0; j < entities.length; j++ ) {
+            Long id = vector.getWordId( entities[ j ] );
+            if( id == null ) continue;
+            float entityNorm = pq.norm( id );
+            double s = 0D;
+            for( int i = 0; i < tables.size(); i++ ) {
+                if( entityNorm != 0 && norms.get( i ) != 0 ) s += pq.inner( id, tables.get( i ) ) / ( entityNorm * norms.get( i ) );
+            }
+            similarities[ j ] = s / tables.size();
+        }
+        return similarities;
+    }
+
+    private void addTable( PQWord2Vec pq, String word, List<float[]> tables, List<Float> norms ) {
+        float[] v = vector.getVectorOf( word );
+        if( v == null ) return;
+        float norm = 0;
+        for( float x : v ) norm += x * x;
+        tables.add( pq.table( v, 0 ) );
+        norms.add( ( float ) Math.sqrt( norm ) );
+    }
+
     /**
      *
      * @param entity string representing an entity
@@ -5,6 +5,7 @@
 
 package com.yahoo.semsearch.fastlinking.w2v;
 
+import it.cnr.isti.hpc.ClockCache;
 import it.cnr.isti.hpc.LREntityScorer;
 import it.cnr.isti.hpc.Word2VecCompress;
 import it.unimi.dsi.fastutil.io.BinIO;
@@ -46,6 +47,21 @@ public class CompressedW2V implements WordVectors, Serializable {
         return vec.get( word );
     }
 
+    /**
+     * Enables (or disables) the cache of decoded vectors, see {@link Word2VecCompress#setCache(long)}
+     * @param maxBytes memory budget of the cache, or 0 to disable it
+     */
+    public void setCache( long maxBytes ) {
+        vec.setCache( maxBytes );
+    }
+
+    /**
+     * @return the decoded vector cache, with its hit rate, or null if it is disabled
+     */
+    public ClockCache<?, ?> getCache() {
+        return vec.getCache();
+    }
+
     /**
      * @return number of dimensions of the vectors
      */
@@ -53,6 +69,13 @@ public class CompressedW2V implements WordVectors, Serializable {
         return vec.size();
     }
 
+    /**
+     * @return the wrapped model
+     */
+    public Word2VecCompress getModel() {
+        return vec;
+    }
+
     @Override
     public float[] getVectorOf( String word ) {
         return vec.get( word );
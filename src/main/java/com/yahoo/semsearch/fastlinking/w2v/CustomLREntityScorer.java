@@ -7,7 +7,9 @@ package com.yahoo.semsearch.fastlinking.w2v;
 
 
 import it.cnr.isti.hpc.EntityScorer;
+import it.cnr.isti.hpc.Int8Word2Vec;
 import it.cnr.isti.hpc.LinearAlgebra;
+import it.cnr.isti.hpc.PQWord2Vec;
 import it.cnr.isti.hpc.Word2VecCompress;
 
 /**
@@ -25,6 +27,9 @@ public class CustomLREntityScorer extends EntityScorer {
     }
 
     public class CustomLRScorerContext extends ScorerContext {
+        /** tables of the word vectors, see {@link #compute_scores(PQWord2Vec, long[], float[])} */
+        private float[][] word_tables;
+
         public CustomLRScorerContext( float[] word_vecs, int[] word_counts ) {
             super( word_vecs, word_counts );
         }
@@ -45,6 +50,74 @@ public class CustomLREntityScorer extends EntityScorer {
             return -s;
         }
 
+        /**
+         * Same as {@link #compute_score()} for a batch of entities, multiplying each word vector by a tile of entity
+         * vectors at a time so that both stay in cache
+         */
+        @Override
+        protected void compute_scores( float[] entity_vecs, int n, float[] out ) {
+            int n_words = word_counts.length;
+            int word_size = word_model.dimensions();
+            for( int tile = 0; tile < n; tile += ENTITY_TILE ) {
+                int tile_end = Math.min( n, tile + ENTITY_TILE );
+                for( int j = tile; j < tile_end; ++j ) out[ j ] = 0;
+                for( int i = 0; i < n_words; ++i ) {
+                    int word_count = word_counts[ i ];
+                    int word_offset = i * word_size;
+                    for( int j = tile; j < tile_end; ++j ) {
+                        double dotprod = 0;
+                        dotprod -= LinearAlgebra.inner( word_size, word_vecs, word_offset, entity_vecs, j * word_size );
+                        out[ j ] += word_count * Math.log( 1 + Math.exp( dotprod ) );
+                    }
+                }
+                for( int j = tile; j < tile_end; ++j ) out[ j ] = -out[ j ];
+            }
+        }
+
+        /**
+         * Same as {@link #compute_score()} for a batch of int8 entity vectors, with int8 inner products
+         */
+        @Override
+        protected boolean compute_scores( Int8Word2Vec entities, long[] entity_ids, float[] out ) {
+            int n_words = word_counts.length;
+            int word_size = word_model.dimensions();
+            byte[] words = quantized_words();
+            byte[] values = entities.values();
+            for( int j = 0; j < entity_ids.length; ++j ) {
+                int entity_offset = ( int ) entity_ids[ j ] * word_size;
+                float entity_scale = entities.scale( entity_ids[ j ] );
+                float s = 0;
+                for( int i = 0; i < n_words; ++i ) {
+                    double dotprod = -LinearAlgebra.inner( word_size, words, i * word_size, values, entity_offset ) * word_scales[ i ] * entity_scale;
+                    s += word_counts[ i ] * Math.log( 1 + Math.exp( dotprod ) );
+                }
+                out[ j ] = -s;
+            }
+            return true;
+        }
+
+        /**
+         * Same as {@link #compute_score()} for a batch of product-quantized entity vectors, by asymmetric distance computation
+         */
+        @Override
+        protected boolean compute_scores( PQWord2Vec entities, long[] entity_ids, float[] out ) {
+            int n_words = word_counts.length;
+            int word_size = word_model.dimensions();
+            if( word_tables == null ) {
+                word_tables = new float[ n_words ][];
+                for( int i = 0; i < n_words; ++i ) word_tables[ i ] = entities.table( word_vecs, i * word_size );
+            }
+            for( int j = 0; j < entity_ids.length; ++j ) {
+                float s = 0;
+                for( int i = 0; i < n_words; ++i ) {
+                    double dotprod = -entities.inner( entity_ids[ j ], word_tables[ i ] );
+                    s += word_counts[ i ] * Math.log( 1 + Math.exp( dotprod ) );
+                }
+                out[ j ] = -s;
+            }
+            return true;
+        }
+
         public float queryNormalizer() {
             int n_words = word_counts.length;
             int word_size = word_model.dimensions();
@@ -67,5 +140,13 @@ public class CustomLREntityScorer extends EntityScorer {
         return new CustomLRScorerContext( word_vecs, word_counts );
     }
 
+    /**
+     * Scores are minus a sum of non-negative terms
+     */
+    @Override
+    public float max_score() {
+        return 0;
+    }
+
 
 }
@@ -0,0 +1,78 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.w2v;
+
+import it.cnr.isti.hpc.Word2VecCompress;
+import it.unimi.dsi.fastutil.longs.AbstractLongComparator;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.utils.Normalize;
+
+/**
+ * Chooses the vectors to keep uncompressed in the hot set of a {@link Word2VecCompress} (see
+ * {@link Word2VecCompress#setHotSet(long[], long)}): entity vectors by the number of queries that clicked on the
+ * entity (QEF) in the hash, and word vectors by their frequency in a query log. Both rank the vector ids by
+ * decreasing frequency, ties broken by id.
+ */
+public class HotVectors {
+
+    private HotVectors() {}
+
+    /**
+     * @param hash hash with the entity counts
+     * @param vectors entity vectors, named as the entities of the hash
+     * @return ids of the vectors of the entities in the hash, most clicked first
+     */
+    public static long[] byEntityFrequency( QuasiSuccinctEntityHash hash, Word2VecCompress vectors ) {
+        final Long2LongOpenHashMap counts = new Long2LongOpenHashMap();
+        for( int i = 0; i < hash.numberOfEntities(); i++ ) {
+            final Long id = vectors.word_id( hash.getEntityName( i ).toString() );
+            if( id != null ) counts.put( id.longValue(), counts.get( id.longValue() ) + ( long ) hash.getEntity( i ).QEF );
+        }
+        return byCount( counts );
+    }
+
+    /**
+     * Counts the context words of a query log as the contextual linkers build them: normalized tokens and pairs of
+     * consecutive tokens joined by an underscore (see {@link com.yahoo.semsearch.fastlinking.view.EntityContext#setContextWords})
+     *
+     * @param queries query log
+     * @param vectors word vectors
+     * @return ids of the vectors of the words in the log, most frequent first
+     */
+    public static long[] byQueryFrequency( Iterable<String> queries, Word2VecCompress vectors ) {
+        final Long2LongOpenHashMap counts = new Long2LongOpenHashMap();
+        for( String q : queries ) {
+            final String[] tokens = Normalize.normalize( q ).split( "\\s+" );
+            for( int i = 0; i < tokens.length; i++ ) {
+                count( tokens[ i ], vectors, counts );
+                if( i > 0 ) count( tokens[ i - 1 ] + "_" + tokens[ i ], vectors, counts );
+            }
+        }
+        return byCount( counts );
+    }
+
+    private static void count( String word, Word2VecCompress vectors, Long2LongOpenHashMap counts ) {
+        final Long id = vectors.word_id( word );
+        if( id != null ) counts.put( id.longValue(), counts.get( id.longValue() ) + 1 );
+    }
+
+    private static long[] byCount( final Long2LongOpenHashMap counts ) {
+        final long[] ids = counts.keySet().toLongArray();
+        final LongComparator byCount = new AbstractLongComparator() {
+            @Override
+            public int compare( long a, long b ) {
+                final int c = Long.compare( counts.get( b ), counts.get( a ) );
+                return c != 0 ? c : Long.compare( a, b );
+            }
+        };
+        LongArrays.quickSort( ids, byCount );
+        return ids;
+    }
+}
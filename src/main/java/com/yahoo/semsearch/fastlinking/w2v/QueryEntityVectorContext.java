@@ -69,6 +69,14 @@ public class QueryEntityVectorContext extends EntityContext {
         return 0;
     }
 
+    @Override
+    public QueryEntityVectorContext copy() {
+        QueryEntityVectorContext copy = ( QueryEntityVectorContext ) super.copy();
+        copy.centroid = null;
+        copy.words = null;
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "QueryEntityVectorContext";
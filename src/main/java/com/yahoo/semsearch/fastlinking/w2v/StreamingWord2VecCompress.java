@@ -0,0 +1,333 @@
+/**
+ * Copyright 2016, Yahoo Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.w2v;
+
+import com.martiansoftware.jsap.*;
+import it.cnr.isti.hpc.FastInputBitStream;
+import it.cnr.isti.hpc.Word2VecCompress;
+import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.MinimalPerfectHashFunction;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+import it.unimi.dsi.util.ShiftAddXorSignedStringMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses quantized word vectors (see {@link Quantizer}) into a {@link Word2VecCompress}, reading the input once
+ * and using several threads. Unlike {@link Word2VecCompress#main(String[])}, it never holds all the quantized values
+ * in memory, and unlike {@link EfficientWord2VecCompress} it does not read the input several times:
+ * <ol>
+ * <li>the vectors are read in chunks of rows, which are parsed, measured (per column sums) and Golomb-coded with
+ * their own moduli in parallel, so that they are kept compressed;</li>
+ * <li>the moduli of the model are computed from the column sums of all the chunks;</li>
+ * <li>the rows are re-coded with them in the order of the dictionary hash, in parallel shards of consecutive rows whose
+ * bit streams are then concatenated (each shard is padded to an int, which the endpoints skip).</li>
+ * </ol>
+ * The number of values (words times dimensions) can exceed 2^31, but the vectors of a {@link Word2VecCompress} are a
+ * single bit stream stored in a byte array, so the compressed vectors must fit in {@link Arrays#MAX_ARRAY_SIZE} bytes
+ * (about 2 GB); larger models are rejected before the bit streams of the shards are concatenated.
+ */
+public class StreamingWord2VecCompress {
+    private static final Logger logger = LoggerFactory.getLogger( StreamingWord2VecCompress.class );
+    /** rows per chunk of the input, and per shard of the output */
+    private static final int CHUNK = 1 << 14;
+
+    /**
+     * Rows of the input, Golomb-coded with their own moduli
+     */
+    private static final class Chunk {
+        final long[] columnAbsSum;
+        final int[] moduli;
+        final int[] log2;
+        final byte[] stream;
+        final long[] endpoints;
+
+        Chunk( long[] columnAbsSum, int[] moduli, byte[] stream, long[] endpoints ) {
+            this.columnAbsSum = columnAbsSum;
+            this.moduli = moduli;
+            this.log2 = new int[ moduli.length ];
+            for( int col = 0; col < moduli.length; col++ ) log2[ col ] = Fast.mostSignificantBit( moduli[ col ] );
+            this.stream = stream;
+            this.endpoints = endpoints;
+        }
+
+        void read( int row, int[] values ) {
+            final FastInputBitStream ibs = new FastInputBitStream( stream );
+            ibs.position( endpoints[ row ] );
+            ibs.readGolombVector( moduli, log2, values );
+        }
+    }
+
+    /**
+     * Rows of the output, in the order of the dictionary hash
+     */
+    private static final class Shard {
+        final byte[] stream;
+        final long[] endpoints;
+
+        Shard( byte[] stream, long[] endpoints ) {
+            this.stream = stream;
+            this.endpoints = endpoints;
+        }
+    }
+
+    /**
+     * Computes the Golomb moduli of the columns, as {@link Word2VecCompress#main(String[])} does
+     *
+     * @param columnAbsSum per column sum of the natural numbers coded (plus one per row)
+     * @param rows number of rows
+     * @return moduli of the columns
+     */
+    static int[] golombModuli( long[] columnAbsSum, long rows ) {
+        int[] golombModuli = new int[ columnAbsSum.length ];
+        for( int col = 0; col < columnAbsSum.length; ++col ) {
+            int m = 0;
+            if( columnAbsSum[ col ] > rows ) {
+                double f = ( ( double ) rows ) / columnAbsSum[ col ];
+                m = ( int ) Math.ceil( Math.log( 2.0 - f ) / -Math.log( 1.0 - f ) );
+            }
+            golombModuli[ col ] = m;
+        }
+        return golombModuli;
+    }
+
+    /**
+     * Pads a bit stream to an int, as {@link FastInputBitStream} reads ints
+     */
+    private static byte[] close( OutputBitStream obs, FastByteArrayOutputStream oa ) throws IOException {
+        obs.close();
+        while( oa.length() % 4 != 0 ) oa.write( 0 );
+        oa.trim();
+        return oa.array;
+    }
+
+    private static Chunk parse( List<String> lines, int first, int vectorSize ) throws IOException {
+        final int rows = lines.size();
+        final int[] values = new int[ rows * vectorSize ];
+        final long[] columnAbsSum = new long[ vectorSize ];
+        for( int i = 0; i < rows; i++ ) {
+            final String line = lines.get( i );
+            int start = 0;
+            for( int col = 0; col < vectorSize; col++ ) {
+                int end = line.indexOf( ' ', start );
+                if( end < 0 ) end = line.length();
+                final int entry;
+                try {
+                    entry = Integer.parseInt( line.substring( start, end ) );
+                } catch( NumberFormatException | StringIndexOutOfBoundsException e ) {
+                    throw new IOException( "Malformed vector at row " + ( first + i ) + ", column " + col + ": " + line, e );
+                }
+                values[ i * vectorSize + col ] = entry;
+                columnAbsSum[ col ] += Fast.int2nat( entry ) + 1;
+                start = end + 1;
+            }
+        }
+        final int[] moduli = golombModuli( columnAbsSum, rows );
+        final FastByteArrayOutputStream oa = new FastByteArrayOutputStream();
+        final OutputBitStream obs = new OutputBitStream( oa, 0 );
+        final long[] endpoints = new long[ rows ];
+        for( int i = 0; i < rows; i++ ) {
+            endpoints[ i ] = obs.writtenBits();
+            for( int col = 0; col < vectorSize; col++ ) obs.writeGolomb( Fast.int2nat( values[ i * vectorSize + col ] ), moduli[ col ] );
+        }
+        return new Chunk( columnAbsSum, moduli, close( obs, oa ), endpoints );
+    }
+
+    private static Shard encode( List<Chunk> chunks, int[] permutation, int from, int to, int vectorSize, int[] golombModuli ) throws IOException {
+        final FastByteArrayOutputStream oa = new FastByteArrayOutputStream();
+        final OutputBitStream obs = new OutputBitStream( oa, 0 );
+        final long[] endpoints = new long[ to - from ];
+        final int[] values = new int[ vectorSize ];
+        for( int i = from; i < to; i++ ) {
+            endpoints[ i - from ] = obs.writtenBits();
+            final int row = permutation[ i ];
+            chunks.get( row / CHUNK ).read( row % CHUNK, values );
+            for( int col = 0; col < vectorSize; col++ ) obs.writeGolomb( Fast.int2nat( values[ col ] ), golombModuli[ col ] );
+        }
+        return new Shard( close( obs, oa ), endpoints );
+    }
+
+    private static <T> T get( Future<T> future ) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch( ExecutionException e ) {
+            if( e.getCause() instanceof IOException ) throw ( IOException ) e.getCause();
+            throw new RuntimeException( e.getCause() );
+        }
+    }
+
+    /**
+     * Compresses a quantized vector file
+     *
+     * @param input_filename output of the {@link Quantizer}
+     * @param threads number of threads
+     * @return the compressed vectors
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Word2VecCompress compress( String input_filename, int threads ) throws IOException, InterruptedException {
+        final ProgressLogger pl = new ProgressLogger( logger );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try( final BufferedReader lines = new BufferedReader( new InputStreamReader( new FileInputStream( input_filename ), "UTF-8" ), 1 << 20 ) ) {
+            final String[] header = lines.readLine().split( "\t" );
+            final int numWords = Integer.parseInt( header[ 0 ] );
+            final int vectorSize = Integer.parseInt( header[ 1 ] );
+            final float quantizationFactor = Float.parseFloat( header[ 2 ] );
+
+            pl.expectedUpdates = numWords;
+            pl.start( "Reading the dictionary" );
+            final List<String> indexToWord = new ArrayList<>( numWords );
+            final ObjectOpenHashSet<String> stringSet = new ObjectOpenHashSet<String>();
+            final Random r = new Random();
+            for( int i = 0; i < numWords; ++i ) {
+                pl.lightUpdate();
+                String s = lines.readLine();
+                if( s.length() > 0 ) {
+                    if( stringSet.add( s ) ) indexToWord.add( s );
+                    else {
+                        logger.warn( "dup <" + s + "> line " + i );
+                        indexToWord.add( s + r.nextDouble() );
+                    }
+                } else {
+                    indexToWord.add( "<<<<<<VOID>>>>>" + r.nextDouble() );
+                }
+            }
+            pl.done();
+
+            // parse and compress chunks of rows in parallel, with at most two chunks per thread waiting in memory
+            pl.expectedUpdates = numWords;
+            pl.itemsName = "vectors";
+            pl.start( "Reading and compressing the vectors" );
+            final List<Chunk> chunks = new ArrayList<>();
+            final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            for( int first = 0; first < numWords; first += CHUNK ) {
+                final List<String> block = new ArrayList<>( CHUNK );
+                for( int i = first; i < Math.min( numWords, first + CHUNK ); i++ ) {
+                    final String line = lines.readLine();
+                    if( line == null ) throw new IOException( "Expected " + numWords + " vectors, found " + i );
+                    block.add( line );
+                }
+                final int f = first;
+                pending.add( executor.submit( () -> parse( block, f, vectorSize ) ) );
+                while( pending.size() > 2 * threads ) chunks.add( get( pending.poll() ) );
+                pl.update( block.size() );
+            }
+            while( !pending.isEmpty() ) chunks.add( get( pending.poll() ) );
+            pl.done();
+
+            final long[] columnAbsSum = new long[ vectorSize ];
+            long chunkBytes = 0;
+            for( Chunk c : chunks ) {
+                for( int col = 0; col < vectorSize; col++ ) columnAbsSum[ col ] += c.columnAbsSum[ col ];
+                chunkBytes += c.stream.length;
+            }
+            final int[] golombModuli = golombModuli( columnAbsSum, numWords );
+            logger.info( "Chunks: {} bytes", chunkBytes );
+
+            logger.info( "Building the dictionary hash" );
+            final ShiftAddXorSignedStringMap dictionaryHash = new ShiftAddXorSignedStringMap( indexToWord.iterator(), new MinimalPerfectHashFunction.Builder<CharSequence>().keys( indexToWord ).transform(
+                    TransformationStrategies.utf16() ).build() );
+            final int[] permutation = new int[ numWords ];
+            for( int i = 0; i < numWords; ++i ) permutation[ dictionaryHash.get( indexToWord.get( i ) ).intValue() ] = i;
+            indexToWord.clear();
+
+            logger.info( "Compressing the vectors in dictionary order" );
+            final List<Future<Shard>> shards = new ArrayList<>();
+            for( int from = 0; from < numWords; from += CHUNK ) {
+                final int f = from, t = Math.min( numWords, from + CHUNK );
+                shards.add( executor.submit( () -> encode( chunks, permutation, f, t, vectorSize, golombModuli ) ) );
+            }
+            long bytes = 0;
+            for( Future<Shard> future : shards ) bytes += get( future ).stream.length;
+            if( bytes > Arrays.MAX_ARRAY_SIZE ) throw new IllegalArgumentException( "The compressed vectors take " + bytes + " bytes, more than an array can hold (" + Arrays.MAX_ARRAY_SIZE + ")" );
+            final LongArrayList endpoints = new LongArrayList( numWords );
+            final byte[] stream = new byte[ ( int ) bytes ];
+            int length = 0;
+            for( Future<Shard> future : shards ) {
+                final Shard shard = get( future );
+                for( long e : shard.endpoints ) endpoints.add( length * 8L + e );
+                System.arraycopy( shard.stream, 0, stream, length, shard.stream.length );
+                length += shard.stream.length;
+            }
+            logger.info( "Overall vector bit streams: {} bytes, {} bps", stream.length, 8.0 * stream.length / ( ( long ) numWords * vectorSize ) );
+
+            return new Word2VecCompress( numWords, vectorSize, quantizationFactor, stream, new EliasFanoMonotoneLongBigList( endpoints ), dictionaryHash, golombModuli );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( StreamingWord2VecCompress.class.getName(), "Creates a compressed representation of quantized word2vec vectors, reading them once with several threads", new Parameter[]{
+                new UnflaggedOption( "input", JSAP.STRING_PARSER, true, "Input file" ),
+                new UnflaggedOption( "output", JSAP.STRING_PARSER, false, "Compressed version" ),
+                new FlaggedOption( "threads", JSAP.INTEGER_PARSER, Integer.toString( Runtime.getRuntime().availableProcessors() ), JSAP.NOT_REQUIRED, 't', "threads", "Number of threads" ),
+                new Switch( "check", JSAP.NO_SHORTFLAG, "check", "Check correctness of output (reads the input again)" ) } );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+
+        final String input_filename = jsapResult.getString( "input" );
+        final String output_filename = jsapResult.getString( "output", null );
+        final long start = System.nanoTime();
+        final Word2VecCompress word2vec = compress( input_filename, jsapResult.getInt( "threads" ) );
+        logger.info( "Compressed {} vectors in {} s", word2vec.size(), ( System.nanoTime() - start ) / 1e9 );
+        if( output_filename != null ) {
+            BinIO.storeObject( word2vec, output_filename );
+        }
+
+        if( jsapResult.getBoolean( "check" ) ) {
+            final int numWords = word2vec.size(), vectorSize = word2vec.dimensions();
+            final ProgressLogger pl = new ProgressLogger( logger );
+            try( final BufferedReader lines = new BufferedReader( new InputStreamReader( new FileInputStream( input_filename ), "UTF-8" ) ) ) {
+                lines.readLine();//header
+                final List<String> indexToWord = new ArrayList<>( numWords );
+                final ObjectOpenHashSet<String> stringSet = new ObjectOpenHashSet<String>();
+                for( int i = 0; i < numWords; ++i ) {
+                    final String s = lines.readLine();
+                    indexToWord.add( s.length() > 0 && stringSet.add( s ) ? s : null ); //duplicate or empty words were renamed
+                }
+                pl.expectedUpdates = numWords;
+                pl.start( "Checking the output" );
+                for( int i = 0; i < numWords; ++i ) {
+                    pl.lightUpdate();
+                    final String line = lines.readLine();
+                    if( indexToWord.get( i ) == null ) continue;
+                    final int[] vec = word2vec.getInt( indexToWord.get( i ) );
+                    final String[] lineEntries = line.split( " " );
+                    for( int col = 0; col < vectorSize; ++col ) {
+                        int expected = Integer.parseInt( lineEntries[ col ] );
+                        if( expected != vec[ col ] ) {
+                            logger.error( "Row {}, Column {}: Expected {}, got {}", i, col, expected, vec[ col ] );
+                            System.exit( 1 );
+                        }
+                    }
+                }
+                pl.done();
+            }
+        }
+    }
+}
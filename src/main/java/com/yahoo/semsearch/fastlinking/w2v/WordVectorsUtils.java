@@ -23,6 +23,7 @@ import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Parameter;
 import com.martiansoftware.jsap.SimpleJSAP;
 import com.yahoo.semsearch.fastlinking.view.ClusterEntry;
+import it.cnr.isti.hpc.LinearAlgebra;
 
 /**
  * Utility class for using deep learned word vectors. Provides different algebraic manipulations of the word vectors, and utilities to run
@@ -356,17 +357,8 @@ public class WordVectorsUtils {
      * @param N dimensions
      * @return w * v
      */
-    public static float sim( float[] v, float[] w, int N ) { //L2 norm	
-        float score = 0;
-        float la = 0;
-        float lb = 0;
-        for( int i = 0; i < N; i++ ) {
-            score += v[ i ] * w[ i ];
-            la += w[ i ] * w[ i ];
-            lb += v[ i ] * v[ i ];
-        }
-        if( la == 0 || lb == 0 ) return 0; //avoiding NaN
-        return ( float ) ( score / ( Math.sqrt( la ) * Math.sqrt( lb ) ) );
+    public static float sim( float[] v, float[] w, int N ) { //L2 norm
+        return LinearAlgebra.cosine( N, v, 0, w, 0 );
     }
 
     /**
@@ -30,6 +30,11 @@ public class CentroidEntityScorer extends EntityScorer {
     public class CentroidScorerContext extends ScorerContext {
         float[] centroid_vec;
         float norm;
+        /** int8 centroid and its scale, see {@link #compute_scores(Int8Word2Vec, long[], float[])} */
+        byte[] centroid_bytes;
+        float centroid_scale;
+        /** table of the centroid, see {@link #compute_scores(PQWord2Vec, long[], float[])} */
+        float[] centroid_table;
 
         public CentroidScorerContext( float[] word_vecs, int[] word_counts ) {
             super( word_vecs, word_counts );
@@ -53,6 +58,36 @@ public class CentroidEntityScorer extends EntityScorer {
             int word_size = centroid_vec.length;
             return LinearAlgebra.inner( word_size, entity_vec, 0, centroid_vec, 0 ) / norm;
         }
+
+        @Override
+        protected void compute_scores( float[] entity_vecs, int n, float[] out ) {
+            int word_size = centroid_vec.length;
+            for( int j = 0; j < n; ++j ) {
+                out[ j ] = LinearAlgebra.inner( word_size, entity_vecs, j * word_size, centroid_vec, 0 ) / norm;
+            }
+        }
+
+        @Override
+        protected boolean compute_scores( Int8Word2Vec entities, long[] entity_ids, float[] out ) {
+            int word_size = centroid_vec.length;
+            if( centroid_bytes == null ) {
+                centroid_bytes = new byte[ word_size ];
+                centroid_scale = Int8Word2Vec.quantize( centroid_vec, 0, word_size, centroid_bytes, 0 );
+            }
+            byte[] values = entities.values();
+            for( int j = 0; j < entity_ids.length; ++j ) {
+                int dotprod = LinearAlgebra.inner( word_size, values, ( int ) entity_ids[ j ] * word_size, centroid_bytes, 0 );
+                out[ j ] = dotprod * entities.scale( entity_ids[ j ] ) * centroid_scale / norm;
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean compute_scores( PQWord2Vec entities, long[] entity_ids, float[] out ) {
+            if( centroid_table == null ) centroid_table = entities.table( centroid_vec, 0 );
+            for( int j = 0; j < entity_ids.length; ++j ) out[ j ] = entities.inner( entity_ids[ j ], centroid_table ) / norm;
+            return true;
+        }
     }
 
     @Override
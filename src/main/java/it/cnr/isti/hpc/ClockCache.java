@@ -0,0 +1,179 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package it.cnr.isti.hpc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded concurrent cache with CLOCK (second chance) eviction. Lookups are lock-free: a hit only sets the
+ * reference bit of the entry. Insertions are serialized; when the cache is full the clock hand sweeps the slots,
+ * clearing reference bits, and evicts the first entry that has not been referenced since the last sweep.
+ * Optionally, entries expire a fixed time after they were written: an expired entry is a miss and is the first to be
+ * evicted. The cache keeps hit, miss and eviction counters.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ClockCache<K, V> {
+    private final ConcurrentHashMap<K, Entry<K, V>> map;
+    private final Entry<K, V>[] slots;
+    private final long ttl;
+    private int hand = 0;
+    private int used = 0;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static class Entry<K, V> {
+        final K key;
+        volatile V value;
+        volatile long expires;
+        volatile boolean referenced;
+
+        Entry( K key, V value, long expires ) {
+            this.key = key;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param capacity maximum number of entries
+     */
+    public ClockCache( int capacity ) {
+        this( capacity, 0, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @param capacity maximum number of entries
+     * @param ttl time to live of an entry after it is written, or 0 if entries never expire
+     * @param unit unit of the time to live
+     */
+    public ClockCache( int capacity, long ttl, TimeUnit unit ) {
+        if( capacity <= 0 ) throw new IllegalArgumentException( "The capacity must be positive (" + capacity + ")" );
+        if( ttl < 0 ) throw new IllegalArgumentException( "The time to live must not be negative (" + ttl + ")" );
+        map = new ConcurrentHashMap<K, Entry<K, V>>( capacity );
+        @SuppressWarnings( "unchecked" )
+        final Entry<K, V>[] slots = ( Entry<K, V>[] ) new Entry<?, ?>[ capacity ];
+        this.slots = slots;
+        this.ttl = unit.toNanos( ttl );
+    }
+
+    /**
+     * @return expiration time of an entry written now
+     */
+    private long expiration() {
+        return ttl == 0 ? Long.MAX_VALUE : System.nanoTime() + ttl;
+    }
+
+    /**
+     * @param e cache entry
+     * @return true if the entry has expired
+     */
+    private boolean expired( Entry<K, V> e ) {
+        return e.expires != Long.MAX_VALUE && System.nanoTime() - e.expires > 0;
+    }
+
+    /**
+     * @param key key to look up
+     * @return the value associated to the key, or null if it is not cached
+     */
+    public V get( K key ) {
+        final Entry<K, V> e = map.get( key );
+        if( e == null || expired( e ) ) {
+            misses.increment();
+            return null;
+        }
+        if( !e.referenced ) e.referenced = true; //avoid writing to shared cache lines on every hit
+        hits.increment();
+        return e.value;
+    }
+
+    /**
+     * Associates a value to a key, evicting an entry if the cache is full
+     *
+     * @param key key
+     * @param value value (not null)
+     */
+    public void put( K key, V value ) {
+        synchronized( slots ) {
+            final Entry<K, V> old = map.get( key );
+            if( old != null ) {
+                old.value = value;
+                old.expires = expiration();
+                return;
+            }
+            final Entry<K, V> e = new Entry<K, V>( key, value, expiration() );
+            if( used < slots.length ) {
+                slots[ used++ ] = e;
+            } else {
+                while( slots[ hand ].referenced && !expired( slots[ hand ] ) ) {
+                    slots[ hand ].referenced = false;
+                    hand = ( hand + 1 ) % slots.length;
+                }
+                map.remove( slots[ hand ].key );
+                evictions.increment();
+                slots[ hand ] = e;
+                hand = ( hand + 1 ) % slots.length;
+            }
+            map.put( key, e );
+        }
+    }
+
+    /**
+     * Removes all the entries (the counters are kept)
+     */
+    public void clear() {
+        synchronized( slots ) {
+            map.clear();
+            for( int i = 0; i < used; i++ ) slots[ i ] = null;
+            used = hand = 0;
+        }
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return maximum number of entries
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return number of lookups that found a value
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that did not find a value
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted to make room for new ones
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long h = hits(), m = misses();
+        return "size=" + size() + "/" + capacity() + " hits=" + h + " misses=" + m + " evictions=" + evictions() + " hitRate=" + ( h + m > 0 ? ( float ) h / ( h + m ) : 0 );
+    }
+}
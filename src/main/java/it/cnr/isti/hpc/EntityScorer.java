@@ -40,6 +40,11 @@ public abstract class EntityScorer {
         protected float[] word_vecs;
         protected int[] word_counts;
         protected float[] entity_vec;
+        /** vectors of the last batch of entities, see {@link #scoreAll(long[], float[])} */
+        protected float[] entity_vecs;
+        /** int8 word vectors and their scales, see {@link #quantized_words()} */
+        protected byte[] word_bytes;
+        protected float[] word_scales;
 
         public ScorerContext( float[] word_vecs, int[] word_counts ) {
             this.word_vecs = word_vecs;
@@ -59,11 +64,125 @@ public abstract class EntityScorer {
             return score( entity_model.word_id( entity ) );
         }
 
+        /**
+         * Scores a batch of entities, with the same results as {@link #score(Long)} on each of them. The entity vectors
+         * are decoded into one contiguous block and scored by {@link #compute_scores(float[], int, float[])}, unless
+         * the entity model is an {@link Int8Word2Vec} or a {@link PQWord2Vec} that
+         * {@link #compute_scores(Int8Word2Vec, long[], float[])} or {@link #compute_scores(PQWord2Vec, long[], float[])}
+         * score without decoding (then the scores of int8 vectors are approximations of those of {@link #score(Long)})
+         *
+         * @param entity_ids entity identifiers
+         * @param out scores, out[ i ] for entity_ids[ i ]
+         */
+        public void scoreAll( long[] entity_ids, float[] out ) {
+            final int n = entity_ids.length;
+            if( word_counts.length == 0 ) {
+                Arrays.fill( out, 0, n, DEFAULT_SCORE );
+                return;
+            }
+            if( entity_model instanceof Int8Word2Vec && compute_scores( ( Int8Word2Vec ) entity_model, entity_ids, out ) ) return;
+            if( entity_model instanceof PQWord2Vec && compute_scores( ( PQWord2Vec ) entity_model, entity_ids, out ) ) return;
+            final int entity_size = entity_model.dimensions();
+            if( entity_vecs == null || entity_vecs.length < n * entity_size ) entity_vecs = new float[ n * entity_size ];
+            for( int i = 0; i < n; i++ ) entity_model.get( entity_ids[ i ], entity_vecs, i * entity_size );
+            compute_scores( entity_vecs, n, out );
+        }
+
         public abstract float compute_score();
+
+        /**
+         * Scores n entity vectors stored one after the other. The default implementation copies each of them into the
+         * entity vector and calls {@link #compute_score()}; scorers that compare the entities with every word override
+         * it to go through the word vectors once per tile of entities rather than once per entity
+         *
+         * @param entity_vecs entity vectors, the i-th one at i * entity_model.dimensions()
+         * @param n number of entities
+         * @param out scores
+         */
+        protected void compute_scores( float[] entity_vecs, int n, float[] out ) {
+            final int entity_size = entity_vec.length;
+            for( int i = 0; i < n; i++ ) {
+                System.arraycopy( entity_vecs, i * entity_size, entity_vec, 0, entity_size );
+                out[ i ] = compute_score();
+            }
+        }
+
+        /**
+         * Scores a batch of entities with int8 vectors, computing the inner products on their quantized values against
+         * quantized versions of the word vectors (see {@link #quantized_words()}). The default implementation does not
+         * and returns false, so that the vectors are decoded to floats instead
+         *
+         * @param entities entity model
+         * @param entity_ids entity identifiers
+         * @param out scores, out[ i ] for entity_ids[ i ]
+         * @return whether the entities were scored
+         */
+        protected boolean compute_scores( Int8Word2Vec entities, long[] entity_ids, float[] out ) {
+            return false;
+        }
+
+        /**
+         * Scores a batch of product-quantized entities by asymmetric distance computation, with per-context tables of
+         * the word vectors (see {@link PQWord2Vec#table(float[], int)}). The default implementation does not and
+         * returns false, so that the vectors are reconstructed instead
+         *
+         * @param entities entity model
+         * @param entity_ids entity identifiers
+         * @param out scores, out[ i ] for entity_ids[ i ]
+         * @return whether the entities were scored
+         */
+        protected boolean compute_scores( PQWord2Vec entities, long[] entity_ids, float[] out ) {
+            return false;
+        }
+
+        /**
+         * Quantizes the word vectors to int8 (see {@link Int8Word2Vec#quantize(float[], int, int, byte[], int)}) the
+         * first time it is called
+         *
+         * @return the int8 word vectors, the i-th one at i * word_model.dimensions() with scale word_scales[ i ]
+         */
+        protected byte[] quantized_words() {
+            if( word_bytes == null ) {
+                final int word_size = word_model.dimensions();
+                final int n_words = word_counts.length;
+                word_bytes = new byte[ n_words * word_size ];
+                word_scales = new float[ n_words ];
+                for( int i = 0; i < n_words; ++i ) word_scales[ i ] = Int8Word2Vec.quantize( word_vecs, i * word_size, word_size, word_bytes, i * word_size );
+            }
+            return word_bytes;
+        }
     }
 
+    /** Number of entities whose vectors are multiplied by each word vector in turn when scoring a batch; a tile of 300-dimensional vectors fits in the L1 cache */
+    protected static final int ENTITY_TILE = 16;
+
     public abstract ScorerContext create_context( float[] word_vecs, int[] word_counts );
 
+    /**
+     * @return upper bound of the scores computed by the contexts of this scorer, or infinity if they are not bounded
+     */
+    public float max_score() {
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Enables (or disables) the decoded vector cache of the word and entity models, see {@link Word2VecCompress#setCache(long)}
+     *
+     * @param maxBytes memory budget of the cache of each model, or 0 to disable them
+     */
+    public void setVectorCache( long maxBytes ) {
+        word_model.setCache( maxBytes );
+        if( entity_model != word_model ) entity_model.setCache( maxBytes );
+    }
+
+    public Word2VecCompress getWordModel() {
+        return word_model;
+    }
+
+    public Word2VecCompress getEntityModel() {
+        return entity_model;
+    }
+
     public ScorerContext context( List<String> words ) {
         Multiset<String> counter = TreeMultiset.create();
         counter.addAll( words );
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 ////from https://github.com/ot/entity2vec
 public class FastInputBitStream {
@@ -122,6 +123,156 @@ public class FastInputBitStream {
         return readUnary() * b + readMinimalBinary( b, log2b );
     }
 
+    /**
+     * Reads a whole vector of Golomb-coded natural numbers, each with its own modulus, and maps them to integers
+     * (see {@link Fast#nat2int(int)}). It is equivalent to calling {@link #readGolomb(int, int)} for every value, but
+     * decodes the codes from a 64-bit window of the stream, reloaded only when it runs short, looking up the short
+     * codes of small moduli in a table indexed by the next {@link #TABLE_BITS} bits and the rest without branches.
+     *
+     * @param moduli Golomb moduli, one per value (not negative)
+     * @param log2   most significant bits of the moduli (see {@link Fast#mostSignificantBit(int)})
+     * @param out    the integers read, one per modulus
+     */
+    public void readGolombVector( final int[] moduli, final int[] log2, final int[] out ) {
+        readGolombVector( moduli, log2, out, null, 0, 0 );
+    }
+
+    /**
+     * Same as {@link #readGolombVector(int[], int[], int[])}, dequantizing every integer val to
+     * ( val + 0.5 * signum( val ) ) / quantizationFactor
+     *
+     * @param moduli             Golomb moduli, one per value (not negative)
+     * @param log2               most significant bits of the moduli
+     * @param out                the dequantized values
+     * @param offset             position of the first value in out
+     * @param quantizationFactor quantization factor of the values
+     */
+    public void readGolombVector( final int[] moduli, final int[] log2, final float[] out, final int offset, final float quantizationFactor ) {
+        readGolombVector( moduli, log2, null, out, offset, quantizationFactor );
+    }
+
+    private void readGolombVector( final int[] moduli, final int[] log2, final int[] ints, final float[] floats, final int offset, final float quantizationFactor ) {
+        final int n = moduli.length;
+        final int lastLong = buf.limit() - 8; // last byte offset at which a long can be read
+        long p = bitPosition();
+        // the next avail bits of the stream, left-aligned and followed by zeros
+        long window = 0;
+        int avail = 0;
+        for( int i = 0; i < n; i++ ) {
+            final int b = moduli[ i ];
+            int val;
+            if( b == 0 ) {
+                val = 0;
+            } else {
+                if( avail < TABLE_BITS ) { // reload the window at p, with at least 57 bits
+                    final int byteOffset = ( int ) ( p >>> 3 );
+                    window = byteOffset <= lastLong ? buf.getLong( byteOffset ) << ( p & 7 ) : tail( p );
+                    avail = 64 - ( int ) ( p & 7 );
+                }
+                final int entry = b < TABLES ? table( b )[ ( int ) ( window >>> 64 - TABLE_BITS ) ] : 0;
+                if( entry != 0 ) { // short code, decoded by the table
+                    final int length = entry & 0xFF;
+                    window <<= length;
+                    avail -= length;
+                    p += length;
+                    val = entry >> 8;
+                } else {
+                    final int log2b = log2[ i ];
+                    int z = Long.numberOfLeadingZeros( window );
+                    if( z + log2b + 2 > avail ) { // the code might not be in the window: reload it at p
+                        final int byteOffset = ( int ) ( p >>> 3 );
+                        window = byteOffset <= lastLong ? buf.getLong( byteOffset ) << ( p & 7 ) : tail( p );
+                        avail = 64 - ( int ) ( p & 7 );
+                        z = Long.numberOfLeadingZeros( window );
+                    }
+                    if( z > 55 - log2b ) { //long code, or end of the stream: take the general path
+                        seek( p );
+                        val = Fast.nat2int( readGolomb( b, log2b ) );
+                        p = bitPosition();
+                        avail = 0;
+                        window = 0;
+                    } else {
+                        // minimal binary part: log2b bits, and one more if they are not less than m (without branches)
+                        final long rest = window << z + 1;
+                        final int m = ( 1 << log2b + 1 ) - b;
+                        int x = ( int ) ( rest >>> 1 >>> 63 - log2b ); // top log2b bits (the double shift handles log2b = 0)
+                        final int longer = ( m - 1 - x ) >> 31; // -1 if x >= m, 0 otherwise
+                        x = x & ~longer | ( ( x << 1 | ( int ) ( rest >>> 63 - log2b ) & 1 ) - m ) & longer;
+                        final int length = z + 1 + log2b - longer;
+                        window <<= length;
+                        avail -= length;
+                        p += length;
+                        val = Fast.nat2int( z * b + x );
+                    }
+                }
+            }
+            if( ints != null ) ints[ i ] = val;
+            else floats[ offset + i ] = ( ( ( float ) val ) + 0.5f * Integer.signum( val ) ) / quantizationFactor;
+        }
+        seek( p );
+    }
+
+    /** Number of bits of the stream looked up at once in the decoding tables. */
+    private static final int TABLE_BITS = 10;
+    /** Moduli with a decoding table (smaller than this). */
+    private static final int TABLES = 64;
+    private static final AtomicReferenceArray<int[]> tables = new AtomicReferenceArray<int[]>( TABLES );
+
+    /**
+     * Returns the decoding table of the Golomb codes of modulus b: the entry of the integer formed by the next
+     * {@link #TABLE_BITS} bits of the stream is the integer coded by the code they start with (see
+     * {@link Fast#nat2int(int)}), shifted left by 8, plus the length of the code; or 0 if the code is longer.
+     */
+    private static int[] table( final int b ) {
+        int[] t = tables.get( b );
+        if( t == null ) { // concurrent callers might build the same table twice, which is harmless
+            t = new int[ 1 << TABLE_BITS ];
+            final int log2b = Fast.mostSignificantBit( b );
+            final int m = ( 1 << log2b + 1 ) - b;
+            for( int bits = 0; bits < t.length; bits++ ) {
+                final int z = Integer.numberOfLeadingZeros( bits ) - ( 32 - TABLE_BITS );
+                int length = z + 1 + log2b;
+                if( length > TABLE_BITS ) continue;
+                int x = bits >>> TABLE_BITS - length & ( 1 << log2b ) - 1;
+                if( x >= m ) {
+                    if( ++length > TABLE_BITS ) continue;
+                    x = ( bits >>> TABLE_BITS - length & ( 1 << log2b + 1 ) - 1 ) - m;
+                }
+                t[ bits ] = Fast.nat2int( z * b + x ) << 8 | length;
+            }
+            tables.set( b, t );
+        }
+        return t;
+    }
+
+    /**
+     * @return position of the next bit to read
+     */
+    private long bitPosition() {
+        return buf.position() * 8L - fill;
+    }
+
+    /**
+     * Same as {@link #position(long)}, also at the end of the stream
+     */
+    private void seek( long pos ) {
+        if( pos < buf.limit() * 8L ) position( pos );
+        else {
+            buf.position( buf.limit() );
+            current = 0;
+            fill = 0;
+        }
+    }
+
+    /**
+     * @return the bits from pos to the end of the stream, left-aligned in a long
+     */
+    private long tail( long pos ) {
+        long w = 0;
+        for( int i = 0, b = ( int ) ( pos >>> 3 ); i < 8; i++, b++ ) w = w << 8 | ( b < buf.limit() ? buf.get( b ) & 0xFFL : 0 );
+        return w << ( pos & 7 );
+    }
+
     static volatile long do_not_optimize;
 
     public static void main( String[] args ) throws IOException {
@@ -218,6 +369,51 @@ public class FastInputBitStream {
             }
         }
 
+        // test readGolombVector, with the moduli and the value distribution of quantized word vectors
+        {
+            int dim = 300;
+            int n = ( 1 << 12 ) + 1;
+            int[] bs = new int[ dim ];
+            int[] log2 = new int[ dim ];
+            for( int col = 0; col < dim; ++col ) {
+                bs[ col ] = rng.nextInt( 8 ); // some columns have modulus 0 (all zeros)
+                log2[ col ] = Fast.mostSignificantBit( bs[ col ] );
+            }
+            int[] values = new int[ n * dim ];
+            FastByteArrayOutputStream oa = new FastByteArrayOutputStream();
+            OutputBitStream obs = new OutputBitStream( oa, 0 );
+
+            for( int i = 0; i < n * dim; ++i ) {
+                int b = bs[ i % dim ];
+                values[ i ] = b == 0 ? 0 : ( int ) Math.round( rng.nextGaussian() * b * ( i % 97 == 0 ? 40 : 2 ) ); // a few long unary codes
+                obs.writeGolomb( Fast.int2nat( values[ i ] ), b );
+            }
+
+            obs.close();
+            while( oa.length() % 4 != 0 ) oa.write( 0 );
+            oa.trim();
+
+            FastInputBitStream ibs = new FastInputBitStream( oa.array );
+            int[] got = new int[ dim ];
+            float[] gotFloats = new float[ dim + 1 ];
+            for( int i = 0; i < n; ++i ) {
+                if( i % 2 == 0 ) ibs.readGolombVector( bs, log2, got );
+                else {
+                    ibs.readGolombVector( bs, log2, gotFloats, 1, 10 );
+                    for( int col = 0; col < dim; ++col ) {
+                        int val = values[ i * dim + col ];
+                        got[ col ] = val;
+                        if( gotFloats[ 1 + col ] != ( ( float ) val + 0.5f * Integer.signum( val ) ) / 10 ) got[ col ] = Integer.MIN_VALUE;
+                    }
+                }
+                for( int col = 0; col < dim; ++col ) {
+                    if( got[ col ] != values[ i * dim + col ] ) {
+                        System.out.printf( "vector=%d, col=%d, b=%d, expected=%d, got=%d\n", i, col, bs[ col ], values[ i * dim + col ], got[ col ] );
+                        System.exit( 1 );
+                    }
+                }
+            }
+        }
 
         System.out.println( "Testing done" );
 
@@ -291,6 +487,64 @@ public class FastInputBitStream {
             elapsed = System.nanoTime() - tick;
             System.out.printf( "EliasFanoLongBigList %.1f ns/integer\n", elapsed / ( runs * n ) );
         }
+
+        // perfTest readGolombVector, with the moduli and the value distribution of quantized word vectors
+        {
+            int dim = 300;
+            int n = 1 << 14;
+            int runs = 15;
+            int[] bs = new int[ dim ];
+            int[] log2 = new int[ dim ];
+            for( int col = 0; col < dim; ++col ) {
+                bs[ col ] = rng.nextInt( 16 ) + 1;
+                log2[ col ] = Fast.mostSignificantBit( bs[ col ] );
+            }
+            FastByteArrayOutputStream oa = new FastByteArrayOutputStream();
+            OutputBitStream obs = new OutputBitStream( oa, 0 );
+            for( int i = 0; i < n * dim; ++i ) {
+                int b = bs[ i % dim ];
+                obs.writeGolomb( Fast.int2nat( ( int ) Math.round( rng.nextGaussian() * b ) ), b );
+            }
+            obs.close();
+            oa.trim();
+
+            long tick = 0;
+            double elapsed;
+            long tmp = 0;
+            int[] vector = new int[ dim ];
+
+            // FastInputBitStream, a value at a time
+            for( int run = 0; run <= runs; ++run ) {
+                if( run == 1 ) { // do not time the first run
+                    tick = System.nanoTime();
+                }
+
+                FastInputBitStream ibs = new FastInputBitStream( oa.array );
+                for( int i = 0; i < n; ++i ) {
+                    for( int col = 0; col < dim; ++col ) vector[ col ] = Fast.nat2int( ibs.readGolomb( bs[ col ], log2[ col ] ) );
+                    tmp += vector[ dim - 1 ];
+                }
+            }
+            do_not_optimize = tmp;
+            elapsed = System.nanoTime() - tick;
+            System.out.printf( "FastInputBitStream.readGolomb %.1f ns/integer\n", elapsed / ( runs * n * dim ) );
+
+            // FastInputBitStream, a vector at a time
+            for( int run = 0; run <= runs; ++run ) {
+                if( run == 1 ) { // do not time the first run
+                    tick = System.nanoTime();
+                }
+
+                FastInputBitStream ibs = new FastInputBitStream( oa.array );
+                for( int i = 0; i < n; ++i ) {
+                    ibs.readGolombVector( bs, log2, vector );
+                    tmp += vector[ dim - 1 ];
+                }
+            }
+            do_not_optimize = tmp;
+            elapsed = System.nanoTime() - tick;
+            System.out.printf( "FastInputBitStream.readGolombVector %.1f ns/integer\n", elapsed / ( runs * n * dim ) );
+        }
     }
 
 }
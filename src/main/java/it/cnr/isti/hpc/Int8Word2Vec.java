@@ -0,0 +1,214 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package it.cnr.isti.hpc;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.bits.TransformationStrategies;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.MinimalPerfectHashFunction;
+import it.unimi.dsi.util.ShiftAddXorSignedStringMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Word vectors stored with fixed-width int8 quantization instead of Golomb coding: every vector takes one byte per
+ * dimension plus a float scale, and its i-th value is values[ i ] * scale. This is about 4x smaller than floats and
+ * 2-3x larger than the Golomb-coded vectors, but there is nothing to decode: scorers can compute the inner products
+ * directly on the bytes (see {@link LinearAlgebra#inner(int, byte[], int, byte[], int)} and
+ * {@link EntityScorer.ScorerContext#scoreAll(long[], float[])}), and {@link #get(long, float[], int)} is a scaled copy.
+ *
+ * The scale of each vector maps its largest absolute value to 127. The vectors can be built from the output of
+ * {@link com.yahoo.semsearch.fastlinking.w2v.Quantizer}, like {@link Word2VecCompress}, or converted from a compressed
+ * model. Being a {@link Word2VecCompress}, the result can be used wherever a compressed model is loaded.
+ */
+public class Int8Word2Vec extends Word2VecCompress {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger( Int8Word2Vec.class );
+
+    private final int numWords;
+    private final int vectorSize;
+    /** the values of vector i are at [ i * vectorSize, ( i + 1 ) * vectorSize ) */
+    private final byte[] values;
+    private final float[] scales;
+
+    public Int8Word2Vec( int numWords, int vectorSize, byte[] values, float[] scales, Object2LongFunction<? extends CharSequence> dictionary ) {
+        super( numWords, vectorSize, 1, null, null, dictionary, null );
+        if( values.length != valuesLength( numWords, vectorSize ) || scales.length != numWords ) throw new IllegalArgumentException( "Expected " + numWords + " vectors of " + vectorSize + " values" );
+        this.numWords = numWords;
+        this.vectorSize = vectorSize;
+        this.values = values;
+        this.scales = scales;
+    }
+
+    /**
+     * @return number of values of numWords vectors of vectorSize dimensions
+     * @throws IllegalArgumentException if they don't fit in an array
+     */
+    private static int valuesLength( int numWords, int vectorSize ) {
+        final long length = ( long ) numWords * vectorSize;
+        if( length > Integer.MAX_VALUE ) throw new IllegalArgumentException( "Too many values for an array: " + numWords + " x " + vectorSize );
+        return ( int ) length;
+    }
+
+    /**
+     * Converts a compressed model, decoding its vectors and quantizing them to int8
+     *
+     * @param model compressed model
+     * @return the int8 model, with the same vector ids
+     */
+    public static Int8Word2Vec of( Word2VecCompress model ) {
+        final int n = model.size(), d = model.dimensions();
+        final byte[] values = new byte[ valuesLength( n, d ) ];
+        final float[] scales = new float[ n ];
+        final float[] vector = new float[ d ];
+        for( int i = 0; i < n; i++ ) {
+            model.get( i, vector, 0 );
+            scales[ i ] = quantize( vector, 0, d, values, i * d );
+        }
+        return new Int8Word2Vec( n, d, values, scales, model.dictionary() );
+    }
+
+    /**
+     * Quantizes a float vector to int8, scaling its largest absolute value to 127
+     *
+     * @param v      the vector
+     * @param offset offset of the vector in v
+     * @param size   number of dimensions
+     * @param out    the quantized values
+     * @param outOffset offset of the quantized values in out
+     * @return the scale, so that v[ offset + i ] is approximately out[ outOffset + i ] * scale (0 for a zero vector)
+     */
+    public static float quantize( float[] v, int offset, int size, byte[] out, int outOffset ) {
+        float max = 0;
+        for( int i = 0; i < size; i++ ) max = Math.max( max, Math.abs( v[ offset + i ] ) );
+        if( max == 0 ) {
+            for( int i = 0; i < size; i++ ) out[ outOffset + i ] = 0;
+            return 0;
+        }
+        final float scale = max / Byte.MAX_VALUE;
+        for( int i = 0; i < size; i++ ) out[ outOffset + i ] = ( byte ) Math.round( v[ offset + i ] / scale );
+        return scale;
+    }
+
+    /**
+     * @return the quantized values of all the vectors, vector i at i * {@link #dimensions()}
+     */
+    public byte[] values() {
+        return values;
+    }
+
+    /**
+     * @param idx vector id
+     * @return scale of the values of the vector
+     */
+    public float scale( long idx ) {
+        return scales[ ( int ) idx ];
+    }
+
+    @Override
+    public void get( long idx, float[] result, int offset ) {
+        final float scale = scales[ ( int ) idx ];
+        for( int col = 0, i = ( int ) idx * vectorSize; col < vectorSize; col++, i++ ) result[ offset + col ] = values[ i ] * scale;
+    }
+
+    /**
+     * @return the int8 values of the vector
+     */
+    @Override
+    public int[] getInt( long idx ) {
+        final int[] ret = new int[ vectorSize ];
+        for( int col = 0, i = ( int ) idx * vectorSize; col < vectorSize; col++, i++ ) ret[ col ] = values[ i ];
+        return ret;
+    }
+
+    /**
+     * Does nothing: the vectors are not compressed, so there is nothing to cache
+     */
+    @Override
+    public void setCache( long maxBytes ) {}
+
+    /**
+     * Does nothing: all the vectors are already uncompressed
+     *
+     * @return 0
+     */
+    @Override
+    public int setHotSet( long[] ids, long maxBytes ) {
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return numWords;
+    }
+
+    @Override
+    public int dimensions() {
+        return vectorSize;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( Int8Word2Vec.class.getName(), "Creates an int8 representation of quantized word2vec vectors (or of a compressed model)", new Parameter[]{
+                new UnflaggedOption( "input", JSAP.STRING_PARSER, true, "Input file: the output of the Quantizer, or a compressed model with --compressed" ),
+                new UnflaggedOption( "output", JSAP.STRING_PARSER, true, "Int8 version" ),
+                new Switch( "compressed", 'c', "compressed", "The input is a compressed model (Word2VecCompress)" ) } );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+
+        final String input_filename = jsapResult.getString( "input" );
+        final Int8Word2Vec word2vec;
+        if( jsapResult.getBoolean( "compressed" ) ) {
+            word2vec = of( ( Word2VecCompress ) BinIO.loadObject( input_filename ) );
+        } else {
+            final ProgressLogger pl = new ProgressLogger( logger );
+            try( final BufferedReader lines = new BufferedReader( new InputStreamReader( new FileInputStream( input_filename ), "UTF-8" ) ) ) {
+                String[] header = lines.readLine().split( "\t" );
+                int numWords = Integer.parseInt( header[ 0 ] );
+                int vectorSize = Integer.parseInt( header[ 1 ] );
+                float quantizationFactor = Float.parseFloat( header[ 2 ] );
+                byte[] values = new byte[ valuesLength( numWords, vectorSize ) ];
+
+                pl.expectedUpdates = numWords;
+                pl.start( "Reading the dictionary" );
+                List<String> indexToWord = new ArrayList<>();
+                for( int i = 0; i < numWords; ++i ) {
+                    pl.lightUpdate();
+                    indexToWord.add( lines.readLine().trim() );
+                }
+                pl.done();
+
+                ShiftAddXorSignedStringMap dictionaryHash = new ShiftAddXorSignedStringMap( indexToWord.iterator(), new MinimalPerfectHashFunction.Builder<CharSequence>().keys( indexToWord ).transform(
+                        TransformationStrategies.utf16() ).build() );
+
+                float[] scales = new float[ numWords ];
+                float[] vector = new float[ vectorSize ];
+                pl.start( "Quantizing the vectors" );
+                for( int i = 0; i < numWords; ++i ) {
+                    pl.lightUpdate();
+                    String[] lineEntries = lines.readLine().split( " " );
+                    for( int col = 0; col < vectorSize; ++col ) {
+                        int val = Integer.parseInt( lineEntries[ col ] );
+                        vector[ col ] = ( ( ( float ) val ) + 0.5f * Integer.signum( val ) ) / quantizationFactor; //as Word2VecCompress dequantizes
+                    }
+                    int id = dictionaryHash.get( indexToWord.get( i ) ).intValue();
+                    scales[ id ] = quantize( vector, 0, vectorSize, values, id * vectorSize );
+                }
+                pl.done();
+                word2vec = new Int8Word2Vec( numWords, vectorSize, values, scales, dictionaryHash );
+            }
+        }
+        BinIO.storeObject( word2vec, jsapResult.getString( "output" ) );
+        logger.info( "{} vectors of {} dimensions, {} bytes", word2vec.size(), word2vec.dimensions(), word2vec.values.length + 4L * word2vec.scales.length );
+    }
+}
@@ -45,6 +45,50 @@ public class LREntityScorer extends EntityScorer {
 
             return -s;
         }
+
+        @Override
+        protected void compute_scores( float[] entity_vecs, int n, float[] out ) {
+            int n_words = word_counts.length;
+            int word_size = word_model.dimensions();
+            int entity_size = entity_vec.length;
+            for( int tile = 0; tile < n; tile += ENTITY_TILE ) {
+                int tile_end = Math.min( n, tile + ENTITY_TILE );
+                for( int j = tile; j < tile_end; ++j ) out[ j ] = 0;
+                for( int i = 0; i < n_words; ++i ) {
+                    int word_count = word_counts[ i ];
+                    int word_offset = i * word_size;
+                    for( int j = tile; j < tile_end; ++j ) {
+                        int entity_offset = j * entity_size;
+                        double dotprod = entity_vecs[ entity_offset + word_size ];
+                        dotprod += LinearAlgebra.inner( word_size, word_vecs, word_offset, entity_vecs, entity_offset );
+                        out[ j ] += word_count * Math.log( 1 + Math.exp( dotprod ) );
+                    }
+                }
+                for( int j = tile; j < tile_end; ++j ) out[ j ] = -out[ j ];
+            }
+        }
+
+        @Override
+        protected boolean compute_scores( Int8Word2Vec entities, long[] entity_ids, float[] out ) {
+            int n_words = word_counts.length;
+            int word_size = word_model.dimensions();
+            int entity_size = entity_vec.length;
+            byte[] words = quantized_words();
+            byte[] values = entities.values();
+            for( int j = 0; j < entity_ids.length; ++j ) {
+                int entity_offset = ( int ) entity_ids[ j ] * entity_size;
+                float entity_scale = entities.scale( entity_ids[ j ] );
+                double bias = values[ entity_offset + word_size ] * entity_scale;
+                float s = 0;
+                for( int i = 0; i < n_words; ++i ) {
+                    int word_offset = i * word_size;
+                    double dotprod = bias + LinearAlgebra.inner( word_size, words, word_offset, values, entity_offset ) * word_scales[ i ] * entity_scale;
+                    s += word_counts[ i ] * Math.log( 1 + Math.exp( dotprod ) );
+                }
+                out[ j ] = -s;
+            }
+            return true;
+        }
     }
 
     @Override
@@ -52,4 +96,12 @@ public class LREntityScorer extends EntityScorer {
         return new LRScorerContext( word_vecs, word_counts );
     }
 
+    /**
+     * Scores are minus a sum of non-negative terms
+     */
+    @Override
+    public float max_score() {
+        return 0;
+    }
+
 }
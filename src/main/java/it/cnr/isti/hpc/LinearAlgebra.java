@@ -15,23 +15,140 @@
  **/
 package it.cnr.isti.hpc;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 ////from https://github.com/ot/entity2vec
+/**
+ * Dense vector kernels used by the scorers. The static methods run on the SIMD implementation based on the
+ * (incubating) Java Vector API when it is available, i.e., on JDK 17+ with {@code --add-modules jdk.incubator.vector},
+ * and otherwise on the scalar loops in {@link #SCALAR}. The SIMD implementation can be disabled with
+ * {@code -Dfel.vectorApi=false}. The two implementations add the products in a different order, so their results can
+ * differ in the last bits.
+ */
 public class LinearAlgebra {
+    private static final Logger LOGGER = LoggerFactory.getLogger( LinearAlgebra.class );
+    private static final String VECTORIZED = "it.cnr.isti.hpc.VectorizedLinearAlgebra";
+
+    /**
+     * Implementation of the kernels
+     */
+    public interface Kernel {
+        /**
+         * @return inner product of v1[ offset1, offset1 + size ) and v2[ offset2, offset2 + size )
+         */
+        float inner( int size, float[] v1, int offset1, float[] v2, int offset2 );
+
+        /**
+         * @return cosine similarity of v1[ offset1, offset1 + size ) and v2[ offset2, offset2 + size ), or 0 if any of them is zero
+         */
+        float cosine( int size, float[] v1, int offset1, float[] v2, int offset2 );
+
+        /**
+         * @return inner product of the int8 vectors v1[ offset1, offset1 + size ) and v2[ offset2, offset2 + size )
+         */
+        int inner( int size, byte[] v1, int offset1, byte[] v2, int offset2 );
+    }
+
+    /**
+     * Scalar kernels, which the JIT compiler may auto-vectorize only partially (it does not vectorize reductions)
+     */
+    public static final Kernel SCALAR = new Kernel() {
+        @Override
+        public float inner( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+            float x0 = 0, x1 = 0, x2 = 0, x3 = 0;
+            // manually unroll to help the compiler autovectorizer
+            // (current JVM does not support vectorized accumulation)
+            for( int i = 0; i < size; i += 4 ) {
+                x0 += v1[ offset1 + i + 0 ] * v2[ offset2 + i + 0 ];
+                x1 += v1[ offset1 + i + 1 ] * v2[ offset2 + i + 1 ];
+                x2 += v1[ offset1 + i + 2 ] * v2[ offset2 + i + 2 ];
+                x3 += v1[ offset1 + i + 3 ] * v2[ offset2 + i + 3 ];
+            }
+
+            return x0 + x1 + x2 + x3;
+        }
+
+        @Override
+        public float cosine( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+            float score = 0;
+            float la = 0;
+            float lb = 0;
+            for( int i = 0; i < size; i++ ) {
+                score += v1[ offset1 + i ] * v2[ offset2 + i ];
+                la += v2[ offset2 + i ] * v2[ offset2 + i ];
+                lb += v1[ offset1 + i ] * v1[ offset1 + i ];
+            }
+            if( la == 0 || lb == 0 ) return 0; //avoiding NaN
+            return ( float ) ( score / ( Math.sqrt( la ) * Math.sqrt( lb ) ) );
+        }
+
+        @Override
+        public int inner( int size, byte[] v1, int offset1, byte[] v2, int offset2 ) {
+            int x = 0;
+            for( int i = 0; i < size; i++ ) x += v1[ offset1 + i ] * v2[ offset2 + i ];
+            return x;
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    };
+
+    /** Kernels used by the static methods */
+    public static final Kernel KERNEL = load();
+
+    /**
+     * Loads the Vector API kernels by reflection, so that this class links on any JVM
+     *
+     * @return the Vector API kernels, or the scalar ones if they can't be used
+     */
+    private static Kernel load() {
+        if( !Boolean.parseBoolean( System.getProperty( "fel.vectorApi", "true" ) ) ) return SCALAR;
+        try {
+            final Kernel kernel = ( Kernel ) Class.forName( VECTORIZED ).getDeclaredConstructor().newInstance();
+            kernel.inner( 4, new float[ 4 ], 0, new float[ 4 ], 0 ); //links jdk.incubator.vector
+            LOGGER.debug( "Using the " + kernel + " vector kernels" );
+            return kernel;
+        } catch( Exception | LinkageError e ) { //not compiled in, older JVM, or the incubator module was not added
+            LOGGER.debug( "Using the scalar vector kernels (" + e + ")" );
+            return SCALAR;
+        }
+    }
+
     public static float inner( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
         if( size % 4 != 0 ) {
             throw new IllegalArgumentException( "Vector size must be a multiple of 4" );
         }
+        return KERNEL.inner( size, v1, offset1, v2, offset2 );
+    }
 
-        float x0 = 0, x1 = 0, x2 = 0, x3 = 0;
-        // manually unroll to help the compiler autovectorizer
-        // (current JVM does not support vectorized accumulation)
-        for( int i = 0; i < size; i += 4 ) {
-            x0 += v1[ offset1 + i + 0 ] * v2[ offset2 + i + 0 ];
-            x1 += v1[ offset1 + i + 1 ] * v2[ offset2 + i + 1 ];
-            x2 += v1[ offset1 + i + 2 ] * v2[ offset2 + i + 2 ];
-            x3 += v1[ offset1 + i + 3 ] * v2[ offset2 + i + 3 ];
-        }
+    /**
+     * Cosine similarity of two vectors
+     *
+     * @param size    number of dimensions
+     * @param v1      first vector
+     * @param offset1 offset of the first vector
+     * @param v2      second vector
+     * @param offset2 offset of the second vector
+     * @return the cosine, or 0 if any of the vectors is zero
+     */
+    public static float cosine( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+        return KERNEL.cosine( size, v1, offset1, v2, offset2 );
+    }
 
-        return x0 + x1 + x2 + x3;
+    /**
+     * Inner product of two int8 vectors, which is exact (there is no rounding)
+     *
+     * @param size    number of dimensions
+     * @param v1      first vector
+     * @param offset1 offset of the first vector
+     * @param v2      second vector
+     * @param offset2 offset of the second vector
+     * @return the inner product
+     */
+    public static int inner( int size, byte[] v1, int offset1, byte[] v2, int offset2 ) {
+        return KERNEL.inner( size, v1, offset1, v2, offset2 );
     }
 }
@@ -0,0 +1,328 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package it.cnr.isti.hpc;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.Object2LongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Word (typically, entity) vectors compressed with product quantization: the dimensions are split into m subspaces of
+ * equal size, each subspace has a codebook of 256 centroids learned with k-means, and a vector is stored as the
+ * indices of the closest centroid of each of its subvectors, one byte per subspace (plus the norm of the
+ * reconstructed vector, for cosines). At 300 dimensions and 30 subspaces a vector takes 34 bytes instead of 1200.
+ *
+ * Vectors are approximated by the concatenation of their centroids ({@link #get(long, float[], int)}). Inner products
+ * with a query vector are computed without reconstructing them, by asymmetric distance computation: a per-query
+ * {@link #table(float[], int) table} holds the inner products of each query subvector with every centroid of its
+ * subspace, and the inner product with a vector is the sum of the m table entries selected by its codes
+ * ({@link #inner(long, float[])}). The scorers do so when scoring batches of candidates (see
+ * {@link EntityScorer.ScorerContext#scoreAll(long[], float[])}).
+ *
+ * Being a {@link Word2VecCompress}, the result can be used wherever a compressed model is loaded. main() trains the
+ * codebooks on a sample of the vectors of a model and encodes them all.
+ */
+public class PQWord2Vec extends Word2VecCompress {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger( PQWord2Vec.class );
+    /** number of centroids per subspace, so that codes are bytes */
+    public static final int CENTROIDS = 256;
+
+    private final int numWords;
+    private final int vectorSize;
+    private final int subspaces;
+    private final int subSize;
+    /** centroid k of subspace m at ( m * CENTROIDS + k ) * subSize */
+    private final float[] codebooks;
+    /** codes of vector i at [ i * subspaces, ( i + 1 ) * subspaces ) */
+    private final byte[] codes;
+    private final float[] norms;
+
+    public PQWord2Vec( int numWords, int vectorSize, int subspaces, float[] codebooks, byte[] codes, Object2LongFunction<? extends CharSequence> dictionary ) {
+        super( numWords, vectorSize, 1, null, null, dictionary, null );
+        if( subspaces <= 0 || vectorSize % subspaces != 0 ) throw new IllegalArgumentException( "The number of subspaces " + subspaces + " does not divide the dimensions " + vectorSize );
+        if( codebooks.length != CENTROIDS * vectorSize || codes.length != ( long ) numWords * subspaces ) throw new IllegalArgumentException( "Expected " + CENTROIDS + " centroids and " + numWords + " codes per subspace" );
+        this.numWords = numWords;
+        this.vectorSize = vectorSize;
+        this.subspaces = subspaces;
+        this.subSize = vectorSize / subspaces;
+        this.codebooks = codebooks;
+        this.codes = codes;
+        this.norms = new float[ numWords ];
+        final float[] v = new float[ vectorSize ];
+        for( int i = 0; i < numWords; i++ ) {
+            get( i, v, 0 );
+            norms[ i ] = ( float ) Math.sqrt( dot( vectorSize, v, 0, v, 0 ) );
+        }
+    }
+
+    /**
+     * Learns the codebooks of a model with k-means on a sample of its vectors, and encodes all of them
+     *
+     * @param model      model to compress
+     * @param subspaces  number of subspaces, which must divide the dimensions
+     * @param sample     maximum number of vectors to learn the codebooks on
+     * @param iterations k-means iterations
+     * @param seed       seed of the sampling and of the initial centroids
+     * @return the product-quantized model, with the same vector ids
+     */
+    public static PQWord2Vec train( final Word2VecCompress model, final int subspaces, final int sample, final int iterations, final long seed ) {
+        final int n = model.size(), d = model.dimensions();
+        if( subspaces <= 0 || d % subspaces != 0 ) throw new IllegalArgumentException( "The number of subspaces " + subspaces + " does not divide the dimensions " + d );
+        final int subSize = d / subspaces;
+        final Random random = new Random( seed );
+
+        // sample without replacement (partial Fisher-Yates)
+        final int s = Math.min( n, sample );
+        final int[] ids = new int[ n ];
+        for( int i = 0; i < n; i++ ) ids[ i ] = i;
+        for( int i = 0; i < s; i++ ) {
+            final int j = i + random.nextInt( n - i ), t = ids[ i ];
+            ids[ i ] = ids[ j ];
+            ids[ j ] = t;
+        }
+        final float[] vectors = new float[ s * d ];
+        for( int i = 0; i < s; i++ ) model.get( ids[ i ], vectors, i * d );
+
+        logger.info( "Learning {} codebooks of {} centroids on {} vectors", subspaces, CENTROIDS, s );
+        final float[] codebooks = new float[ CENTROIDS * d ];
+        final long[] seeds = new long[ subspaces ];
+        for( int m = 0; m < subspaces; m++ ) seeds[ m ] = random.nextLong();
+        IntStream.range( 0, subspaces ).parallel().forEach( m -> {
+            final float[] sub = new float[ s * subSize ];
+            for( int i = 0; i < s; i++ ) System.arraycopy( vectors, i * d + m * subSize, sub, i * subSize, subSize );
+            final float[] centroids = kmeans( sub, s, subSize, CENTROIDS, iterations, new Random( seeds[ m ] ) );
+            System.arraycopy( centroids, 0, codebooks, m * CENTROIDS * subSize, CENTROIDS * subSize );
+        } );
+
+        logger.info( "Encoding {} vectors", n );
+        final byte[] codes = new byte[ n * subspaces ];
+        IntStream.range( 0, n ).parallel().forEach( i -> {
+            final float[] v = new float[ d ];
+            model.get( i, v, 0 );
+            for( int m = 0; m < subspaces; m++ ) {
+                codes[ i * subspaces + m ] = ( byte ) closest( v, m * subSize, subSize, codebooks, m * CENTROIDS * subSize, CENTROIDS );
+            }
+        } );
+        return new PQWord2Vec( n, d, subspaces, codebooks, codes, model.dictionary() );
+    }
+
+    /**
+     * k-means with Euclidean distance of n vectors stored one after the other, used to learn the codebooks. It starts from k distinct
+     * random vectors and re-seeds empty clusters with random vectors. If there are no more than k vectors, they are the centroids
+     * (repeated as needed).
+     *
+     * @param x          vectors, the i-th one at i * d
+     * @param n          number of vectors
+     * @param d          dimensions
+     * @param k          number of clusters
+     * @param iterations maximum number of iterations (it stops earlier if no vector changes cluster)
+     * @param random     source of the initial centroids
+     * @return the centroids, the j-th one at j * d
+     */
+    static float[] kmeans( float[] x, int n, int d, int k, int iterations, Random random ) {
+        final float[] centroids = new float[ k * d ];
+        if( n == 0 ) return centroids;
+        if( n <= k ) {
+            for( int j = 0; j < k; j++ ) System.arraycopy( x, ( j % n ) * d, centroids, j * d, d );
+            return centroids;
+        }
+        final int[] perm = new int[ n ];
+        for( int i = 0; i < n; i++ ) perm[ i ] = i;
+        for( int j = 0; j < k; j++ ) {
+            final int r = j + random.nextInt( n - j ), t = perm[ j ];
+            perm[ j ] = perm[ r ];
+            perm[ r ] = t;
+            System.arraycopy( x, perm[ j ] * d, centroids, j * d, d );
+        }
+        final int[] assignment = new int[ n ];
+        Arrays.fill( assignment, -1 );
+        final int[] count = new int[ k ];
+        for( int it = 0; it < iterations; it++ ) {
+            boolean change = false;
+            for( int i = 0; i < n; i++ ) {
+                final int c = closest( x, i * d, d, centroids, 0, k );
+                if( c != assignment[ i ] ) {
+                    assignment[ i ] = c;
+                    change = true;
+                }
+            }
+            if( !change ) break;
+            Arrays.fill( centroids, 0 );
+            Arrays.fill( count, 0 );
+            for( int i = 0; i < n; i++ ) {
+                final int c = assignment[ i ];
+                count[ c ]++;
+                for( int p = 0; p < d; p++ ) centroids[ c * d + p ] += x[ i * d + p ];
+            }
+            for( int j = 0; j < k; j++ ) {
+                if( count[ j ] == 0 ) System.arraycopy( x, random.nextInt( n ) * d, centroids, j * d, d ); //empty cluster
+                else for( int p = 0; p < d; p++ ) centroids[ j * d + p ] /= count[ j ];
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * @param v        vector
+     * @param offset   offset of the vector in v
+     * @param d        dimensions
+     * @param centroids centroids, stored one after the other
+     * @param cOffset  offset of the first centroid
+     * @param k        number of centroids
+     * @return index of the centroid closest to the vector (in Euclidean distance)
+     */
+    static int closest( float[] v, int offset, int d, float[] centroids, int cOffset, int k ) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for( int j = 0; j < k; j++ ) {
+            float distance = 0;
+            for( int p = 0, c = cOffset + j * d; p < d; p++, c++ ) {
+                final float diff = v[ offset + p ] - centroids[ c ];
+                distance += diff * diff;
+            }
+            if( distance < bestDistance ) {
+                bestDistance = distance;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return number of subspaces (and bytes per vector)
+     */
+    public int subspaces() {
+        return subspaces;
+    }
+
+    /**
+     * Computes the table for asymmetric distance computation of a query vector
+     *
+     * @param q      query vector
+     * @param offset offset of the query in q
+     * @return inner products of every query subvector with every centroid of its subspace, centroid k of subspace m at m * {@link #CENTROIDS} + k
+     */
+    public float[] table( float[] q, int offset ) {
+        final float[] table = new float[ subspaces * CENTROIDS ];
+        for( int m = 0, t = 0; m < subspaces; m++ ) {
+            for( int k = 0; k < CENTROIDS; k++, t++ ) table[ t ] = dot( subSize, q, offset + m * subSize, codebooks, t * subSize );
+        }
+        return table;
+    }
+
+    /**
+     * Inner product of subvectors, which might not have a multiple of 4 dimensions as {@link LinearAlgebra#inner(int, float[], int, float[], int)} requires
+     */
+    private static float dot( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+        float s = 0;
+        for( int i = 0; i < size; i++ ) s += v1[ offset1 + i ] * v2[ offset2 + i ];
+        return s;
+    }
+
+    /**
+     * @param idx   vector id
+     * @param table table of a query vector (see {@link #table(float[], int)})
+     * @return inner product of the query with the (reconstructed) vector
+     */
+    public float inner( long idx, float[] table ) {
+        float s = 0;
+        for( int m = 0, i = ( int ) idx * subspaces; m < subspaces; m++, i++ ) s += table[ m * CENTROIDS + ( codes[ i ] & 0xFF ) ];
+        return s;
+    }
+
+    /**
+     * @param idx vector id
+     * @return norm of the reconstructed vector
+     */
+    public float norm( long idx ) {
+        return norms[ ( int ) idx ];
+    }
+
+    @Override
+    public void get( long idx, float[] result, int offset ) {
+        for( int m = 0, i = ( int ) idx * subspaces; m < subspaces; m++, i++ ) {
+            System.arraycopy( codebooks, ( m * CENTROIDS + ( codes[ i ] & 0xFF ) ) * subSize, result, offset + m * subSize, subSize );
+        }
+    }
+
+    /**
+     * @return the codes of the vector, one per subspace
+     */
+    @Override
+    public int[] getInt( long idx ) {
+        final int[] ret = new int[ subspaces ];
+        for( int m = 0, i = ( int ) idx * subspaces; m < subspaces; m++, i++ ) ret[ m ] = codes[ i ] & 0xFF;
+        return ret;
+    }
+
+    /**
+     * Does nothing: reconstructing a vector is cheaper than looking it up in a cache
+     */
+    @Override
+    public void setCache( long maxBytes ) {}
+
+    /**
+     * Does nothing: reconstructing a vector is cheaper than looking it up in a hot set
+     *
+     * @return 0
+     */
+    @Override
+    public int setHotSet( long[] ids, long maxBytes ) {
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return numWords;
+    }
+
+    @Override
+    public int dimensions() {
+        return vectorSize;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        SimpleJSAP jsap = new SimpleJSAP( PQWord2Vec.class.getName(), "Compresses (entity) vectors with product quantization", new Parameter[]{
+                new UnflaggedOption( "input", JSAP.STRING_PARSER, true, "Compressed model (Word2VecCompress)" ),
+                new UnflaggedOption( "output", JSAP.STRING_PARSER, true, "Product-quantized version" ),
+                new FlaggedOption( "subspaces", JSAP.INTEGER_PARSER, "30", JSAP.NOT_REQUIRED, 'm', "subspaces", "Number of subspaces (bytes per vector); must divide the dimensions" ),
+                new FlaggedOption( "sample", JSAP.INTEGER_PARSER, "100000", JSAP.NOT_REQUIRED, 's', "sample", "Number of vectors to learn the codebooks on" ),
+                new FlaggedOption( "iterations", JSAP.INTEGER_PARSER, "20", JSAP.NOT_REQUIRED, 'n', "iterations", "k-means iterations" ),
+                new FlaggedOption( "seed", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "seed", "Random seed" ) } );
+        JSAPResult jsapResult = jsap.parse( args );
+        if( jsap.messagePrinted() ) return;
+
+        final Word2VecCompress model = ( Word2VecCompress ) BinIO.loadObject( jsapResult.getString( "input" ) );
+        final PQWord2Vec pq = train( model, jsapResult.getInt( "subspaces" ), jsapResult.getInt( "sample" ), jsapResult.getInt( "iterations" ), jsapResult.getLong( "seed" ) );
+        BinIO.storeObject( pq, jsapResult.getString( "output" ) );
+
+        // relative reconstruction error, on (at most) the first 10000 vectors
+        final float[] v = new float[ pq.vectorSize ], r = new float[ pq.vectorSize ];
+        double error = 0;
+        int n = 0;
+        for( int i = 0; i < Math.min( pq.numWords, 10000 ); i++ ) {
+            model.get( i, v, 0 );
+            pq.get( i, r, 0 );
+            double diff = 0, norm = 0;
+            for( int j = 0; j < v.length; j++ ) {
+                diff += ( v[ j ] - r[ j ] ) * ( v[ j ] - r[ j ] );
+                norm += v[ j ] * v[ j ];
+            }
+            if( norm > 0 ) {
+                error += Math.sqrt( diff / norm );
+                n++;
+            }
+        }
+        logger.info( "{} vectors, {} bytes of codes and {} of codebooks, reconstruction error {}", pq.numWords, pq.codes.length + 4L * pq.norms.length, 4L * pq.codebooks.length, n > 0 ? error / n : 0 );
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package it.cnr.isti.hpc;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link LinearAlgebra.Kernel} on the Java Vector API, which accumulates the products in full SIMD registers and
+ * reduces them once per vector. It needs JDK 17+ to compile (see the java17 profile in the pom) and
+ * {@code --add-modules jdk.incubator.vector} to run; {@link LinearAlgebra} loads it by reflection and falls back to
+ * the scalar kernels otherwise, so nothing else may refer to this class.
+ *
+ * Products are added with mul + add rather than fma: fma is exact, but it is emulated (and very slow) on CPUs
+ * without the instruction. Int8 vectors are loaded 8 bytes at a time and widened to 8 ints (256 bits), which needs AVX2 or
+ * an equivalent to run in registers.
+ */
+public class VectorizedLinearAlgebra implements LinearAlgebra.Kernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+
+    @Override
+    public float inner( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+        FloatVector acc = FloatVector.zero( SPECIES );
+        final int bound = SPECIES.loopBound( size );
+        int i = 0;
+        for( ; i < bound; i += SPECIES.length() ) {
+            final FloatVector a = FloatVector.fromArray( SPECIES, v1, offset1 + i );
+            final FloatVector b = FloatVector.fromArray( SPECIES, v2, offset2 + i );
+            acc = acc.add( a.mul( b ) );
+        }
+        float sum = acc.reduceLanes( VectorOperators.ADD );
+        for( ; i < size; i++ ) sum += v1[ offset1 + i ] * v2[ offset2 + i ];
+        return sum;
+    }
+
+    @Override
+    public float cosine( int size, float[] v1, int offset1, float[] v2, int offset2 ) {
+        FloatVector dot = FloatVector.zero( SPECIES );
+        FloatVector norm1 = FloatVector.zero( SPECIES );
+        FloatVector norm2 = FloatVector.zero( SPECIES );
+        final int bound = SPECIES.loopBound( size );
+        int i = 0;
+        for( ; i < bound; i += SPECIES.length() ) {
+            final FloatVector a = FloatVector.fromArray( SPECIES, v1, offset1 + i );
+            final FloatVector b = FloatVector.fromArray( SPECIES, v2, offset2 + i );
+            dot = dot.add( a.mul( b ) );
+            norm1 = norm1.add( a.mul( a ) );
+            norm2 = norm2.add( b.mul( b ) );
+        }
+        float score = dot.reduceLanes( VectorOperators.ADD );
+        float lb = norm1.reduceLanes( VectorOperators.ADD );
+        float la = norm2.reduceLanes( VectorOperators.ADD );
+        for( ; i < size; i++ ) {
+            score += v1[ offset1 + i ] * v2[ offset2 + i ];
+            la += v2[ offset2 + i ] * v2[ offset2 + i ];
+            lb += v1[ offset1 + i ] * v1[ offset1 + i ];
+        }
+        if( la == 0 || lb == 0 ) return 0; //avoiding NaN
+        return ( float ) ( score / ( Math.sqrt( la ) * Math.sqrt( lb ) ) );
+    }
+
+    @Override
+    public int inner( int size, byte[] v1, int offset1, byte[] v2, int offset2 ) {
+        IntVector acc = IntVector.zero( INTS );
+        final int bound = BYTES.loopBound( size );
+        int i = 0;
+        for( ; i < bound; i += BYTES.length() ) {
+            final IntVector a = ( IntVector ) ByteVector.fromArray( BYTES, v1, offset1 + i ).convertShape( VectorOperators.B2I, INTS, 0 );
+            final IntVector b = ( IntVector ) ByteVector.fromArray( BYTES, v2, offset2 + i ).convertShape( VectorOperators.B2I, INTS, 0 );
+            acc = acc.add( a.mul( b ) );
+        }
+        int sum = acc.reduceLanes( VectorOperators.ADD );
+        for( ; i < size; i++ ) sum += v1[ offset1 + i ] * v2[ offset2 + i ];
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "Vector API (" + SPECIES + ")";
+    }
+}
@@ -20,6 +20,7 @@ import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.bits.TransformationStrategies;
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.Object2LongFunction;
 import it.unimi.dsi.io.OutputBitStream;
@@ -34,7 +35,9 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 //from https://github.com/ot/entity2vec
 public class Word2VecCompress implements Serializable {
@@ -49,6 +52,13 @@ public class Word2VecCompress implements Serializable {
     private EliasFanoMonotoneLongBigList endpoints;
     private Object2LongFunction<? extends CharSequence> dictionary;
     private int[] golombModuli;
+    private transient volatile ClockCache<Long, float[]> cache;
+    private transient volatile HotSet hot;
+    private transient volatile int[] golombLog2;
+    /** approximate size of an entry of the hot set besides its values: key and slot in the id map */
+    private static final int HOT_ENTRY_OVERHEAD = 16;
+    /** approximate size of a cache entry besides the floats: array header, boxed key, cache entry and hash map node */
+    private static final int CACHE_ENTRY_OVERHEAD = 112;
 
     public Word2VecCompress() {
 
@@ -68,15 +78,35 @@ public class Word2VecCompress implements Serializable {
     // only for testing
     public int[] getInt( long idx ) {
         int[] ret = new int[ vectorSize ];
+        decode( idx, ret );
+        return ret;
+    }
+
+    /**
+     * Decodes the quantized values of a vector
+     */
+    private void decode( long idx, int[] result ) {
         long endpoint = endpoints.get( idx );
         FastInputBitStream ibs = new FastInputBitStream( vectorStreams );
         ibs.position( endpoint );
+        ibs.readGolombVector( golombModuli, golombLog2(), result );
+    }
 
-        for( int col = 0; col < vectorSize; ++col ) {
-            ret[ col ] = Fast.nat2int( ibs.readGolomb( golombModuli[ col ] ) );
+    /**
+     * @return most significant bits of the Golomb moduli, computed once
+     */
+    private int[] golombLog2() {
+        int[] log2 = golombLog2;
+        if( log2 == null ) { //racy but idempotent, and published through the volatile field
+            log2 = new int[ golombModuli.length ];
+            for( int col = 0; col < log2.length; col++ ) log2[ col ] = Fast.mostSignificantBit( golombModuli[ col ] );
+            golombLog2 = log2;
         }
+        return log2;
+    }
 
-        return ret;
+    private static float dequantize( int val, float quantizationFactor ) {
+        return ( ( ( float ) val ) + 0.5f * Integer.signum( val ) ) / quantizationFactor;
     }
 
     public int[] getInt( String word ) {
@@ -87,16 +117,164 @@ public class Word2VecCompress implements Serializable {
         return getInt( idx );
     }
 
+    /**
+     * Enables (or disables) a cache of decoded vectors, shared by all the threads using this model. Popular word and
+     * entity vectors are then decoded once rather than on every lookup. The cache evicts with CLOCK, an approximation
+     * of LRU, and holds as many vectors as fit in the given memory (counting the per-entry overhead).
+     *
+     * @param maxBytes memory budget of the cache, or 0 to disable it
+     */
+    public void setCache( long maxBytes ) {
+        final long capacity = Math.min( numWords, maxBytes / ( ( long ) Float.BYTES * vectorSize + CACHE_ENTRY_OVERHEAD ) );
+        cache = maxBytes > 0 ? new ClockCache<Long, float[]>( ( int ) Math.max( 1, capacity ) ) : null;
+    }
+
+    /**
+     * Getter for the decoded vector cache, which holds the hit, miss and eviction counters
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public ClockCache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Vectors kept uncompressed, for direct access. The quantized values of a vector are stored as one byte each in a
+     * dense matrix, and are dequantized with a table to exactly the floats decoding would yield
+     */
+    public static final class HotSet {
+        private final Long2IntOpenHashMap slots;
+        private final byte[] values;
+        private final float[] dequantized = new float[ 256 ];
+        private final int vectorSize;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private HotSet( Long2IntOpenHashMap slots, byte[] values, int vectorSize, float quantizationFactor ) {
+            this.slots = slots;
+            this.values = values;
+            this.vectorSize = vectorSize;
+            for( int val = Byte.MIN_VALUE; val <= Byte.MAX_VALUE; val++ ) dequantized[ val & 0xFF ] = dequantize( val, quantizationFactor );
+        }
+
+        /**
+         * @return true if the vector is in the hot set, and then it has been copied to result
+         */
+        private boolean get( long idx, float[] result, int offset ) {
+            final int slot = slots.get( idx );
+            if( slot < 0 ) {
+                misses.increment();
+                return false;
+            }
+            hits.increment();
+            for( int col = 0, i = slot * vectorSize; col < vectorSize; col++, i++ ) result[ offset + col ] = dequantized[ values[ i ] & 0xFF ];
+            return true;
+        }
+
+        /**
+         * @return number of vectors in the hot set
+         */
+        public int size() {
+            return slots.size();
+        }
+
+        /**
+         * @return approximate memory used by the hot set, in bytes
+         */
+        public long bytes() {
+            return values.length + ( long ) slots.size() * HOT_ENTRY_OVERHEAD;
+        }
+
+        /**
+         * @return number of lookups of vectors in the hot set
+         */
+        public long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * @return number of lookups of vectors that had to be decoded (or found in the cache)
+         */
+        public long misses() {
+            return misses.sum();
+        }
+
+        @Override
+        public String toString() {
+            final long h = hits(), m = misses();
+            return "size=" + size() + " bytes=" + bytes() + " hits=" + h + " misses=" + m + " hitRate=" + ( h + m > 0 ? ( float ) h / ( h + m ) : 0 );
+        }
+    }
+
+    /**
+     * Keeps a set of vectors (typically, those of the most frequent words or entities) uncompressed, so that looking
+     * them up skips Golomb decoding. Vectors are taken in the given order until the memory budget is exhausted;
+     * vectors with a quantized value that does not fit in a byte stay compressed. The long tail is still decoded (and
+     * cached, see {@link #setCache(long)}).
+     *
+     * @param ids vector ids by decreasing priority (e.g., frequency)
+     * @param maxBytes memory budget of the hot set, or 0 to disable it
+     * @return number of vectors in the hot set
+     */
+    public int setHotSet( long[] ids, long maxBytes ) {
+        //the values of the hot set are a single array, so it can hold at most Integer.MAX_VALUE / vectorSize vectors
+        final int max = ( int ) Math.min( Math.min( ids.length, numWords ), Math.min( maxBytes / ( vectorSize + HOT_ENTRY_OVERHEAD ), Integer.MAX_VALUE / vectorSize ) );
+        if( max <= 0 ) {
+            hot = null;
+            return 0;
+        }
+        final Long2IntOpenHashMap slots = new Long2IntOpenHashMap( max );
+        slots.defaultReturnValue( -1 );
+        byte[] values = new byte[ max * vectorSize ];
+        final int[] quantized = new int[ vectorSize ];
+        int n = 0;
+        for( int i = 0; i < ids.length && n < max; i++ ) {
+            if( slots.containsKey( ids[ i ] ) ) continue;
+            decode( ids[ i ], quantized );
+            boolean fits = true;
+            for( int col = 0; col < vectorSize && fits; col++ ) fits = quantized[ col ] == ( byte ) quantized[ col ];
+            if( !fits ) continue;
+            for( int col = 0; col < vectorSize; col++ ) values[ n * vectorSize + col ] = ( byte ) quantized[ col ];
+            slots.put( ids[ i ], n++ );
+        }
+        if( n < max ) values = Arrays.copyOf( values, n * vectorSize );
+        hot = new HotSet( slots, values, vectorSize, quantizationFactor );
+        logger.info( "{} vectors in the hot set ({} bytes)", n, hot.bytes() );
+        return n;
+    }
+
+    /**
+     * Getter for the hot set, which holds the hit and miss counters
+     *
+     * @return the hot set, or null if it is disabled
+     */
+    public HotSet getHotSet() {
+        return hot;
+    }
+
     public void get( long idx, float[] result, int offset ) {
+        final HotSet h = hot;
+        if( h != null && h.get( idx, result, offset ) ) return;
+        final ClockCache<Long, float[]> c = cache;
+        if( c == null ) {
+            decode( idx, result, offset );
+            return;
+        }
+        final Long key = idx;
+        final float[] cached = c.get( key );
+        if( cached != null ) {
+            System.arraycopy( cached, 0, result, offset, vectorSize );
+            return;
+        }
+        decode( idx, result, offset );
+        c.put( key, Arrays.copyOfRange( result, offset, offset + vectorSize ) );
+    }
+
+    private void decode( long idx, float[] result, int offset ) {
         long endpoint = endpoints.get( idx );
         FastInputBitStream ibs = new FastInputBitStream( vectorStreams );
         ibs.position( endpoint );
-
-        for( int col = 0; col < vectorSize; ++col ) {
-            int val = Fast.nat2int( ibs.readGolomb( golombModuli[ col ] ) );
-            result[ offset + col ] = ( ( ( float ) val ) + 0.5f * Integer.signum( val ) ) / quantizationFactor;
-        }
-
+        ibs.readGolombVector( golombModuli, golombLog2(), result, offset, quantizationFactor );
     }
 
     public float[] get( long idx ) {
@@ -126,6 +304,13 @@ public class Word2VecCompress implements Serializable {
         return dictionary.get( word );
     }
 
+    /**
+     * @return map from words to vector ids
+     */
+    Object2LongFunction<? extends CharSequence> dictionary() {
+        return dictionary;
+    }
+
     public int size() {
         return numWords;
     }
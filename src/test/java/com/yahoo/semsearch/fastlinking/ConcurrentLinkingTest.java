@@ -0,0 +1,121 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.yahoo.semsearch.fastlinking.FastEntityLinker.EntityResult;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.w2v.LREntityContext;
+
+/**
+ * Checks that a linker shared by several threads returns the same results as the same linker called from a single
+ * thread, with and without the alias, query and vector caches
+ */
+public class ConcurrentLinkingTest {
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 2;
+    private static final int K = 10;
+    private static final double THRESHOLD = -30;
+
+    private static String serialize( List<EntityResult> results ) {
+        final StringBuilder sb = new StringBuilder();
+        for( EntityResult er : results ) sb.append( er.id ).append( ':' ).append( er.score ).append( ' ' );
+        return sb.toString();
+    }
+
+    /**
+     * Links the fixture queries single-threaded, and then from several threads (every one in a different order)
+     *
+     * @param fel linker
+     * @param caches enables the caches of the linker after the single-threaded run, so that they are checked too
+     * @return number of concurrent results that differ from the single-threaded ones
+     */
+    private static int mismatches( final FastEntityLinker fel, Runnable caches ) throws Exception {
+        final String[] queries = SyntheticFixtures.get().queries;
+        final String[] expected = new String[ queries.length ];
+        final String[] expectedGreedy = new String[ queries.length ];
+        for( int i = 0; i < queries.length; i++ ) {
+            expected[ i ] = serialize( fel.getResults( queries[ i ], THRESHOLD ) );
+            expectedGreedy[ i ] = serialize( fel.getResultsGreedy( queries[ i ], K ) );
+        }
+        if( caches != null ) caches.run();
+        final AtomicInteger mismatches = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool( THREADS );
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for( int t = 0; t < THREADS; t++ ) {
+            final long seed = t;
+            futures.add( pool.submit( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final List<Integer> order = new ArrayList<Integer>();
+                    for( int i = 0; i < queries.length; i++ ) order.add( i );
+                    final Random r = new Random( seed );
+                    for( int round = 0; round < ROUNDS; round++ ) {
+                        Collections.shuffle( order, r );
+                        for( int i : order ) {
+                            if( !serialize( fel.getResults( queries[ i ], THRESHOLD ) ).equals( expected[ i ] ) ) mismatches.incrementAndGet();
+                            if( !serialize( fel.getResultsGreedy( queries[ i ], K ) ).equals( expectedGreedy[ i ] ) ) mismatches.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            } ) );
+        }
+        try {
+            for( Future<Void> f : futures ) f.get(); //propagates any exception thrown by the linker
+        } finally {
+            pool.shutdown();
+        }
+        return mismatches.get();
+    }
+
+    @Test
+    public void sharedLinker() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().hash );
+        assertEquals( 0, mismatches( new FastEntityLinker( hash, new EmptyContext() ), null ) );
+    }
+
+    @Test
+    public void sharedLinkerWithCaches() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().mappedHash );
+        final FastEntityLinker fel = new FastEntityLinker( hash, new EmptyContext() );
+        assertEquals( 0, mismatches( fel, new Runnable() {
+            @Override
+            public void run() {
+                fel.setAliasCache( 1000 );
+                fel.setQueryCache( 100, 0, TimeUnit.SECONDS );
+            }
+        } ) );
+    }
+
+    @Test
+    public void sharedContextualLinker() throws Exception {
+        final SyntheticFixtures f = SyntheticFixtures.get();
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( f.hash );
+        final LREntityContext context = new LREntityContext( f.vectors, f.vectors, hash );
+        assertEquals( 0, mismatches( new EntityContextFastEntityLinker( hash, context ), new Runnable() {
+            @Override
+            public void run() {
+                context.setVectorCache( 1L << 20 );
+            }
+        } ) );
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking;
+
+import it.cnr.isti.hpc.Word2VecCompress;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.yahoo.semsearch.fastlinking.hash.MappedEntityHash;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+
+/**
+ * Small synthetic datapack, hash (serialized and memory-mapped), compressed vectors and query log, generated with the
+ * same command line tools used to build the real models. Everything is derived from a fixed seed, so every test and
+ * benchmark fork sees the same data, and nothing has to be downloaded. The JMH suite gets this class from the test jar.
+ * The vectors file holds the words, the entity names (for the contextual linker) and the entity names prefixed by
+ * _wiki_ (for the coherent linker).
+ */
+public class SyntheticFixtures {
+    public static final int WORDS = 2000;
+    public static final int ENTITIES = 5000;
+    public static final int ALIASES = 20000;
+    public static final int MAX_CANDIDATES = 20;
+    public static final int DIMENSIONS = 100;
+    public static final int QUERIES = 1000;
+    private static final long SEED = 1729;
+
+    private static SyntheticFixtures fixtures;
+
+    public final File dir;
+    public final String hash;
+    public final String mappedHash;
+    public final String vectors;
+    public final String[] words;
+    public final String[] entityNames;
+    public final String[] aliases;
+    public final String[] queries;
+
+    /**
+     * Returns the fixtures of this JVM, creating them the first time
+     *
+     * @return the fixtures
+     * @throws Exception if the tools fail to build the hash or the vectors
+     */
+    public static synchronized SyntheticFixtures get() throws Exception {
+        if( fixtures == null ) fixtures = new SyntheticFixtures();
+        return fixtures;
+    }
+
+    private SyntheticFixtures() throws Exception {
+        final Random r = new Random( SEED );
+        dir = Files.createTempDirectory( "fel-fixtures" ).toFile();
+        dir.deleteOnExit(); //registered first, so it is deleted after the files
+        words = new String[ WORDS ];
+        for( int i = 0; i < WORDS; i++ ) words[ i ] = word( r, i );
+        entityNames = new String[ ENTITIES ];
+        for( int i = 0; i < ENTITIES; i++ ) entityNames[ i ] = capitalize( words[ r.nextInt( WORDS ) ] ) + "_" + capitalize( words[ r.nextInt( WORDS ) ] ) + "_" + i;
+
+        final Set<String> aliasSet = new LinkedHashSet<String>();
+        while( aliasSet.size() < ALIASES ) {
+            final int n = 1 + Math.min( r.nextInt( 4 ), r.nextInt( 4 ) ); //mostly unigrams and bigrams
+            final StringBuilder sb = new StringBuilder( words[ zipf( r, WORDS ) ] );
+            for( int i = 1; i < n; i++ ) sb.append( ' ' ).append( words[ zipf( r, WORDS ) ] );
+            aliasSet.add( sb.toString() );
+        }
+        aliases = aliasSet.toArray( new String[ aliasSet.size() ] );
+
+        final File datapack = file( "datapack" );
+        final File entity2id = file( "entity2id" );
+        try( PrintWriter out = new PrintWriter( datapack, "UTF-8" ) ) {
+            for( String alias : aliases ) writeAlias( out, r, alias );
+        }
+        try( PrintWriter out = new PrintWriter( entity2id, "UTF-8" ) ) {
+            for( int i = 0; i < ENTITIES; i++ ) out.println( entityNames[ i ] + "\t" + i );
+        }
+        hash = file( "hash" ).getPath();
+        mappedHash = file( "hash.mapped" ).getPath();
+        QuasiSuccinctEntityHash.main( new String[]{ "-i", datapack.getPath(), "-e", entity2id.getPath(), "-o", hash } );
+        MappedEntityHash.main( new String[]{ "-h", hash, "-i", datapack.getPath(), "-o", mappedHash } );
+
+        final File quantized = file( "vectors.quant" );
+        writeVectors( quantized, r );
+        vectors = file( "vectors" ).getPath();
+        Word2VecCompress.main( new String[]{ quantized.getPath(), vectors } );
+
+        queries = new String[ QUERIES ];
+        for( int i = 0; i < QUERIES; i++ ) {
+            final StringBuilder sb = new StringBuilder();
+            final int n = 1 + r.nextInt( 3 );
+            for( int j = 0; j < n; j++ ) { //a few aliases and stray words
+                if( j > 0 ) sb.append( ' ' );
+                sb.append( r.nextInt( 4 ) == 0 ? words[ r.nextInt( WORDS ) ] : aliases[ zipf( r, ALIASES ) ] );
+            }
+            queries[ i ] = sb.toString();
+        }
+    }
+
+    /**
+     * Writes an alias line of the datapack: the alias and its features separated by \u0001, a tab, and 9 fields per
+     * candidate entity
+     */
+    private static void writeAlias( PrintWriter out, Random r, String alias ) {
+        final int candidates = 1 + Math.min( r.nextInt( MAX_CANDIDATES ), r.nextInt( MAX_CANDIDATES ) );
+        final int QAF = r.nextInt( 1000 ), QAC = r.nextInt( 1000 ), QAT = QAF + r.nextInt( 1000 );
+        final int LAF = r.nextInt( 1000 ), LAT = LAF + r.nextInt( 1000 );
+        out.print( alias + "\u0001" + QAF + "\u0001" + QAC + "\u0001" + QAT + "\u00010\u00010\u0001" + LAF + "\u0001" + LAT + "\u00010\t" );
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+        while( ids.size() < candidates ) ids.add( r.nextInt( ENTITIES ) );
+        boolean first = true;
+        for( int id : ids ) {
+            if( !first ) out.print( '\u0001' );
+            first = false;
+            //id type QEF QAEF MET MAET LET LAET (and one more field that the reader skips)
+            out.print( id + "\u0001" + r.nextInt( 20 ) + "\u0001" + r.nextInt( 5000 ) + "\u0001" + r.nextInt( QAF + 1 ) + "\u00010\u00010\u0001" + r.nextInt( 5000 ) + "\u0001" + r.nextInt( LAF + 1 ) + "\u00010" );
+        }
+        out.println();
+    }
+
+    /**
+     * Writes quantized vectors in the input format of {@link Word2VecCompress}
+     */
+    private void writeVectors( File file, Random r ) throws IOException {
+        final List<String> keys = new ArrayList<String>();
+        for( String w : words ) keys.add( w );
+        for( String e : entityNames ) {
+            keys.add( e );
+            keys.add( "_wiki_" + e );
+        }
+        try( PrintWriter out = new PrintWriter( file, "UTF-8" ) ) {
+            out.println( keys.size() + "\t" + DIMENSIONS + "\t10" );
+            for( String k : keys ) out.println( k );
+            for( int i = 0; i < keys.size(); i++ ) {
+                final StringBuilder sb = new StringBuilder();
+                for( int d = 0; d < DIMENSIONS; d++ ) {
+                    if( d > 0 ) sb.append( ' ' );
+                    sb.append( ( int ) Math.round( 4 + r.nextGaussian() * 3 ) ); //biased, so that cosines are positive as in real embeddings
+                }
+                out.println( sb );
+            }
+        }
+    }
+
+    private File file( String name ) {
+        final File f = new File( dir, name );
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return a pronounceable lower case word, unique for every index
+     */
+    private static String word( Random r, int index ) {
+        final String consonants = "bcdfghklmnprstvz", vowels = "aeiou";
+        final StringBuilder sb = new StringBuilder();
+        final int syllables = 1 + r.nextInt( 3 );
+        for( int i = 0; i < syllables; i++ ) {
+            sb.append( consonants.charAt( r.nextInt( consonants.length() ) ) );
+            sb.append( vowels.charAt( r.nextInt( vowels.length() ) ) );
+        }
+        return sb.append( index ).toString();
+    }
+
+    private static String capitalize( String s ) {
+        return Character.toUpperCase( s.charAt( 0 ) ) + s.substring( 1 );
+    }
+
+    /**
+     * @return an index in [0, n) skewed towards the smaller values, like term frequencies
+     */
+    private static int zipf( Random r, int n ) {
+        return ( int ) Math.min( n - 1, Math.floor( Math.exp( r.nextDouble() * Math.log( n + 1 ) ) ) - 1 );
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.entityranker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yahoo.semsearch.fastlinking.SyntheticFixtures;
+import com.yahoo.semsearch.fastlinking.hash.LookupBuffer;
+import com.yahoo.semsearch.fastlinking.hash.QuasiSuccinctEntityHash;
+import com.yahoo.semsearch.fastlinking.view.CandidatesView;
+import com.yahoo.semsearch.fastlinking.view.EmptyContext;
+import com.yahoo.semsearch.fastlinking.view.Entity;
+import com.yahoo.semsearch.fastlinking.view.EntityContext;
+import com.yahoo.semsearch.fastlinking.view.EntityScore;
+
+/**
+ * Checks that {@link ProbabilityRanker#topK}, which stops scoring the candidates of an alias at the first checkpoint
+ * whose bound can't beat the current top k, returns the same candidates and scores as ranking all of them, and that
+ * the winner of an alias is the same on views and on {@link com.yahoo.semsearch.fastlinking.view.CandidatesInfo}, also
+ * with NaN and infinite scores
+ */
+public class ProbabilityRankerTest {
+    private static final int BATCH = 64;
+    private static final int[] K = { 1, 2, 3, 5, 8, 10, 20 };
+
+    /**
+     * Counts the candidates that get scored
+     */
+    private static class CountingRanker extends ProbabilityRanker {
+        long scored;
+
+        CountingRanker( QuasiSuccinctEntityHash hash ) {
+            super( hash );
+        }
+
+        @Override
+        public double rank( CandidatesView view, int k, int i, Entity flyweight, EntityContext context, String surfaceForm, int length ) {
+            scored++;
+            return super.rank( view, k, i, flyweight, context, surfaceForm, length );
+        }
+    }
+
+    /**
+     * Scores the candidates with an odd QEF as NaN, like bad counts do, or all of them as negative infinity
+     */
+    private static class BadScoreRanker extends CountingRanker {
+        private final boolean allInfinite;
+
+        BadScoreRanker( QuasiSuccinctEntityHash hash, boolean allInfinite ) {
+            super( hash );
+            this.allInfinite = allInfinite;
+        }
+
+        @Override
+        protected double score( double QEF, double LET, double QAEF, double LAET, double QAF, double QAT, double QAC, double LAF, double LAT ) {
+            if( allInfinite ) return Double.NEGATIVE_INFINITY;
+            return ( ( long ) QEF & 1 ) != 0 ? Double.NaN : super.score( QEF, LET, QAEF, LAET, QAF, QAT, QAC, LAF, LAT );
+        }
+
+        @Override
+        protected double rankUpperBound( CandidatesView view, int k, int j, EntityContext context, String surfaceForm, int length ) {
+            return allInfinite ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @return number of candidates scored by topK divided by the number of candidates
+     */
+    private static double check( CountingRanker ranker ) throws Exception {
+        final SyntheticFixtures f = SyntheticFixtures.get();
+        final QuasiSuccinctEntityHash hash = ranker.hash;
+        final EntityContext context = new EmptyContext();
+        final CandidatesView view = new CandidatesView();
+        final LookupBuffer buffer = new LookupBuffer();
+        final Entity flyweight = new Entity();
+        long candidates = 0, scored = 0;
+        for( int from = 0; from < f.aliases.length; from += BATCH ) {
+            final int n = Math.min( BATCH, f.aliases.length - from );
+            final String[] batch = new String[ n ];
+            System.arraycopy( f.aliases, from, batch, 0, n );
+            hash.getCandidates( batch, n, view, buffer );
+            for( int a = 0; a < n; a++ ) {
+                final int start = view.start( a ), end = view.end( a );
+                final double[] all = new double[ end - start ];
+                for( int i = start; i < end; i++ ) all[ i - start ] = ranker.rank( view, a, i, flyweight, context, batch[ a ], 1 );
+                final List<Integer> expected = stableSort( all );
+                final EntityScore best = ranker.getHighestRankedEntity( view, a, context, batch[ a ], 1 );
+                final EntityScore bestInfo = ranker.getHighestRankedEntity( view.candidatesInfo( a ), context, batch[ a ], 1 );
+                assertEquals( batch[ a ], bestInfo.entity.id, best.entity.id );
+                assertEquals( Double.doubleToLongBits( bestInfo.score ), Double.doubleToLongBits( best.score ) );
+                assertFalse( Double.isNaN( best.score ) || Double.isInfinite( best.score ) );
+                for( int k : K ) {
+                    k = Math.min( k, end - start );
+                    final int[] top = new int[ k ];
+                    final double[] scores = new double[ k ];
+                    ranker.scored = 0;
+                    ranker.topK( view, a, context, batch[ a ], 1, top, scores );
+                    candidates += end - start;
+                    scored += ranker.scored;
+                    for( int i = 0; i < k; i++ ) {
+                        assertEquals( batch[ a ] + " k=" + k + " position " + i, start + expected.get( i ), top[ i ] );
+                        assertEquals( Double.doubleToLongBits( all[ expected.get( i ) ] ), Double.doubleToLongBits( scores[ i ] ) );
+                    }
+                }
+            }
+        }
+        return ( double ) scored / candidates;
+    }
+
+    /**
+     * @return the indexes of the scores sorted stably by decreasing score, with NaN ranking as negative infinity
+     */
+    private static List<Integer> stableSort( final double[] scores ) {
+        final List<Integer> order = new ArrayList<Integer>();
+        for( int i = 0; i < scores.length; i++ ) order.add( i );
+        Collections.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer a, Integer b ) {
+                return Double.compare( rankable( scores[ b ] ), rankable( scores[ a ] ) );
+            }
+        } );
+        return order;
+    }
+
+    private static double rankable( double s ) {
+        return Double.isNaN( s ) ? Double.NEGATIVE_INFINITY : s;
+    }
+
+    @Test
+    public void topKMatchesFullRanking() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().hash );
+        assertTrue( "the bounds never stopped the scan", check( new CountingRanker( hash ) ) < 1 );
+    }
+
+    @Test
+    public void topKMatchesFullRankingOnMappedHash() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().mappedHash );
+        assertTrue( "the bounds never stopped the scan", check( new CountingRanker( hash ) ) < 1 );
+    }
+
+    @Test
+    public void nanScoresNeverWin() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().hash );
+        assertEquals( "a NaN score stopped the scan", 1, check( new BadScoreRanker( hash, false ) ), 0 );
+    }
+
+    @Test
+    public void infiniteScoresGetTheFloor() throws Exception {
+        final QuasiSuccinctEntityHash hash = QuasiSuccinctEntityHash.load( SyntheticFixtures.get().hash );
+        check( new BadScoreRanker( hash, true ) );
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ Copyright 2016, Yahoo Inc.
+ Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ **/
+
+package com.yahoo.semsearch.fastlinking.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link TopK} against sorting all the items stably by decreasing score (NaN ranking as negative infinity),
+ * with many ties and special values
+ */
+public class TopKTest {
+    private static final int[] K = { 1, 2, 3, 10, 64, 100, 1000 };
+
+    /**
+     * @return random scores from a small range (so that there are many ties), with some infinities, signed zeros and NaNs
+     */
+    private static double[] scores( Random r, int n ) {
+        final double[] special = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0 };
+        final double[] values = new double[ n ];
+        for( int i = 0; i < n; i++ ) values[ i ] = r.nextInt( 20 ) == 0 ? special[ r.nextInt( special.length ) ] : r.nextInt( 10 ) - 5;
+        return values;
+    }
+
+    /**
+     * @return the indexes of the values sorted stably by decreasing score, with NaN last (tied with negative infinity)
+     */
+    private static List<Integer> stableSort( final double[] values ) {
+        final List<Integer> order = new ArrayList<Integer>();
+        for( int i = 0; i < values.length; i++ ) order.add( i );
+        Collections.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer a, Integer b ) {
+                return Double.compare( rankable( values[ b ] ), rankable( values[ a ] ) );
+            }
+        } );
+        return order;
+    }
+
+    private static double rankable( double s ) {
+        return Double.isNaN( s ) ? Double.NEGATIVE_INFINITY : s;
+    }
+
+    private static void check( double[] values, List<Integer> expected, int[] top, double[] scores, int size ) {
+        assertEquals( Math.min( values.length, top.length ), size );
+        for( int i = 0; i < size; i++ ) {
+            assertEquals( "position " + i, ( int ) expected.get( i ), top[ i ] );
+            assertEquals( Double.doubleToLongBits( values[ top[ i ] ] ), Double.doubleToLongBits( scores[ i ] ) );
+        }
+    }
+
+    @Test
+    public void selectIsAStableSort() {
+        final Random r = new Random( 0 );
+        for( int n : new int[]{ 0, 1, 5, 63, 64, 65, 500 } ) {
+            final double[] values = scores( r, n );
+            final List<Integer> expected = stableSort( values );
+            for( int k : K ) {
+                final int[] top = new int[ k ];
+                final double[] scores = new double[ k ];
+                check( values, expected, top, scores, TopK.select( values, n, top, scores ) );
+            }
+        }
+    }
+
+    @Test
+    public void offerOrderDoesNotMatter() {
+        final Random r = new Random( 1 );
+        final double[] values = scores( r, 500 );
+        final List<Integer> expected = stableSort( values );
+        final List<Integer> order = new ArrayList<Integer>();
+        for( int i = 0; i < values.length; i++ ) order.add( i );
+        for( int k : K ) {
+            Collections.shuffle( order, r );
+            final int[] top = new int[ k ];
+            final double[] scores = new double[ k ];
+            int size = 0;
+            for( int i : order ) size = TopK.add( top, scores, size, i, values[ i ] );
+            TopK.sort( top, scores, size );
+            check( values, expected, top, scores, size );
+        }
+    }
+
+    @Test
+    public void nanNeverBeatsARealScore() {
+        final double[] values = { Double.NaN, Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, Double.NaN };
+        final int[] top = new int[ 4 ];
+        final double[] scores = new double[ 4 ];
+        assertEquals( 4, TopK.select( values, values.length, top, scores ) );
+        assertArrayEquals( new int[]{ 2, 0, 1, 3 }, top );
+        assertTrue( Double.isNaN( scores[ 1 ] ) );
+        assertTrue( TopK.compare( Double.NaN, Double.NEGATIVE_INFINITY ) == 0 );
+        assertTrue( TopK.compare( Double.NaN, -Double.MAX_VALUE ) < 0 );
+    }
+
+    @Test
+    public void floatSelectMatchesDouble() {
+        final Random r = new Random( 2 );
+        final double[] values = scores( r, 500 );
+        final float[] floats = new float[ values.length ];
+        for( int i = 0; i < values.length; i++ ) floats[ i ] = ( float ) values[ i ];
+        for( int k : K ) {
+            final int[] top = new int[ k ], floatTop = new int[ k ];
+            final double[] scores = new double[ k ];
+            final float[] floatScores = new float[ k ];
+            final int size = TopK.select( values, values.length, top, scores );
+            assertEquals( size, TopK.select( floats, floats.length, floatTop, floatScores ) );
+            assertArrayEquals( top, floatTop );
+        }
+    }
+}